@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley;
+
+/**
+ * Retry policy whose timeouts follow the round trip times observed for the request's host,
+ * so they are short on fast networks and long on slow ones.
+ *
+ * <p>Every attempt uses the host's {@link RttEstimator} timeout. An attempt that times out
+ * doubles it for all requests to the host until one gets a response, as TCP backs off its
+ * retransmission timeout. All timeouts stay within the policy's floor and ceiling.</p>
+ *
+ * <pre>
+ * request.setRetryPolicy(new AdaptiveRetryPolicy(request.getHost()));
+ * </pre>
+ */
+public class AdaptiveRetryPolicy implements RetryPolicy {
+
+    /** The default lowest timeout in milliseconds. */
+    public static final int DEFAULT_MIN_TIMEOUT_MS = 1000;
+
+    /** The default highest timeout in milliseconds. */
+    public static final int DEFAULT_MAX_TIMEOUT_MS = 20000;
+
+    /** The estimator of the request's host. */
+    private final RttEstimator mEstimator;
+
+    /** Timeout used before the host has any sample. */
+    private final int mInitialTimeoutMs;
+
+    /** The lowest timeout. */
+    private final int mMinTimeoutMs;
+
+    /** The highest timeout. */
+    private final int mMaxTimeoutMs;
+
+    /** The maximum number of retries. */
+    private final int mMaxNumRetries;
+
+    /** The current retry count. */
+    private int mCurrentRetryCount;
+
+    /**
+     * Constructs a policy for the given host with the default bounds and retries.
+     */
+    public AdaptiveRetryPolicy(String host) {
+        this(RttEstimator.forHost(host), DefaultRetryPolicy.DEFAULT_TIMEOUT_MS,
+                DEFAULT_MIN_TIMEOUT_MS, DEFAULT_MAX_TIMEOUT_MS,
+                DefaultRetryPolicy.DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Constructs a new adaptive retry policy.
+     * @param estimator The RTT estimator of the request's host.
+     * @param initialTimeoutMs The timeout used until the host has been measured.
+     * @param minTimeoutMs The lowest timeout.
+     * @param maxTimeoutMs The highest timeout.
+     * @param maxNumRetries The maximum number of retries.
+     */
+    public AdaptiveRetryPolicy(RttEstimator estimator, int initialTimeoutMs, int minTimeoutMs,
+            int maxTimeoutMs, int maxNumRetries) {
+        mEstimator = estimator;
+        mInitialTimeoutMs = initialTimeoutMs;
+        mMinTimeoutMs = minTimeoutMs;
+        mMaxTimeoutMs = maxTimeoutMs;
+        mMaxNumRetries = maxNumRetries;
+    }
+
+    /**
+     * Returns the timeout of the current attempt, from the host's latest estimates.
+     */
+    @Override
+    public int getCurrentTimeout() {
+        return mEstimator.getTimeoutMs(mInitialTimeoutMs, mMinTimeoutMs, mMaxTimeoutMs);
+    }
+
+    /**
+     * Returns the current retry count.
+     */
+    @Override
+    public int getCurrentRetryCount() {
+        return mCurrentRetryCount;
+    }
+
+    /**
+     * Returns the estimator of the request's host.
+     */
+    public RttEstimator getRttEstimator() {
+        return mEstimator;
+    }
+
+    /**
+     * Prepares for the next retry. A timeout backs off the host's estimator, whether or
+     * not there are retries left, so the next attempt gets twice the timeout.
+     * @param error The error code of the last attempt.
+     */
+    @Override
+    public void retry(VolleyError error) throws VolleyError {
+        if (error instanceof TimeoutError) {
+            mEstimator.onTimeout();
+        }
+        mCurrentRetryCount++;
+        if (mCurrentRetryCount > mMaxNumRetries) {
+            throw error;
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package com.wz.wzvolley;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -44,14 +45,15 @@ public interface Cache {
     public void initialize();
 
     /**
-     * Invalidates an entry in the cache.
+     * Invalidates an entry in the cache, and the variants it indexes if any; see
+     * {@link Entry#getVariantKeys()}.
      * @param key Cache key
      * @param fullExpire True to fully expire the entry, false to soft expire
      */
     public void invalidate(String key, boolean fullExpire);
 
     /**
-     * Removes an entry from the cache.
+     * Removes an entry from the cache, and the variants it indexes if any.
      * @param key Cache key
      */
     public void remove(String key);
@@ -83,6 +85,18 @@ public interface Cache {
         /** Soft TTL for this record. */
         public long softTtl;
 
+        /**
+         * Time until which this record may still be served when refreshing it fails,
+         * from the stale-if-error directive.
+         */
+        public long staleIfErrorTtl;
+
+        /**
+         * Name of the cache partition this entry is stored in, or null to let the cache
+         * choose. See {@link Request#setCachePartition(String)}.
+         */
+        public String partition;
+
         /** Immutable response headers as received from server; must be non-null. */
         public Map<String, String> responseHeaders = Collections.emptyMap();
 
@@ -95,6 +109,36 @@ public interface Cache {
         public boolean refreshNeeded() {
             return this.softTtl < System.currentTimeMillis();
         }
+
+        /**
+         * True if the entry may be served in place of a failed refresh, either because the
+         * server allowed it with stale-if-error or because it expired less than
+         * {@code maxStaleMs} ago.
+         */
+        public boolean isUsableOnError(long maxStaleMs) {
+            long now = System.currentTimeMillis();
+            if (now < this.staleIfErrorTtl) {
+                return true;
+            }
+            return maxStaleMs > 0 && now - this.ttl < maxStaleMs;
+        }
+
+        /**
+         * True if this entry is not a response but the index of the variants of a
+         * response that varies on request headers.
+         */
+        public boolean isVariantIndex() {
+            return CacheVariants.isIndex(this);
+        }
+
+        /**
+         * Returns the cache keys of the variants this entry indexes, or an empty list if
+         * it is not a {@link #isVariantIndex() variant index}.
+         */
+        public List<String> getVariantKeys() {
+            return isVariantIndex() ? CacheVariants.readIndex(this)
+                    : Collections.<String>emptyList();
+        }
     }
 
 }
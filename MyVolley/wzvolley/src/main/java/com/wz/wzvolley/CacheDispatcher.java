@@ -96,8 +96,8 @@ public class CacheDispatcher extends Thread {
                     continue;
                 }
 
-                // Attempt to retrieve this item from cache.
-                Cache.Entry entry = mCache.get(request.getCacheKey());
+                // Attempt to retrieve this item (or the variant matching its headers) from cache.
+                Cache.Entry entry = CacheVariants.get(mCache, request);
                 if (entry == null) {
                     request.addMarker("cache-miss");
                     // Cache miss; send off to the network dispatcher.
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Stores and selects cache entries for responses that carry a Vary header.
+ *
+ * <p>A response that varies on request headers is stored under a variant key made of the
+ * request's cache key plus the values of the varying headers on that request. The plain
+ * cache key then holds a small index entry which records the Vary header and the variant
+ * keys, oldest first, so that at most {@link #MAX_VARIANTS_PER_KEY} variants are kept.</p>
+ *
+ * <p>Works on top of any {@link Cache} implementation. Caches invalidate and remove the
+ * variants listed in an index along with it, see {@link Cache.Entry#getVariantKeys()}.</p>
+ */
+final class CacheVariants {
+
+    /** Maximum number of variants kept for a single cache key. */
+    static final int MAX_VARIANTS_PER_KEY = 4;
+
+    /** Header marking an index entry; its value is the Vary header of the stored variants. */
+    static final String INDEX_HEADER = "X-WzVolley-Vary-Index";
+
+    private static final String VARY = "Vary";
+
+    private CacheVariants() { }
+
+    /**
+     * Returns the cache entry matching the given request, or null if there is none.
+     */
+    static Cache.Entry get(Cache cache, Request<?> request) {
+        String key = request.getCacheKey();
+        Cache.Entry entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        String vary = entry.responseHeaders.get(INDEX_HEADER);
+        if (vary == null) {
+            return entry;
+        }
+        String variantKey = variantKey(key, vary, request);
+        return variantKey == null ? null : cache.get(variantKey);
+    }
+
+    /**
+     * Stores a response entry for the given request, as a variant if the response
+     * varies on request headers.
+     */
+    static void put(Cache cache, Request<?> request, Cache.Entry entry) {
+        if (entry.partition == null) {
+            entry.partition = request.getCachePartition();
+        }
+        String key = request.getCacheKey();
+        String vary = header(entry.responseHeaders, VARY);
+        if (vary == null) {
+            cache.put(key, entry);
+            return;
+        }
+        String variantKey = variantKey(key, vary, request);
+        if (variantKey == null) {
+            return;
+        }
+
+        // Several network dispatchers may store variants for the same key at once.
+        synchronized (cache) {
+            List<String> variantKeys = new ArrayList<String>();
+            Cache.Entry index = cache.get(key);
+            if (index != null) {
+                String indexedVary = index.responseHeaders.get(INDEX_HEADER);
+                if (vary.equals(indexedVary)) {
+                    variantKeys.addAll(readIndex(index));
+                } else if (indexedVary != null) {
+                    // The server changed what it varies on; the old variants are unreachable.
+                    for (String staleKey : readIndex(index)) {
+                        cache.remove(staleKey);
+                    }
+                }
+            }
+
+            cache.put(variantKey, entry);
+            variantKeys.remove(variantKey);
+            variantKeys.add(variantKey);
+            while (variantKeys.size() > MAX_VARIANTS_PER_KEY) {
+                cache.remove(variantKeys.remove(0));
+            }
+            cache.put(key, newIndex(vary, variantKeys, entry));
+        }
+    }
+
+    /**
+     * Returns the variant key for a request, or null if the response must not be
+     * cached for it (Vary: * or headers that cannot be read).
+     */
+    private static String variantKey(String key, String vary, Request<?> request) {
+        Map<String, String> requestHeaders;
+        try {
+            requestHeaders = request.getHeaders();
+        } catch (AuthFailureError e) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(key).append('\n');
+        for (String name : vary.split(",")) {
+            name = name.trim();
+            if (name.equals("*")) {
+                return null;
+            }
+            if (name.length() == 0) {
+                continue;
+            }
+            String value = requestHeaders == null ? null : header(requestHeaders, name);
+            builder.append(name.toLowerCase(Locale.US)).append('=')
+                    .append(value == null ? "" : value.trim()).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /** Looks up a header ignoring the case of its name. */
+    private static String header(Map<String, String> headers, String name) {
+        String value = headers.get(name);
+        if (value != null) {
+            return value;
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /** Returns true if the entry is the index of the variants of a key. */
+    static boolean isIndex(Cache.Entry entry) {
+        return entry.responseHeaders != null && entry.responseHeaders.containsKey(INDEX_HEADER);
+    }
+
+    static List<String> readIndex(Cache.Entry index) {
+        List<String> keys = new ArrayList<String>();
+        if (index.data == null || index.data.length == 0) {
+            return keys;
+        }
+        try {
+            for (String variantKey : new String(index.data, HttpConstant.UTF_8).split("\u0000")) {
+                if (variantKey.length() > 0) {
+                    keys.add(variantKey);
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            VolleyLog.wtf("Unsupported encoding reading vary index");
+        }
+        return keys;
+    }
+
+    private static Cache.Entry newIndex(String vary, List<String> variantKeys,
+            Cache.Entry latest) {
+        StringBuilder builder = new StringBuilder();
+        for (String variantKey : variantKeys) {
+            builder.append(variantKey).append('\u0000');
+        }
+        Cache.Entry index = new Cache.Entry();
+        try {
+            index.data = builder.toString().getBytes(HttpConstant.UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            index.data = new byte[0];
+        }
+        // The index itself is never delivered; keep it around as long as any variant.
+        index.ttl = Long.MAX_VALUE;
+        index.softTtl = Long.MAX_VALUE;
+        index.serverDate = latest.serverDate;
+        // Carry what a partitioned cache routes on, so the index lands next to its variants.
+        index.partition = latest.partition;
+        Map<String, String> headers = new HashMap<String, String>(2);
+        headers.put(INDEX_HEADER, vary);
+        String contentType = header(latest.responseHeaders, HttpConstant.CONTENT_TYPE);
+        if (contentType != null) {
+            headers.put(HttpConstant.CONTENT_TYPE, contentType);
+        }
+        index.responseHeaders = headers;
+        return index;
+    }
+}
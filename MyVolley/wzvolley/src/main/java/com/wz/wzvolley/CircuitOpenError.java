@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley;
+
+/**
+ * Indicates that the request was not sent because the circuit breaker of its host is
+ * open, the host having failed too many recent requests.
+ */
+@SuppressWarnings("serial")
+public class CircuitOpenError extends VolleyError {
+    private final String mHost;
+
+    public CircuitOpenError(String host) {
+        super("Circuit open for " + host);
+        mHost = host;
+    }
+
+    /**
+     * Returns the host whose circuit is open.
+     */
+    public String getHost() {
+        return mHost;
+    }
+}
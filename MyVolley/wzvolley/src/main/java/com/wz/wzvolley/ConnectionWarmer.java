@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley;
+
+/**
+ * Implemented by networks and HTTP stacks that can open connections ahead of the requests
+ * that need them.
+ */
+public interface ConnectionWarmer {
+    /**
+     * Opens a connection to the origin of the given URL in the background, so that DNS
+     * lookup, TCP connect and TLS handshake are done before the first request to it.
+     * Returns immediately; failures are ignored.
+     *
+     * @param url A URL on the origin to connect to
+     */
+    public void preconnect(String url);
+}
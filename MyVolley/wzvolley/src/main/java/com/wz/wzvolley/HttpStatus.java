@@ -90,6 +90,8 @@ public class HttpStatus {
 	  
 	  public static final int SC_TEMPORARY_REDIRECT = 307;
 	  
+	  public static final int SC_TOO_MANY_REQUESTS = 429;
+	  
 	  public static final int SC_UNAUTHORIZED = 401;
 	  
 	  public static final int SC_UNPROCESSABLE_ENTITY = 422;
@@ -21,7 +21,9 @@ package com.wz.wzvolley;
  */
 public interface Network {
     /**
-     * Performs the specified request.
+     * Performs the specified request, retrying it as its retry policy allows.
+     * If {@link Request#isRetryDeferred()}, a network may instead throw a
+     * {@link RetryScheduledError} after a failed attempt, leaving the retry to the caller.
      * @param request Request to process
      * @return A {@link NetworkResponse} with data and caching metadata; will never be null
      * @throws VolleyError on errors
@@ -41,6 +41,10 @@ public class NetworkDispatcher extends Thread {
     private final Cache mCache;
     /** For posting responses and errors. */
     private final ResponseDelivery mDelivery;
+    /** Puts requests back on the queue when their retry is due, or null to wait inline. */
+    private final RequestScheduler mScheduler;
+    /** Retries allowed across all dispatchers, or null for that of the request's queue. */
+    private final RetryBudget mRetryBudget;
     /** Used for telling us to die. */
     private volatile boolean mQuit = false;
 
@@ -56,10 +60,49 @@ public class NetworkDispatcher extends Thread {
     public NetworkDispatcher(BlockingQueue<Request<?>> queue,
             Network network, Cache cache,
             ResponseDelivery delivery) {
+        this(queue, network, cache, delivery, null);
+    }
+
+    /**
+     * Creates a new network dispatcher thread.  You must call {@link #start()}
+     * in order to begin processing.
+     *
+     * @param queue Queue of incoming requests for triage
+     * @param network Network interface to use for performing requests
+     * @param cache Cache interface to use for writing responses to cache
+     * @param delivery Delivery interface to use for posting responses
+     * @param scheduler Scheduler for delayed retries, or null to wait for them on this
+     *         thread
+     */
+    public NetworkDispatcher(BlockingQueue<Request<?>> queue,
+            Network network, Cache cache,
+            ResponseDelivery delivery, RequestScheduler scheduler) {
+        this(queue, network, cache, delivery, scheduler, null);
+    }
+
+    /**
+     * Creates a new network dispatcher thread.  You must call {@link #start()}
+     * in order to begin processing.
+     *
+     * @param queue Queue of incoming requests for triage
+     * @param network Network interface to use for performing requests
+     * @param cache Cache interface to use for writing responses to cache
+     * @param delivery Delivery interface to use for posting responses
+     * @param scheduler Scheduler for delayed retries, or null to wait for them on this
+     *         thread
+     * @param retryBudget Budget retries are taken from, or null for that of the request's
+     *         {@link RequestQueue}, if any
+     */
+    public NetworkDispatcher(BlockingQueue<Request<?>> queue,
+            Network network, Cache cache,
+            ResponseDelivery delivery, RequestScheduler scheduler,
+            RetryBudget retryBudget) {
         mQueue = queue;
         mNetwork = network;
         mCache = cache;
         mDelivery = delivery;
+        mScheduler = scheduler;
+        mRetryBudget = retryBudget;
     }
 
     /**
@@ -106,11 +149,46 @@ public class NetworkDispatcher extends Thread {
                     continue;
                 }
 
-                addTrafficStatsTag(request);
+                // A request sent in a batch comes back with its part of the response.
+                NetworkResponse networkResponse = request.takeBatchResponse();
+                if (networkResponse != null) {
+                    checkBatchResponse(networkResponse);
+                } else {
+                    // Batchable requests wait for their batch off this thread.
+                    RequestBatcher batcher = getRequestBatcher(request);
+                    if (batcher != null && batcher.offer(request)) {
+                        continue;
+                    }
+
+                    // Requests over their rate limit wait for a permit off this thread.
+                    if (!request.hasRateLimitPermit()) {
+                        long waitMs = reserveRateLimitPermit(request);
+                        if (waitMs > 0) {
+                            request.addMarker("network-rate-limited");
+                            request.setHasRateLimitPermit(true);
+                            if (!requeueAfter(request, waitMs)) {
+                                // Like the other requests of a stopped queue, not sent.
+                                request.finish("network-discard-queue-stopped");
+                            }
+                            continue;
+                        }
+                    }
+                    request.setHasRateLimitPermit(false);
 
-                // Perform the network request.
-                NetworkResponse networkResponse = mNetwork.performRequest(request);
-                request.addMarker("network-http-complete");
+                    addTrafficStatsTag(request);
+
+                    // Perform the network request, retrying it from this dispatcher.
+                    request.setRetryDeferred(true);
+                    networkResponse = mNetwork.performRequest(request);
+                    request.addMarker("network-http-complete");
+                }
+
+                // Every request the network answered earns towards the retry budget,
+                // 304s included, whether it was sent alone or in a batch.
+                RetryBudget retryBudget = getRetryBudget(request);
+                if (retryBudget != null && !request.isBatch()) {
+                    retryBudget.onSuccess();
+                }
 
                 // If the server returned 304 AND we delivered a response already,
                 // we're done -- don't deliver a second identical response.
@@ -126,16 +204,29 @@ public class NetworkDispatcher extends Thread {
                 // Write to cache if applicable.
                 // TODO: Only update cache metadata instead of entire record for 304s.
                 if (request.shouldCache() && response.cacheEntry != null) {
-                    mCache.put(request.getCacheKey(), response.cacheEntry);
+                    CacheVariants.put(mCache, request, response.cacheEntry);
                     request.addMarker("network-cache-written");
                 }
 
                 // Post the response back.
                 request.markDelivered();
                 mDelivery.postResponse(request, response);
+            } catch (RetryScheduledError retry) {
+                RetryBudget retryBudget = getRetryBudget(request);
+                if (retryBudget != null && !retryBudget.tryAcquireRetry()) {
+                    request.addMarker("network-retry-budget-exhausted");
+                    handleNetworkError(request, retry.getError(), startTimeMs);
+                } else if (requeueAfter(request, retry.getDelayMs())) {
+                    request.addMarker("network-retry-scheduled");
+                } else {
+                    // The queue is stopping; the failed attempt was the last one.
+                    request.addMarker("network-retry-queue-stopped");
+                    handleNetworkError(request, retry.getError(), startTimeMs);
+                }
+            } catch (CanceledError canceled) {
+                request.finish("network-discard-cancelled");
             } catch (VolleyError volleyError) {
-                volleyError.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
-                parseAndDeliverNetworkError(request, volleyError);
+                handleNetworkError(request, volleyError, startTimeMs);
             } catch (Exception e) {
                 VolleyLog.e(e, "Unhandled exception %s", e.toString());
                 VolleyError volleyError = new VolleyError(e);
@@ -145,6 +236,109 @@ public class NetworkDispatcher extends Thread {
         }
     }
 
+    private void handleNetworkError(Request<?> request, VolleyError error, long startTimeMs) {
+        error.setNetworkTimeMs(SystemClock.elapsedRealtime() - startTimeMs);
+        if (!deliverStaleOnError(request, error)) {
+            parseAndDeliverNetworkError(request, error);
+        }
+    }
+
+    private RetryBudget getRetryBudget(Request<?> request) {
+        if (mRetryBudget != null) {
+            return mRetryBudget;
+        }
+        RequestQueue queue = request.getRequestQueue();
+        return queue == null ? null : queue.getRetryBudget();
+    }
+
+    private static RequestBatcher getRequestBatcher(Request<?> request) {
+        RequestQueue queue = request.getRequestQueue();
+        return queue == null ? null : queue.getRequestBatcher();
+    }
+
+    /**
+     * Throws the error a response received in a batch stands for, as
+     * {@link com.wz.wzvolley.toolbox.BasicNetwork} would for a response of its own.
+     */
+    private static void checkBatchResponse(NetworkResponse response) throws VolleyError {
+        int statusCode = response.statusCode;
+        if (response.notModified || (statusCode >= 200 && statusCode <= 299)) {
+            return;
+        }
+        if (statusCode == HttpStatus.SC_UNAUTHORIZED || statusCode == HttpStatus.SC_FORBIDDEN) {
+            throw new AuthFailureError(response);
+        }
+        throw new ServerError(response);
+    }
+
+    /**
+     * Reserves a permit from the rate limiter of the request, if it has one, and returns
+     * how long to wait before using it.
+     */
+    private static long reserveRateLimitPermit(Request<?> request) {
+        RequestQueue queue = request.getRequestQueue();
+        RateLimiter limiter = queue == null ? null : queue.getRateLimiter(request);
+        return limiter == null ? 0 : limiter.reserve();
+    }
+
+    /**
+     * Puts the request back on the queue once the delay has passed. Without a scheduler
+     * the delay is waited out on this thread.
+     *
+     * @return false if the scheduler has quit, so the request was not put back
+     */
+    private boolean requeueAfter(Request<?> request, long delayMs) {
+        if (mScheduler != null) {
+            return mScheduler.schedule(request, delayMs);
+        }
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            // Keep the interrupt so that run() notices if it is time to quit.
+            interrupt();
+        }
+        mQueue.add(request);
+        return true;
+    }
+
+    /**
+     * Delivers the expired cache entry of a request in place of a network failure, if the
+     * entry is still allowed to stand in for one.
+     *
+     * @return true if a stale response was delivered
+     */
+    private boolean deliverStaleOnError(Request<?> request, VolleyError error) {
+        Cache.Entry entry = request.getCacheEntry();
+        if (entry == null || request.hasHadResponseDelivered()
+                || !isStaleServableError(error)
+                || !entry.isUsableOnError(request.getMaxStaleOnErrorMs())) {
+            return false;
+        }
+        Response<?> response = request.parseNetworkResponse(
+                new NetworkResponse(entry.data, entry.responseHeaders));
+        if (response == null || !response.isSuccess()) {
+            return false;
+        }
+        request.addMarker("network-stale-if-error");
+        request.markStale();
+        request.markDelivered();
+        mDelivery.postResponse(request, response);
+        return true;
+    }
+
+    /**
+     * Returns true for the errors stale-if-error applies to: no connection, timeouts,
+     * open circuits and 5xx responses.
+     */
+    private static boolean isStaleServableError(VolleyError error) {
+        if (error instanceof TimeoutError || error instanceof NoConnectionError
+                || error instanceof CircuitOpenError) {
+            return true;
+        }
+        return error instanceof ServerError && error.networkResponse != null
+                && error.networkResponse.statusCode >= 500;
+    }
+
     private void parseAndDeliverNetworkError(Request<?> request, VolleyError error) {
         error = request.parseNetworkError(error);
         mDelivery.postError(request, error);
@@ -17,8 +17,11 @@
 package com.wz.wzvolley;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
+import okhttp3.Headers;
+
 /**
  * Data and headers returned from {@link Network#performRequest(Request)}.
  */
@@ -40,6 +43,20 @@ public class NetworkResponse {
         this.networkTimeMs = networkTimeMs;
     }
 
+    /**
+     * Creates a new network response whose headers are read in place from OkHttp's
+     * header block, see {@link ResponseHeaders}.
+     * @param statusCode the HTTP status code
+     * @param data Response body
+     * @param headers Headers returned with this response
+     * @param notModified True if the server returned a 304 and the data was already in cache
+     * @param networkTimeMs Round-trip network time to receive network response
+     */
+    public NetworkResponse(int statusCode, byte[] data, Headers headers,
+            boolean notModified, long networkTimeMs) {
+        this(statusCode, data, new ResponseHeaders(headers), notModified, networkTimeMs);
+    }
+
     public NetworkResponse(int statusCode, byte[] data, Map<String, String> headers,
             boolean notModified) {
         this(statusCode, data, headers, notModified, 0);
@@ -67,5 +84,40 @@ public class NetworkResponse {
 
     /** Network roundtrip time in milliseconds. */
     public final long networkTimeMs;
+
+    /**
+     * Returns the value of the named header, ignoring the case of the name, or null if
+     * there is no such header. For headers sent several times, returns the last value.
+     */
+    public String getHeader(String name) {
+        if (headers == null) {
+            return null;
+        }
+        String value = headers.get(name);
+        if (value != null || headers instanceof ResponseHeaders) {
+            return value;
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns all values of the named header, ignoring the case of the name, such as every
+     * Set-Cookie of the response. Responses read back from the cache only keep the last
+     * value of each header.
+     */
+    public List<String> getHeaders(String name) {
+        if (headers instanceof ResponseHeaders) {
+            return ((ResponseHeaders) headers).values(name);
+        }
+        String value = getHeader(name);
+        return value == null
+                ? Collections.<String>emptyList()
+                : Collections.singletonList(value);
+    }
 }
 
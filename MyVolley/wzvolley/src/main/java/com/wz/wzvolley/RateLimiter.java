@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley;
+
+import android.os.SystemClock;
+
+/**
+ * Token bucket limiting the rate of requests to a host or endpoint, for use with
+ * {@link RequestQueue#setRateLimiter(String, RateLimiter)}.
+ *
+ * <p>Permits are handed out at a steady rate, and up to a burst of them are saved up
+ * while idle. A request over the limit reserves the next free permit and waits on the
+ * queue's timer, not on a network dispatcher, until the permit is due.</p>
+ */
+public class RateLimiter {
+
+    /** Time between permits. */
+    private final double mIntervalMs;
+
+    /** Most permits saved up while idle. */
+    private final int mBurst;
+
+    /** Time the next permit is free; permits before it are taken. */
+    private double mNextFreeMs = Double.NEGATIVE_INFINITY;
+
+    private long mPermitCount;
+
+    private long mDelayedCount;
+
+    /**
+     * Creates a limiter without bursts.
+     *
+     * @param permitsPerSecond Requests allowed per second
+     */
+    public RateLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, 1);
+    }
+
+    /**
+     * @param permitsPerSecond Requests allowed per second
+     * @param burst Requests allowed at once after an idle time
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        mIntervalMs = 1000 / permitsPerSecond;
+        mBurst = Math.max(1, burst);
+    }
+
+    /**
+     * Reserves the next free permit and returns how long to wait before using it, 0 if
+     * it can be used now.
+     */
+    public synchronized long reserve() {
+        long now = SystemClock.elapsedRealtime();
+        // Permits left unused while idle are kept, up to the burst.
+        mNextFreeMs = Math.max(mNextFreeMs, now - (mBurst - 1) * mIntervalMs);
+        long waitMs = (long) Math.ceil(Math.max(0, mNextFreeMs - now));
+        mNextFreeMs += mIntervalMs;
+        mPermitCount++;
+        if (waitMs > 0) {
+            mDelayedCount++;
+        }
+        return waitMs;
+    }
+
+    /**
+     * Returns the number of permits handed out.
+     */
+    public synchronized long getPermitCount() {
+        return mPermitCount;
+    }
+
+    /**
+     * Returns the number of requests that had to wait for their permit.
+     */
+    public synchronized long getDelayedCount() {
+        return mDelayedCount;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * The origins (scheme, host and port) a {@link RequestQueue} sent requests to, kept in a
+ * file so that the next session can connect to them at start.
+ *
+ * <p>The file is read and written on a background thread, which exits when idle; it is
+ * only rewritten when an origin is seen for the first time.</p>
+ */
+final class RecentOrigins {
+
+    private final File mFile;
+
+    private final int mMaxOrigins;
+
+    /** Known origins, oldest first. */
+    private final LinkedHashSet<String> mOrigins = new LinkedHashSet<String>();
+
+    private final ThreadPoolExecutor mExecutor = new ThreadPoolExecutor(0, 1,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Volley-RecentOrigins");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    RecentOrigins(File file, int maxOrigins) {
+        mFile = file;
+        mMaxOrigins = maxOrigins;
+    }
+
+    /**
+     * Loads the origins of the previous session and hands each to the warmer.
+     */
+    void restore(final ConnectionWarmer warmer) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<String> loaded = load();
+                synchronized (RecentOrigins.this) {
+                    // Origins recorded since start are more recent than the loaded ones.
+                    LinkedHashSet<String> merged = new LinkedHashSet<String>(loaded);
+                    merged.addAll(mOrigins);
+                    mOrigins.clear();
+                    mOrigins.addAll(merged);
+                    trim();
+                }
+                for (String origin : loaded) {
+                    warmer.preconnect(origin + "/");
+                }
+            }
+        });
+    }
+
+    /**
+     * Records the origin of a request URL, saving the list if the origin is new.
+     */
+    void record(String url) {
+        String origin = originOf(url);
+        if (origin == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!mOrigins.add(origin)) {
+                return;
+            }
+            trim();
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        });
+    }
+
+    private void trim() {
+        Iterator<String> iterator = mOrigins.iterator();
+        while (mOrigins.size() > mMaxOrigins && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    private List<String> load() {
+        List<String> origins = new ArrayList<String>();
+        if (!mFile.exists()) {
+            return origins;
+        }
+        BufferedSource source = null;
+        try {
+            source = Okio.buffer(Okio.source(mFile));
+            String line;
+            while ((line = source.readUtf8Line()) != null && origins.size() < mMaxOrigins) {
+                if (line.length() > 0) {
+                    origins.add(line);
+                }
+            }
+        } catch (IOException e) {
+            VolleyLog.d("Could not read recent origins: %s", e.toString());
+        } finally {
+            closeQuietly(source);
+        }
+        return origins;
+    }
+
+    private void save() {
+        List<String> origins;
+        synchronized (this) {
+            origins = new ArrayList<String>(mOrigins);
+        }
+        File tmp = new File(mFile.getPath() + ".tmp");
+        BufferedSink sink = null;
+        try {
+            sink = Okio.buffer(Okio.sink(tmp));
+            for (String origin : origins) {
+                sink.writeUtf8(origin).writeByte('\n');
+            }
+            sink.close();
+            sink = null;
+            if (!tmp.renameTo(mFile)) {
+                VolleyLog.d("Could not save recent origins to %s", mFile);
+            }
+        } catch (IOException e) {
+            VolleyLog.d("Could not save recent origins: %s", e.toString());
+        } finally {
+            closeQuietly(sink);
+        }
+    }
+
+    /**
+     * Returns the scheme, host and port part of a URL, or null if it has none. Request
+     * URLs are canonical, so equal origins compare equal.
+     */
+    static String originOf(String url) {
+        if (url == null) {
+            return null;
+        }
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd <= 0) {
+            return null;
+        }
+        int end = url.length();
+        for (int i = schemeEnd + 3; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if (c == '/' || c == '?' || c == '#') {
+                end = i;
+                break;
+            }
+        }
+        return end > schemeEnd + 3 ? url.substring(0, end).toLowerCase(Locale.US) : null;
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) { }
+        }
+    }
+}
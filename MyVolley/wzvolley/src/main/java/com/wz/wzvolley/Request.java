@@ -25,9 +25,18 @@ import android.text.TextUtils;
 import com.wz.wzvolley.VolleyLog.MarkerLog;
 
 import java.io.File;
+import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Base class for all network requests.
@@ -68,6 +77,9 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     /** URL of this request. */
     private final String mUrl;
 
+    /** Host of the URL of this request, found on first use by {@link #getHost()}. */
+    private String mHost;
+
     /** Default tag for {@link TrafficStats}. */
     private final int mDefaultTrafficStatsTag;
 
@@ -80,15 +92,51 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     /** The request queue this request is associated with. */
     private RequestQueue mRequestQueue;
 
+    /** Whether this request waited for a rate limit permit it has not used yet. */
+    private boolean mHasRateLimitPermit = false;
+
+    /** Whether the network leaves retries to the caller, see {@link #setRetryDeferred}. */
+    private boolean mRetryDeferred = false;
+
+    /** This request's part of a batch response, to be used in place of sending it. */
+    private NetworkResponse mBatchResponse;
+
+    /** Whether this request must be sent alone rather than batched. */
+    private boolean mUnbatched = false;
+
     /** Whether or not responses to this request should be cached. */
     private boolean mShouldCache = true;
 
+    /** Whether the request body may be sent gzip-compressed. */
+    private boolean mShouldCompressBody = false;
+
+    /** Whether a slow attempt may be raced by a duplicate. */
+    private boolean mHedgeable = false;
+
+    /** Name of the cache partition responses to this request go to, or null for any. */
+    private String mCachePartition;
+
     /** Whether or not this request has been canceled. */
     private boolean mCanceled = false;
 
     /** Whether or not a response has been delivered for this request yet. */
     private boolean mResponseDelivered = false;
 
+    /** Whether the delivered response is an expired cache entry served after a failure. */
+    private boolean mResponseStale = false;
+
+    /** How long after expiry a cache entry may still stand in for a failed request. */
+    private long mMaxStaleOnErrorMs = 0;
+
+    /** Listener for the progress of the request body upload, or null for none. */
+    private Response.ProgressListener mUploadProgressListener;
+
+    /** Minimum interval between two upload progress callbacks. */
+    private int mUploadProgressIntervalMs;
+
+    /** Cap on the upload rate of the request body in bytes per second, or 0 for none. */
+    private long mMaxUploadBytesPerSecond = 0;
+
     /** The retry policy for this request. */
     private RetryPolicy mRetryPolicy;
 
@@ -102,6 +150,15 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     /** An opaque token tagging this request; used for bulk cancellation. */
     private Object mTag;
 
+    /** Canonical URL of this request, built on first use by {@link #getUrl()}. */
+    private String mCanonicalUrl;
+
+    /** Cache key of this request, built on first use by {@link #getCacheKey()}. */
+    private String mCacheKey;
+
+    /** Query parameter names that are not part of the cache key, or null for none. */
+    private Set<String> mIgnoredCacheKeyParams;
+
     /**
      * Creates a new request with the given URL and error listener.  Note that
      * the normal response listener is not provided here as delivery of responses
@@ -170,6 +227,18 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return mDefaultTrafficStatsTag;
     }
 
+    /**
+     * Returns the lower-cased host of this request's URL, or null if it has none.
+     */
+    public String getHost() {
+        if (mHost == null && !TextUtils.isEmpty(mUrl)) {
+            Uri uri = Uri.parse(mUrl);
+            String host = uri == null ? null : uri.getHost();
+            mHost = host == null ? null : host.toLowerCase(Locale.US);
+        }
+        return mHost;
+    }
+
     /**
      * @return The hashcode of the URL's host component, or 0 if there is none.
      */
@@ -246,6 +315,75 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return this;
     }
 
+    /**
+     * Returns the queue this request was added to, or null.
+     */
+    /* package */ RequestQueue getRequestQueue() {
+        return mRequestQueue;
+    }
+
+    /**
+     * Marks whether this request holds a rate limit permit reserved while it waited.
+     * Used by {@link NetworkDispatcher}.
+     */
+    /* package */ void setHasRateLimitPermit(boolean hasRateLimitPermit) {
+        mHasRateLimitPermit = hasRateLimitPermit;
+    }
+
+    /* package */ boolean hasRateLimitPermit() {
+        return mHasRateLimitPermit;
+    }
+
+    /**
+     * Sets whether the caller of {@link Network#performRequest(Request)} retries this
+     * request itself. If so, a failed attempt that may be retried ends in a
+     * {@link RetryScheduledError} saying when; otherwise the network waits and retries
+     * before returning. Set by {@link NetworkDispatcher}.
+     */
+    public void setRetryDeferred(boolean retryDeferred) {
+        mRetryDeferred = retryDeferred;
+    }
+
+    /**
+     * Returns whether retries of this request are left to the caller of the network.
+     */
+    public boolean isRetryDeferred() {
+        return mRetryDeferred;
+    }
+
+    /**
+     * Sets the response this request got as part of a batch. Used by
+     * {@link RequestBatcher}.
+     */
+    /* package */ void setBatchResponse(NetworkResponse batchResponse) {
+        mBatchResponse = batchResponse;
+    }
+
+    /**
+     * Returns the response this request got as part of a batch, or null, and forgets it.
+     */
+    /* package */ NetworkResponse takeBatchResponse() {
+        NetworkResponse batchResponse = mBatchResponse;
+        mBatchResponse = null;
+        return batchResponse;
+    }
+
+    /* package */ void setUnbatched(boolean unbatched) {
+        mUnbatched = unbatched;
+    }
+
+    /* package */ boolean isUnbatched() {
+        return mUnbatched;
+    }
+
+    /**
+     * Returns true for the call carrying a batch of other requests, whose responses are
+     * counted for them instead. Overridden by {@link RequestBatcher}.
+     */
+    /* package */ boolean isBatch() {
+        return false;
+    }
+
     /**
      * Sets the sequence number of this request.  Used by {@link RequestQueue}.
      *
@@ -268,45 +406,173 @@ public abstract class Request<T> implements Comparable<Request<T>> {
 
     /**
      * Returns the URL of this request.
+     *
+     * <p>The URL is built once from the base URL and {@link #getUrlParams()} and then memoized.
+     * Query parameters are sorted by name, the scheme and host are lower-cased, default ports
+     * and fragments are dropped, so that equivalent requests always produce the same URL.</p>
      */
     public String getUrl() {
-    	StringBuilder urlBuilder = new StringBuilder(mUrl);
-    	urlBuilder.append(paramsEncode(getUrlParams()));
-        return urlBuilder.toString();
+        String url = mCanonicalUrl;
+        if (url == null) {
+            url = canonicalizeUrl(mUrl, encodeParams(getUrlParams()), null);
+            mCanonicalUrl = url;
+        }
+        return url;
     }
-    
-    private String paramsEncode(Map<String, String> urlParams) {
-		String result = "";
-		try {
-			StringBuilder builder = new StringBuilder();
-			if (urlParams != null && urlParams.size() > 0) {
-				builder.append("?");
-				for (String key : urlParams.keySet()) {
-					builder.append(key);
-					builder.append("=");
-					builder.append(URLEncoder.encode(urlParams.get(key), HttpConstant.UTF_8));
-					builder.append("&");
-				}
-				String str = builder.toString();
-				result = str.substring(0, str.length() - 1);
-			}
-		} catch (Exception e) {
-			
-		}
-		return result;
-	}
-    
+
+    /**
+     * Returns the query parameters to append to the URL of this request, or null for none.
+     * Called at most once, the first time {@link #getUrl()} is needed.
+     */
     public Map<String, String> getUrlParams() {
-		return null;
+        return null;
     }
 
     /**
-     * Returns the cache key for this request.  By default, this is the URL.
+     * Returns the cache key for this request.  By default, this is the canonical URL with
+     * any parameters registered through {@link #setIgnoredCacheKeyParams(String...)} removed.
      */
     public String getCacheKey() {
-        return getUrl();
+        String key = mCacheKey;
+        if (key == null) {
+            key = mIgnoredCacheKeyParams == null
+                    ? getUrl()
+                    : canonicalizeUrl(getUrl(), null, mIgnoredCacheKeyParams);
+            mCacheKey = key;
+        }
+        return key;
+    }
+
+    /**
+     * Sets query parameters that do not affect the response, such as tracking or
+     * cache-busting tokens, so that they are left out of the cache key.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public Request<?> setIgnoredCacheKeyParams(String... names) {
+        if (names == null || names.length == 0) {
+            mIgnoredCacheKeyParams = null;
+        } else {
+            mIgnoredCacheKeyParams = new HashSet<String>(Arrays.asList(names));
+        }
+        mCacheKey = null;
+        return this;
+    }
+
+    /**
+     * Encodes the given parameters into "name=value" pairs using {@link #getParamsEncoding()}.
+     */
+    private List<String> encodeParams(Map<String, String> params) {
+        if (params == null || params.isEmpty()) {
+            return null;
+        }
+        String encoding = getParamsEncoding();
+        List<String> pairs = new ArrayList<String>(params.size());
+        try {
+            for (Map.Entry<String, String> entry : params.entrySet()) {
+                String value = entry.getValue();
+                pairs.add(URLEncoder.encode(entry.getKey(), encoding) + '='
+                        + (value == null ? "" : URLEncoder.encode(value, encoding)));
+            }
+        } catch (UnsupportedEncodingException uee) {
+            throw new RuntimeException("Encoding not supported: " + encoding, uee);
+        }
+        return pairs;
+    }
+
+    /**
+     * Builds the canonical form of a URL: lower-cased scheme and host, no default port, no
+     * fragment, and query pairs sorted by name. Pairs with the same name keep their relative
+     * order, as the sort is stable.
+     *
+     * @param url The URL to canonicalize, which may already carry a query string
+     * @param extraPairs Already encoded "name=value" pairs to merge into the query, or null
+     * @param ignoredNames Names of query parameters to drop, or null
+     */
+    private static String canonicalizeUrl(String url, List<String> extraPairs,
+            Set<String> ignoredNames) {
+        if (url == null) {
+            return null;
+        }
+        int fragment = url.indexOf('#');
+        if (fragment >= 0) {
+            url = url.substring(0, fragment);
+        }
+        List<String> pairs = new ArrayList<String>();
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            for (String pair : url.substring(query + 1).split("&")) {
+                if (pair.length() > 0) {
+                    pairs.add(pair);
+                }
+            }
+            url = url.substring(0, query);
+        }
+        if (extraPairs != null) {
+            pairs.addAll(extraPairs);
+        }
+        if (ignoredNames != null) {
+            Iterator<String> iterator = pairs.iterator();
+            while (iterator.hasNext()) {
+                if (ignoredNames.contains(paramName(iterator.next()))) {
+                    iterator.remove();
+                }
+            }
+        }
+        Collections.sort(pairs, PARAM_NAME_ORDER);
+
+        StringBuilder builder = new StringBuilder(url.length() + pairs.size() * 16);
+        appendNormalizedBase(builder, url);
+        for (int i = 0; i < pairs.size(); i++) {
+            builder.append(i == 0 ? '?' : '&').append(pairs.get(i));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Appends the scheme, authority and path of the given URL, lower-casing the scheme and
+     * host and dropping a port that is the default for the scheme.
+     */
+    private static void appendNormalizedBase(StringBuilder builder, String url) {
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd <= 0) {
+            builder.append(url);
+            return;
+        }
+        String scheme = url.substring(0, schemeEnd).toLowerCase(Locale.US);
+        int authorityStart = schemeEnd + 3;
+        int authorityEnd = url.indexOf('/', authorityStart);
+        if (authorityEnd < 0) {
+            authorityEnd = url.length();
+        }
+        String authority = url.substring(authorityStart, authorityEnd);
+        int hostStart = authority.lastIndexOf('@') + 1;
+        String host = authority.substring(hostStart).toLowerCase(Locale.US);
+        if (("http".equals(scheme) && host.endsWith(":80"))
+                || ("https".equals(scheme) && host.endsWith(":443"))) {
+            host = host.substring(0, host.lastIndexOf(':'));
+        }
+        builder.append(scheme).append("://")
+                .append(authority, 0, hostStart).append(host)
+                .append(url, authorityEnd, url.length());
+        if (authorityEnd == url.length()) {
+            builder.append('/');
+        }
     }
 
+    private static String paramName(String pair) {
+        int equals = pair.indexOf('=');
+        return equals < 0 ? pair : pair.substring(0, equals);
+    }
+
+    /** Orders encoded "name=value" pairs by name only. */
+    private static final Comparator<String> PARAM_NAME_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String lhs, String rhs) {
+            return paramName(lhs).compareTo(paramName(rhs));
+        }
+    };
+
     /**
      * Annotates this request with an entry retrieved for it from cache.
      * Used for cache coherency support.
@@ -397,6 +663,17 @@ public abstract class Request<T> implements Comparable<Request<T>> {
     	
         return null;
     }
+
+    /**
+     * Returns a body to be written straight to the connection for POST, PUT and PATCH
+     * requests, or null to send {@link #getBodyBytes()} instead. Override this for large
+     * payloads so they are not built in memory first.
+     *
+     * @throws AuthFailureError in the event of auth failure
+     */
+    public StreamingBody getStreamingBody() throws AuthFailureError {
+        return null;
+    }
     
     public Map<String, String> getBodyParams() throws AuthFailureError {
 		return null;
@@ -423,6 +700,67 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return mShouldCache;
     }
 
+    /**
+     * Set whether or not the body of this request may be sent gzip-compressed, with
+     * Content-Encoding: gzip. Only enable this for servers known to accept compressed
+     * request bodies. Small bodies are sent as is; see
+     * {@link com.wz.wzvolley.toolbox.OkHttpStack#setCompressionThreshold(long)}.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public Request<?> setShouldCompressBody(boolean shouldCompressBody) {
+        mShouldCompressBody = shouldCompressBody;
+        return this;
+    }
+
+    /**
+     * Returns true if the body of this request may be sent gzip-compressed.
+     */
+    public boolean shouldCompressBody() {
+        return mShouldCompressBody;
+    }
+
+    /**
+     * Set whether or not a duplicate of this request may be sent when the response is
+     * slow, the first response to arrive being used. Only honored for GET and HEAD
+     * requests, and only when the HTTP stack has a hedging policy; see
+     * {@link com.wz.wzvolley.toolbox.OkHttpStack#setHedgingPolicy(
+     * com.wz.wzvolley.toolbox.HedgingPolicy)}.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public Request<?> setHedgeable(boolean hedgeable) {
+        mHedgeable = hedgeable;
+        return this;
+    }
+
+    /**
+     * Returns true if a duplicate of this request may be sent when it is slow, which
+     * requires the request to be idempotent.
+     */
+    public boolean isHedgeable() {
+        return mHedgeable && (mMethod == Method.GET || mMethod == Method.HEAD);
+    }
+
+    /**
+     * Sets the name of the cache partition responses to this request are stored in. Only
+     * meaningful with a partitioned cache; when unset, the cache picks a partition, for
+     * example by content type.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public Request<?> setCachePartition(String partition) {
+        mCachePartition = partition;
+        return this;
+    }
+
+    /**
+     * Returns the name of the cache partition for this request, or null if unset.
+     */
+    public String getCachePartition() {
+        return mCachePartition;
+    }
+
     /**
      * Priority values.  Requests will be processed from higher priorities to
      * lower priorities, in FIFO order.
@@ -457,6 +795,94 @@ public abstract class Request<T> implements Comparable<Request<T>> {
         return mRetryPolicy;
     }
 
+    /**
+     * Lets an expired cache entry be delivered, instead of an error, when the network
+     * request for it fails with a connection, timeout or 5xx error, as long as it expired
+     * less than the given time ago. This is in addition to any stale-if-error allowance
+     * the server granted. The response is marked with {@link #isResponseStale()}.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public Request<?> setMaxStaleOnErrorMs(long maxStaleOnErrorMs) {
+        mMaxStaleOnErrorMs = maxStaleOnErrorMs;
+        return this;
+    }
+
+    /**
+     * Returns how long after expiry a cache entry may stand in for a failed request.
+     */
+    public long getMaxStaleOnErrorMs() {
+        return mMaxStaleOnErrorMs;
+    }
+
+    /**
+     * Sets a listener for the progress of sending the request body, such as multipart
+     * files. It is called on the main thread, at most once per interval and once more
+     * when the whole body has been sent.
+     *
+     * @param listener The listener, or null to remove it
+     * @param minIntervalMs Minimum interval between two callbacks
+     * @return This Request object to allow for chaining.
+     */
+    public Request<?> setUploadProgressListener(Response.ProgressListener listener,
+            int minIntervalMs) {
+        mUploadProgressListener = listener;
+        mUploadProgressIntervalMs = minIntervalMs;
+        return this;
+    }
+
+    /**
+     * Returns the upload progress listener of this request, or null if there is none.
+     */
+    public Response.ProgressListener getUploadProgressListener() {
+        return mUploadProgressListener;
+    }
+
+    /**
+     * Returns the minimum interval between two upload progress callbacks.
+     */
+    public int getUploadProgressIntervalMs() {
+        return mUploadProgressIntervalMs;
+    }
+
+    /**
+     * Caps the rate at which the request body is sent, so that a large upload leaves
+     * room on the uplink for other requests.
+     *
+     * <p>The body is paced on the network dispatcher thread sending it, so a capped upload
+     * holds that thread for at least its size divided by the cap. Size the request queue's
+     * thread pool with this in mind.</p>
+     *
+     * @param maxBytesPerSecond The cap, or 0 for none
+     * @return This Request object to allow for chaining.
+     */
+    public Request<?> setMaxUploadBytesPerSecond(long maxBytesPerSecond) {
+        mMaxUploadBytesPerSecond = maxBytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Returns the cap on the upload rate in bytes per second, or 0 if there is none.
+     */
+    public long getMaxUploadBytesPerSecond() {
+        return mMaxUploadBytesPerSecond;
+    }
+
+    /**
+     * Marks the response delivered for this request as an expired cache entry.
+     */
+    /* package */ void markStale() {
+        mResponseStale = true;
+    }
+
+    /**
+     * Returns true if the delivered response is an expired cache entry that was served
+     * because the network request failed.
+     */
+    public boolean isResponseStale() {
+        return mResponseStale;
+    }
+
     /**
      * Mark this request as having a response delivered on it.  This can be used
      * later in the request's lifetime for suppressing identical responses.
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects requests that reach the network within a short window and sends them as one
+ * call to a batch endpoint, for use with {@link RequestQueue#setRequestBatcher(RequestBatcher)}.
+ *
+ * <p>Only requests missing from the cache, or needing revalidation, get here, as the
+ * cache is consulted first as usual. The {@link Codec} decides which requests can be
+ * batched, writes the batch body and splits the batch response. Each request then goes
+ * back through its network dispatcher with its own part of the response, to be parsed,
+ * cached and delivered as if it had been sent alone. If the batch call fails, its
+ * requests are sent one by one instead.</p>
+ */
+public class RequestBatcher {
+
+    /**
+     * Format of the calls to a batch endpoint.
+     */
+    public interface Codec {
+        /**
+         * Returns whether the request can be sent as part of a batch.
+         */
+        public boolean canBatch(Request<?> request);
+
+        /**
+         * Returns the content type of batch bodies.
+         */
+        public String getBodyContentType();
+
+        /**
+         * Returns the body of a batch call for the given requests.
+         */
+        public byte[] encode(List<Request<?>> requests) throws AuthFailureError;
+
+        /**
+         * Splits the response to a batch call into a response per request, in the order
+         * of the requests. A null item sends its request alone instead.
+         */
+        public List<NetworkResponse> decode(NetworkResponse response,
+                List<Request<?>> requests) throws VolleyError;
+    }
+
+    /** Default time requests are collected for after the first one arrives. */
+    public static final long DEFAULT_WINDOW_MS = 10;
+
+    /** Default most requests per batch. */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 20;
+
+    private final String mBatchUrl;
+
+    private final Codec mCodec;
+
+    private long mWindowMs = DEFAULT_WINDOW_MS;
+
+    private int mMaxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    /** Requests waiting for the current batch to be sent. */
+    private List<Request<?>> mPending = new ArrayList<Request<?>>();
+
+    /** Number of the current batch, so a window timer only sends its own batch. */
+    private long mBatchNumber;
+
+    /** Timer of the running queue this batcher belongs to, or null if it is not running. */
+    private RequestScheduler mScheduler;
+
+    private final AtomicLong mBatchCount = new AtomicLong();
+    private final AtomicLong mBatchedRequestCount = new AtomicLong();
+    private final AtomicLong mFailedBatchCount = new AtomicLong();
+
+    /**
+     * @param batchUrl URL batch calls are posted to
+     * @param codec Format of the batch calls
+     */
+    public RequestBatcher(String batchUrl, Codec codec) {
+        mBatchUrl = batchUrl;
+        mCodec = codec;
+    }
+
+    /**
+     * Sets how long requests are collected for after the first one arrives.
+     *
+     * @return This batcher to allow for chaining.
+     */
+    public RequestBatcher setWindowMs(long windowMs) {
+        mWindowMs = windowMs;
+        return this;
+    }
+
+    /**
+     * Sets the most requests per batch; a full batch is sent at once.
+     *
+     * @return This batcher to allow for chaining.
+     */
+    public RequestBatcher setMaxBatchSize(int maxBatchSize) {
+        mMaxBatchSize = Math.max(2, maxBatchSize);
+        return this;
+    }
+
+    /**
+     * Sets the timer batches are sent and requests put back on the network queue with,
+     * or null while the queue is stopped.
+     */
+    /* package */ synchronized void setScheduler(RequestScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Adds the request to the current batch, returning false if it is to be sent alone.
+     */
+    /* package */ boolean offer(Request<?> request) {
+        if (request.isUnbatched() || !mCodec.canBatch(request)) {
+            return false;
+        }
+        List<Request<?>> full = null;
+        synchronized (this) {
+            if (mScheduler == null) {
+                return false;
+            }
+            if (mPending.isEmpty()) {
+                // Start the window before taking the request, so that a stopped timer
+                // cannot leave it stranded in the batch.
+                final long batchNumber = mBatchNumber;
+                try {
+                    mScheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            List<Request<?>> batch = null;
+                            synchronized (RequestBatcher.this) {
+                                if (mBatchNumber == batchNumber) {
+                                    batch = takePending();
+                                }
+                            }
+                            if (batch != null) {
+                                send(batch);
+                            }
+                        }
+                    }, mWindowMs);
+                } catch (RejectedExecutionException e) {
+                    return false;
+                }
+            }
+            mPending.add(request);
+            if (mPending.size() >= mMaxBatchSize) {
+                full = takePending();
+            }
+        }
+        request.addMarker("network-batch-wait");
+        if (full != null) {
+            send(full);
+        }
+        return true;
+    }
+
+    private List<Request<?>> takePending() {
+        List<Request<?>> batch = mPending;
+        mPending = new ArrayList<Request<?>>();
+        mBatchNumber++;
+        return batch;
+    }
+
+    /**
+     * Sends the requests as one batch call. Canceled requests are left out, and a lone
+     * request is sent as is.
+     */
+    private void send(List<Request<?>> requests) {
+        List<Request<?>> live = new ArrayList<Request<?>>(requests.size());
+        for (Request<?> request : requests) {
+            if (request.isCanceled()) {
+                // Finished by the dispatcher that takes it.
+                requeue(request);
+            } else {
+                live.add(request);
+            }
+        }
+        if (live.isEmpty()) {
+            return;
+        }
+        if (live.size() == 1) {
+            live.get(0).setUnbatched(true);
+            requeue(live.get(0));
+            return;
+        }
+        mBatchCount.incrementAndGet();
+        mBatchedRequestCount.addAndGet(live.size());
+        live.get(0).getRequestQueue().add(new BatchRequest(mBatchUrl, live));
+    }
+
+    private void requeue(Request<?> request) {
+        RequestScheduler scheduler;
+        synchronized (this) {
+            scheduler = mScheduler;
+        }
+        if (scheduler != null && scheduler.schedule(request, 0)) {
+            return;
+        }
+        // Like the other requests of a stopped queue, it is not guaranteed to be sent.
+        VolleyLog.d("Queue stopped, dropping batched request %s", request);
+    }
+
+    /**
+     * Returns the number of batch calls made.
+     */
+    public long getBatchCount() {
+        return mBatchCount.get();
+    }
+
+    /**
+     * Returns the number of requests sent in batch calls.
+     */
+    public long getBatchedRequestCount() {
+        return mBatchedRequestCount.get();
+    }
+
+    /**
+     * Returns the number of batch calls that failed, their requests being sent alone.
+     */
+    public long getFailedBatchCount() {
+        return mFailedBatchCount.get();
+    }
+
+    /**
+     * The call carrying a batch. Parsing it hands each request its part of the response
+     * and puts it back on the network queue.
+     */
+    private class BatchRequest extends Request<Void> {
+        private final List<Request<?>> mRequests;
+
+        BatchRequest(String url, List<Request<?>> requests) {
+            super(Method.POST, url, null);
+            mRequests = requests;
+            setShouldCache(false);
+        }
+
+        @Override
+        boolean isBatch() {
+            return true;
+        }
+
+        @Override
+        public String getBodyContentType() {
+            return mCodec.getBodyContentType();
+        }
+
+        @Override
+        public byte[] getBodyBytes() throws AuthFailureError {
+            return mCodec.encode(mRequests);
+        }
+
+        @Override
+        public Priority getPriority() {
+            Priority priority = Priority.LOW;
+            for (Request<?> request : mRequests) {
+                if (request.getPriority().ordinal() > priority.ordinal()) {
+                    priority = request.getPriority();
+                }
+            }
+            return priority;
+        }
+
+        @Override
+        protected Response<Void> parseNetworkResponse(NetworkResponse response) {
+            List<NetworkResponse> responses;
+            try {
+                responses = mCodec.decode(response, mRequests);
+            } catch (VolleyError e) {
+                return Response.error(e);
+            }
+            if (responses == null || responses.size() != mRequests.size()) {
+                return Response.error(new ParseError(response));
+            }
+            for (int i = 0; i < mRequests.size(); i++) {
+                Request<?> request = mRequests.get(i);
+                if (responses.get(i) == null) {
+                    request.setUnbatched(true);
+                } else {
+                    request.setBatchResponse(responses.get(i));
+                    request.addMarker("network-batch-complete");
+                }
+                requeue(request);
+            }
+            return Response.success(null, null);
+        }
+
+        @Override
+        protected void deliverResponse(Void response) {
+        }
+
+        @Override
+        public void deliverError(VolleyError error) {
+            VolleyLog.d("Batch of %d requests failed, sending them alone: %s",
+                    mRequests.size(), error.toString());
+            mFailedBatchCount.incrementAndGet();
+            for (Request<?> request : mRequests) {
+                request.setUnbatched(true);
+                requeue(request);
+            }
+        }
+    }
+}
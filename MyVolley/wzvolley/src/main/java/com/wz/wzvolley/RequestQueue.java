@@ -19,11 +19,13 @@ package com.wz.wzvolley;
 import android.os.Handler;
 import android.os.Looper;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
@@ -94,6 +96,21 @@ public class RequestQueue {
     /** The cache dispatcher. */
     private CacheDispatcher mCacheDispatcher;
 
+    /** Puts requests back on the network queue when their retry is due. */
+    private RequestScheduler mScheduler;
+
+    /** Retries allowed across all requests, or null for no limit. */
+    private volatile RetryBudget mRetryBudget;
+
+    /** Rate limiters by host or URL prefix. */
+    private final Map<String, RateLimiter> mRateLimiters = new HashMap<String, RateLimiter>();
+
+    /** Sends batchable requests together, or null to send every request alone. */
+    private volatile RequestBatcher mRequestBatcher;
+
+    /** Origins of recent requests, connected to at start; null unless enabled. */
+    private RecentOrigins mRecentOrigins;
+
     private List<RequestFinishedListener> mFinishedListeners =
             new ArrayList<RequestFinishedListener>();
 
@@ -144,13 +161,133 @@ public class RequestQueue {
         mCacheDispatcher = new CacheDispatcher(mCacheQueue, mNetworkQueue, mCache, mDelivery);
         mCacheDispatcher.start();
 
+        mScheduler = new RequestScheduler(mNetworkQueue);
+        if (mRequestBatcher != null) {
+            mRequestBatcher.setScheduler(mScheduler);
+        }
+
         // Create network dispatchers (and corresponding threads) up to the pool size.
         for (int i = 0; i < mDispatchers.length; i++) {
             NetworkDispatcher networkDispatcher = new NetworkDispatcher(mNetworkQueue, mNetwork,
-                    mCache, mDelivery);
+                    mCache, mDelivery, mScheduler);
             mDispatchers[i] = networkDispatcher;
             networkDispatcher.start();
         }
+
+        if (mRecentOrigins != null && mNetwork instanceof ConnectionWarmer) {
+            mRecentOrigins.restore((ConnectionWarmer) mNetwork);
+        }
+    }
+
+    /**
+     * Opens connections to the origins of the given URLs in the background, so that the
+     * first requests to them do not pay for DNS lookup, TCP connect and TLS handshake.
+     * Does nothing if the network cannot open connections ahead of time.
+     *
+     * @param urls URLs on the origins to connect to
+     */
+    public void preconnect(String... urls) {
+        if (!(mNetwork instanceof ConnectionWarmer)) {
+            return;
+        }
+        for (String url : urls) {
+            ((ConnectionWarmer) mNetwork).preconnect(url);
+        }
+    }
+
+    /**
+     * Remembers the origins this queue sends requests to in the given file, and connects
+     * to those of the previous session when the queue starts. Must be called before
+     * {@link #start()}.
+     *
+     * @param file File to keep the origins in
+     * @param maxOrigins Most origins remembered; the least recently first seen go first
+     */
+    public void setPreconnectHistory(File file, int maxOrigins) {
+        mRecentOrigins = new RecentOrigins(file, maxOrigins);
+    }
+
+    /**
+     * Sets the budget limiting retries across all requests of this queue, or null to
+     * leave retries to each request's retry policy alone, which is the default. Applies
+     * to requests dispatched from then on, so it may be set on a running queue.
+     */
+    public void setRetryBudget(RetryBudget retryBudget) {
+        mRetryBudget = retryBudget;
+    }
+
+    /**
+     * Returns the retry budget of this queue, whose counters tell how many retries were
+     * made and refused, or null if there is none.
+     */
+    public RetryBudget getRetryBudget() {
+        return mRetryBudget;
+    }
+
+    /**
+     * Limits the rate of requests to a host, or to the URLs starting with a prefix. A
+     * request over the limit waits on a timer until a permit is free, then goes back on
+     * the network queue. A request matching several prefixes is limited by the longest;
+     * host limits only apply to requests matching no prefix.
+     *
+     * @param hostOrUrlPrefix Host name, or a URL prefix including the scheme, such as
+     *         "https://api.example.com/v1/search"
+     * @param rateLimiter Limiter of the matching requests, or null to remove the limit
+     */
+    public void setRateLimiter(String hostOrUrlPrefix, RateLimiter rateLimiter) {
+        String key = hostOrUrlPrefix.contains("://")
+                ? hostOrUrlPrefix : hostOrUrlPrefix.toLowerCase(Locale.US);
+        synchronized (mRateLimiters) {
+            if (rateLimiter == null) {
+                mRateLimiters.remove(key);
+            } else {
+                mRateLimiters.put(key, rateLimiter);
+            }
+        }
+    }
+
+    /**
+     * Returns the rate limiter of the request, or null if it has none.
+     */
+    /* package */ RateLimiter getRateLimiter(Request<?> request) {
+        synchronized (mRateLimiters) {
+            if (mRateLimiters.isEmpty()) {
+                return null;
+            }
+            String url = request.getUrl();
+            RateLimiter limiter = null;
+            int matchLength = 0;
+            for (Map.Entry<String, RateLimiter> entry : mRateLimiters.entrySet()) {
+                String prefix = entry.getKey();
+                if (prefix.length() > matchLength && prefix.contains("://")
+                        && url.startsWith(prefix)) {
+                    limiter = entry.getValue();
+                    matchLength = prefix.length();
+                }
+            }
+            if (limiter == null && request.getHost() != null) {
+                limiter = mRateLimiters.get(request.getHost());
+            }
+            return limiter;
+        }
+    }
+
+    /**
+     * Sets the batcher that collects the requests it can batch into single calls, or
+     * null to send every request alone. May be called while the queue is running.
+     */
+    public void setRequestBatcher(RequestBatcher requestBatcher) {
+        if (requestBatcher != null) {
+            requestBatcher.setScheduler(mScheduler);
+        }
+        mRequestBatcher = requestBatcher;
+    }
+
+    /**
+     * Returns the request batcher of this queue, or null if there is none.
+     */
+    public RequestBatcher getRequestBatcher() {
+        return mRequestBatcher;
     }
 
     /**
@@ -160,6 +297,13 @@ public class RequestQueue {
         if (mCacheDispatcher != null) {
             mCacheDispatcher.quit();
         }
+        if (mRequestBatcher != null) {
+            mRequestBatcher.setScheduler(null);
+        }
+        if (mScheduler != null) {
+            mScheduler.quit();
+            mScheduler = null;
+        }
         for (int i = 0; i < mDispatchers.length; i++) {
             if (mDispatchers[i] != null) {
                 mDispatchers[i].quit();
@@ -235,6 +379,10 @@ public class RequestQueue {
         request.setSequence(getSequenceNumber());
         request.addMarker("add-to-queue");
 
+        if (mRecentOrigins != null) {
+            mRecentOrigins.record(request.getUrl());
+        }
+
         // If the request is uncacheable, skip the cache queue and go straight to the network.
         if (!request.shouldCache()) {
             mNetworkQueue.add(request);
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts requests back on the network queue after a delay, on a single timer thread, so
+ * that network dispatchers never sleep while a request waits for its next attempt.
+ */
+public class RequestScheduler {
+
+    /** The queue of requests that are going out to the network. */
+    private final BlockingQueue<Request<?>> mNetworkQueue;
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+
+    /**
+     * Creates a scheduler and its timer thread.
+     *
+     * @param networkQueue Queue to put requests back on
+     */
+    public RequestScheduler(BlockingQueue<Request<?>> networkQueue) {
+        mNetworkQueue = networkQueue;
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "Volley-RequestScheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Puts the request back on the network queue once the delay has passed.
+     *
+     * @return false if the scheduler has quit and the request was not scheduled
+     */
+    public boolean schedule(final Request<?> request, long delayMs) {
+        try {
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // Canceled requests are finished by the dispatcher that takes them.
+                    mNetworkQueue.add(request);
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs the task on the timer thread once the delay has passed.
+     */
+    public void schedule(Runnable task, long delayMs) {
+        mExecutor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops taking new work. Requests already scheduled still go back on the queue when
+     * their delay has passed, and the timer thread exits after that.
+     */
+    public void quit() {
+        mExecutor.shutdown();
+    }
+}
@@ -38,6 +38,16 @@ public class Response<T> {
         public void onErrorResponse(VolleyError error);
     }
 
+    /** Callback interface for reporting the progress of a transfer. */
+    public interface ProgressListener {
+        /**
+         * Called as bytes are transferred.
+         * @param transferredBytes Bytes transferred so far
+         * @param totalBytes Total bytes to transfer, or -1 if unknown
+         */
+        public void onProgress(long transferredBytes, long totalBytes);
+    }
+
     /** Returns a successful response containing the parsed result. */
     public static <T> Response<T> success(T result, Cache.Entry cacheEntry) {
         return new Response<T>(result, cacheEntry);
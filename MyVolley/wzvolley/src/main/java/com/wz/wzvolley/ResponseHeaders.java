@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import okhttp3.Headers;
+
+/**
+ * A case-insensitive view of response headers backed directly by OkHttp's {@link Headers}.
+ *
+ * <p>Lookups with {@link #get(Object)} and {@link #values(String)} read the header block
+ * in place. A copy as a map, holding the last value of each header, is only made when
+ * the headers are iterated or modified, for example when a response is written to the
+ * cache.</p>
+ */
+public final class ResponseHeaders extends AbstractMap<String, String> {
+
+    private final Headers mHeaders;
+
+    /** Copy of the headers as a map, made on first iteration or change. */
+    private Map<String, String> mMap;
+
+    public ResponseHeaders(Headers headers) {
+        mHeaders = headers;
+    }
+
+    /**
+     * Returns all values of the named header, in the order received, such as every
+     * Set-Cookie of the response.
+     */
+    public List<String> values(String name) {
+        Map<String, String> map = copyIfMade();
+        if (map == null) {
+            return mHeaders.values(name);
+        }
+        // Modified since; only the last value of each header is left.
+        String value = map.get(name);
+        return value == null
+                ? Collections.<String>emptyList()
+                : Collections.singletonList(value);
+    }
+
+    @Override
+    public String get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        Map<String, String> map = copyIfMade();
+        return map == null ? mHeaders.get((String) key) : map.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        Map<String, String> map = copyIfMade();
+        return map == null ? mHeaders.names().size() : map.size();
+    }
+
+    @Override
+    public String put(String key, String value) {
+        return map().put(key, value);
+    }
+
+    @Override
+    public String remove(Object key) {
+        return map().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        map().clear();
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return map().entrySet();
+    }
+
+    private synchronized Map<String, String> copyIfMade() {
+        return mMap;
+    }
+
+    private synchronized Map<String, String> map() {
+        if (mMap == null) {
+            Map<String, String> map = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0, size = mHeaders.size(); i < size; i++) {
+                // Later values win, as with Headers.get().
+                map.put(mHeaders.name(i), mHeaders.value(i));
+            }
+            mMap = map;
+        }
+        return mMap;
+    }
+}
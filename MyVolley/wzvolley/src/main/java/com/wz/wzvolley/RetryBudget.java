@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley;
+
+/**
+ * Retry allowance shared by all requests of a {@link RequestQueue}, so that an outage
+ * does not turn every request into several.
+ *
+ * <p>A token bucket: every successful response earns a fraction of a token, every retry
+ * spends a whole one, and a retry without a token left is not made, its request failing
+ * with the error of its last attempt instead. Retries are so held to about that
+ * fraction of successes, with the bucket size as a reserve for bursts.</p>
+ */
+public class RetryBudget {
+
+    /** Default tokens earned per success; at most one retry per ten successes. */
+    public static final float DEFAULT_TOKENS_PER_SUCCESS = 0.1f;
+
+    /** Default bucket size, which the bucket starts with. */
+    public static final int DEFAULT_MAX_TOKENS = 10;
+
+    private final float mTokensPerSuccess;
+
+    private final int mMaxTokens;
+
+    private float mTokens;
+
+    private long mSuccessCount;
+
+    private long mRetryCount;
+
+    private long mExhaustedCount;
+
+    public RetryBudget() {
+        this(DEFAULT_TOKENS_PER_SUCCESS, DEFAULT_MAX_TOKENS);
+    }
+
+    /**
+     * @param tokensPerSuccess Tokens earned by each success; each retry costs one
+     * @param maxTokens Most tokens saved up, and those the bucket starts with
+     */
+    public RetryBudget(float tokensPerSuccess, int maxTokens) {
+        mTokensPerSuccess = tokensPerSuccess;
+        mMaxTokens = maxTokens;
+        mTokens = maxTokens;
+    }
+
+    /**
+     * Earns tokens for a response received from the network.
+     */
+    public synchronized void onSuccess() {
+        mSuccessCount++;
+        mTokens = Math.min(mMaxTokens, mTokens + mTokensPerSuccess);
+    }
+
+    /**
+     * Spends a token on a retry, returning false if none is left.
+     */
+    public synchronized boolean tryAcquireRetry() {
+        if (mTokens < 1) {
+            mExhaustedCount++;
+            return false;
+        }
+        mTokens--;
+        mRetryCount++;
+        return true;
+    }
+
+    /**
+     * Returns the tokens left.
+     */
+    public synchronized float getTokens() {
+        return mTokens;
+    }
+
+    /**
+     * Returns the number of successes counted.
+     */
+    public synchronized long getSuccessCount() {
+        return mSuccessCount;
+    }
+
+    /**
+     * Returns the number of retries allowed.
+     */
+    public synchronized long getRetryCount() {
+        return mRetryCount;
+    }
+
+    /**
+     * Returns the number of retries refused for lack of tokens.
+     */
+    public synchronized long getExhaustedCount() {
+        return mExhaustedCount;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley;
+
+/**
+ * Thrown by a {@link Network} when an attempt failed and the request's retry policy allows
+ * another one after a delay. The {@link NetworkDispatcher} puts the request back on the
+ * network queue once the delay has passed, instead of holding its thread meanwhile.
+ */
+@SuppressWarnings("serial")
+public class RetryScheduledError extends VolleyError {
+    private final long mDelayMs;
+
+    /**
+     * @param delayMs Time to wait before the next attempt
+     * @param error The error of the failed attempt
+     */
+    public RetryScheduledError(long delayMs, VolleyError error) {
+        super(error);
+        mDelayMs = delayMs;
+    }
+
+    /** Returns the time to wait before the next attempt. */
+    public long getDelayMs() {
+        return mDelayMs;
+    }
+
+    /** Returns the error of the failed attempt. */
+    public VolleyError getError() {
+        return (VolleyError) getCause();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Smoothed round-trip time and variance of the responses from one host, kept the way TCP
+ * computes its retransmission timeout (RFC 6298).
+ *
+ * <p>One estimator is shared by all requests to a host through {@link #forHost(String)};
+ * {@link AdaptiveRetryPolicy} reads timeouts from it, and
+ * {@link com.wz.wzvolley.toolbox.BasicNetwork} feeds it the time every attempt of a
+ * request with such a policy took to get its response headers. Every attempt that times
+ * out doubles the host's timeout until the next sample, as RFC 6298 backs off, so a host
+ * that got slower than its timeout is measured again. Estimators of the
+ * {@link #MAX_HOSTS} most recently used hosts are kept.</p>
+ */
+public class RttEstimator {
+
+    /** Gain of the smoothed RTT, 1/8 as in RFC 6298. */
+    private static final float ALPHA = 0.125f;
+
+    /** Gain of the RTT variance, 1/4 as in RFC 6298. */
+    private static final float BETA = 0.25f;
+
+    /** Weight of the variance in the timeout. */
+    private static final int K = 4;
+
+    /** Most doublings of the timeout after timeouts; the ceiling is reached well before. */
+    private static final int MAX_BACKOFFS = 16;
+
+    /** Most hosts kept estimators for. */
+    public static final int MAX_HOSTS = 64;
+
+    /** Estimators by lower-cased host name; least recently used go first. */
+    private static final Map<String, RttEstimator> sEstimators =
+            new LinkedHashMap<String, RttEstimator>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, RttEstimator> eldest) {
+                    return size() > MAX_HOSTS;
+                }
+            };
+
+    /** Smoothed RTT in ms, or -1 before the first sample. */
+    private float mSrttMs = -1;
+
+    /** RTT variance in ms. */
+    private float mRttVarMs;
+
+    /** Number of samples taken. */
+    private long mSampleCount;
+
+    /** Times the timeout doubles, one per timeout since the last sample. */
+    private int mBackoffs;
+
+    /**
+     * Returns the estimator shared by all requests to the given host.
+     *
+     * @param host Host name, or null for requests without a host
+     */
+    public static RttEstimator forHost(String host) {
+        String key = host == null ? "" : host.toLowerCase(Locale.US);
+        synchronized (sEstimators) {
+            RttEstimator estimator = sEstimators.get(key);
+            if (estimator == null) {
+                estimator = new RttEstimator();
+                sEstimators.put(key, estimator);
+            }
+            return estimator;
+        }
+    }
+
+    /**
+     * Adds a round trip time measured for the host.
+     */
+    public synchronized void addSample(long rttMs) {
+        if (rttMs < 0) {
+            return;
+        }
+        if (mSrttMs < 0) {
+            mSrttMs = rttMs;
+            mRttVarMs = rttMs / 2f;
+        } else {
+            mRttVarMs = (1 - BETA) * mRttVarMs + BETA * Math.abs(mSrttMs - rttMs);
+            mSrttMs = (1 - ALPHA) * mSrttMs + ALPHA * rttMs;
+        }
+        mSampleCount++;
+        mBackoffs = 0;
+    }
+
+    /**
+     * Backs off after an attempt to the host timed out: the timeout doubles, up to the
+     * ceiling, until the next sample (RFC 6298 section 5.5).
+     */
+    public synchronized void onTimeout() {
+        mBackoffs = Math.min(mBackoffs + 1, MAX_BACKOFFS);
+    }
+
+    /**
+     * Returns the timeout for the next attempt: the smoothed RTT plus four times its
+     * variance, or the initial timeout before any sample, no lower than the floor and
+     * doubled for each timeout since the last sample, up to the ceiling.
+     */
+    public synchronized int getTimeoutMs(int initialTimeoutMs, int minTimeoutMs,
+            int maxTimeoutMs) {
+        long timeoutMs = mSrttMs < 0
+                ? initialTimeoutMs : Math.max(minTimeoutMs, (long) (mSrttMs + K * mRttVarMs));
+        timeoutMs <<= mBackoffs;
+        return (int) Math.min(maxTimeoutMs, timeoutMs);
+    }
+
+    /**
+     * Returns the smoothed RTT in ms, or -1 if there is no sample yet.
+     */
+    public synchronized long getSmoothedRttMs() {
+        return (long) mSrttMs;
+    }
+
+    /**
+     * Returns the RTT variance in ms.
+     */
+    public synchronized long getRttVarianceMs() {
+        return (long) mRttVarMs;
+    }
+
+    /**
+     * Returns the number of timeouts since the last sample.
+     */
+    public synchronized int getBackoffCount() {
+        return mBackoffs;
+    }
+
+    /**
+     * Returns the number of samples taken.
+     */
+    public synchronized long getSampleCount() {
+        return mSampleCount;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley;
+
+import java.io.IOException;
+
+import okio.BufferedSink;
+
+/**
+ * A request body written straight to the connection, so it never has to be held in
+ * memory as a whole.
+ */
+public interface StreamingBody {
+
+    /**
+     * Returns the number of bytes {@link #writeTo(BufferedSink)} writes, or -1 if unknown,
+     * in which case the body is sent with chunked transfer encoding.
+     */
+    public long contentLength();
+
+    /**
+     * Writes the body to the connection. May be called more than once, as each retry of
+     * the request sends the body again.
+     */
+    public void writeTo(BufferedSink sink) throws IOException;
+}
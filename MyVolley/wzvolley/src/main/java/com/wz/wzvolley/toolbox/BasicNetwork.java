@@ -18,14 +18,20 @@ package com.wz.wzvolley.toolbox;
 
 import android.os.SystemClock;
 
+import com.wz.wzvolley.AdaptiveRetryPolicy;
 import com.wz.wzvolley.AuthFailureError;
 import com.wz.wzvolley.Cache;
+import com.wz.wzvolley.CanceledError;
+import com.wz.wzvolley.CircuitOpenError;
+import com.wz.wzvolley.ConnectionWarmer;
 import com.wz.wzvolley.HttpStatus;
 import com.wz.wzvolley.NetworkError;
 import com.wz.wzvolley.NetworkResponse;
 import com.wz.wzvolley.NoConnectionError;
 import com.wz.wzvolley.Request;
+import com.wz.wzvolley.ResponseHeaders;
 import com.wz.wzvolley.RetryPolicy;
+import com.wz.wzvolley.RetryScheduledError;
 import com.wz.wzvolley.ServerError;
 import com.wz.wzvolley.TimeoutError;
 import com.wz.wzvolley.VolleyError;
@@ -38,11 +44,12 @@ import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
-import java.text.SimpleDateFormat;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
 
 import okhttp3.Response;
 import okhttp3.ResponseBody;
@@ -51,7 +58,7 @@ import okhttp3.ResponseBody;
 /**
  * A network performing Volley requests over an {@link HttpStack}.
  */
-public class BasicNetwork implements Network {
+public class BasicNetwork implements Network, ConnectionWarmer {
 	protected static final boolean DEBUG = VolleyLog.DEBUG;
 
 	private static int SLOW_REQUEST_THRESHOLD_MS = 3000;
@@ -62,6 +69,29 @@ public class BasicNetwork implements Network {
 
 	protected final ByteArrayPool mPool;
 
+	/** Default cap on the first retry delay; it doubles with each retry. */
+	public static final long DEFAULT_RETRY_BASE_DELAY_MS = 250;
+
+	/** Default cap on any retry delay, Retry-After included. */
+	public static final long DEFAULT_RETRY_MAX_DELAY_MS = 30 * 1000;
+
+	private long mRetryBaseDelayMs = DEFAULT_RETRY_BASE_DELAY_MS;
+
+	private long mRetryMaxDelayMs = DEFAULT_RETRY_MAX_DELAY_MS;
+
+	private final Random mRandom = new Random();
+
+	/** Circuit breaker config of hosts without their own, or null for none. */
+	private CircuitBreaker.Config mDefaultCircuitBreakerConfig;
+
+	/** Circuit breaker configs by lower-cased host name. */
+	private final Map<String, CircuitBreaker.Config> mCircuitBreakerConfigs =
+			new HashMap<String, CircuitBreaker.Config>();
+
+	/** Circuit breakers by lower-cased host name, made on first use. */
+	private final Map<String, CircuitBreaker> mCircuitBreakers =
+			new HashMap<String, CircuitBreaker>();
+
 	/**
 	 * @param httpStack
 	 *            HTTP stack to be used
@@ -84,104 +114,334 @@ public class BasicNetwork implements Network {
 		mPool = pool;
 	}
 
+	/**
+	 * Sets the backoff between attempts. Retry n waits a random time between 0 and
+	 * min(maxDelayMs, baseDelayMs * 2^(n-1)), "full jitter", so that clients failing
+	 * together do not retry together. A Retry-After over maxDelayMs ends the retries.
+	 *
+	 * @param baseDelayMs
+	 *            cap on the first retry delay
+	 * @param maxDelayMs
+	 *            cap on any retry delay
+	 * @return this network
+	 */
+	public BasicNetwork setRetryBackoff(long baseDelayMs, long maxDelayMs) {
+		mRetryBaseDelayMs = baseDelayMs;
+		mRetryMaxDelayMs = maxDelayMs;
+		return this;
+	}
+
+	/**
+	 * Sets the circuit breaker of every host without a config of its own; see
+	 * {@link CircuitBreaker}. Requests to a host whose circuit is open fail at
+	 * once with a {@link CircuitOpenError}. Timeouts, connection failures and
+	 * 5xx responses count as failures. Off by default.
+	 * 
+	 * @param config
+	 *            thresholds of the breakers, or null to turn them off
+	 * @return this network
+	 */
+	public BasicNetwork setCircuitBreakerConfig(CircuitBreaker.Config config) {
+		synchronized (mCircuitBreakers) {
+			mDefaultCircuitBreakerConfig = config;
+			mCircuitBreakers.clear();
+		}
+		return this;
+	}
+
+	/**
+	 * Sets the circuit breaker of one host, in place of the default one.
+	 * 
+	 * @param host
+	 *            host name
+	 * @param config
+	 *            thresholds of the host's breaker, or null to go back to the
+	 *            default
+	 * @return this network
+	 */
+	public BasicNetwork setCircuitBreakerConfig(String host,
+			CircuitBreaker.Config config) {
+		String key = host.toLowerCase(Locale.US);
+		synchronized (mCircuitBreakers) {
+			if (config == null) {
+				mCircuitBreakerConfigs.remove(key);
+			} else {
+				mCircuitBreakerConfigs.put(key, config);
+			}
+			mCircuitBreakers.remove(key);
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the circuit breaker of a host, to monitor its state, or null if
+	 * the host has none.
+	 */
+	public CircuitBreaker getCircuitBreaker(String host) {
+		String key = host == null ? "" : host.toLowerCase(Locale.US);
+		synchronized (mCircuitBreakers) {
+			CircuitBreaker breaker = mCircuitBreakers.get(key);
+			if (breaker == null) {
+				CircuitBreaker.Config config = mCircuitBreakerConfigs.get(key);
+				if (config == null) {
+					config = mDefaultCircuitBreakerConfig;
+				}
+				if (config == null) {
+					return null;
+				}
+				breaker = new CircuitBreaker(key, config);
+				mCircuitBreakers.put(key, breaker);
+			}
+			return breaker;
+		}
+	}
+
+	/**
+	 * Opens a connection to the origin of the URL if the HTTP stack supports it.
+	 */
+	@Override
+	public void preconnect(String url) {
+		if (mHttpStack instanceof ConnectionWarmer) {
+			((ConnectionWarmer) mHttpStack).preconnect(url);
+		}
+	}
+
+	/**
+	 * Performs the request, retrying it as its retry policy allows. If the request
+	 * {@link Request#isRetryDeferred() defers its retries}, as the
+	 * {@link com.wz.wzvolley.NetworkDispatcher} has it do, only one attempt is made
+	 * and a failure that may be retried throws a {@link RetryScheduledError} with the
+	 * delay to wait. Otherwise the delay is waited out on the calling thread.
+	 */
 	@Override
 	public NetworkResponse performRequest(Request<?> request)
 			throws VolleyError {
-		long requestStart = SystemClock.elapsedRealtime();
 		while (true) {
-			Response response = null;
-			byte[] responseContents = null;
-			Map<String, String> responseHeaders = Collections.emptyMap();
 			try {
-				// Gather headers.
-				Map<String, String> headers = new HashMap<String, String>();
-				addCacheHeaders(headers, request.getCacheEntry());
-				response = mHttpStack.performRequest(request, headers);
-
-				int statusCode = response.code();
-				ResponseBody responseBody = response.body();
-				long conrtentLength = responseBody.contentLength();
-				InputStream stream = responseBody.byteStream();
-
-				responseHeaders = new HashMap<String, String>();
-				for (String field : response.headers().names()) {
-					responseHeaders.put(field, response.headers().get(field));
+				return performCheckedAttempt(request);
+			} catch (RetryScheduledError retry) {
+				if (request.isRetryDeferred()) {
+					throw retry;
 				}
-				
-				// Handle cache validation.
-				if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
-
-					Entry entry = request.getCacheEntry();
-					if (entry == null) {
-						return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED,
-								null, responseHeaders, true,
-								SystemClock.elapsedRealtime() - requestStart);
-					}
+				try {
+					Thread.sleep(retry.getDelayMs());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw retry.getError();
+				}
+			}
+		}
+	}
 
-					// A HTTP 304 response does not have all header fields. We
-					// have to use the header fields from the cache entry plus
-					// the new ones from the response.
-					// http://www.w3.org/Protocols/rfc2616/rfc2616-sec10.html#sec10.3.5
-					entry.responseHeaders.putAll(responseHeaders);
+	/**
+	 * Performs one attempt of the request through the host's circuit breaker, if any.
+	 */
+	private NetworkResponse performCheckedAttempt(Request<?> request)
+			throws VolleyError {
+		CircuitBreaker breaker = getCircuitBreaker(request.getHost());
+		if (breaker == null) {
+			return performAttempt(request, new long[1]);
+		}
+		if (!breaker.allowRequest()) {
+			request.addMarker("circuit-open");
+			throw new CircuitOpenError(request.getHost());
+		}
+		long attemptStart = SystemClock.elapsedRealtime();
+		// Slow calls are judged on the time to the response headers, as the body
+		// of a large download says nothing about the host's health.
+		long[] headersTimeMs = { -1 };
+		NetworkResponse response;
+		try {
+			response = performAttempt(request, headersTimeMs);
+		} catch (CanceledError e) {
+			// Says nothing about the host.
+			breaker.recordIgnored();
+			throw e;
+		} catch (VolleyError e) {
+			breaker.recordResult(!isHostFailure(e),
+					getDurationMs(attemptStart, headersTimeMs[0]));
+			throw e;
+		} catch (RuntimeException e) {
+			breaker.recordResult(false, getDurationMs(attemptStart,
+					headersTimeMs[0]));
+			throw e;
+		}
+		breaker.recordResult(true, getDurationMs(attemptStart, headersTimeMs[0]));
+		return response;
+	}
+
+	/**
+	 * Returns the time to the response headers, or since the start of the attempt if it
+	 * failed before getting them.
+	 */
+	private static long getDurationMs(long attemptStart, long headersTimeMs) {
+		return headersTimeMs >= 0 ? headersTimeMs : SystemClock.elapsedRealtime()
+				- attemptStart;
+	}
+
+	/**
+	 * Returns whether the error says the host is unreachable or unwell, as
+	 * opposed to refusing this request.
+	 */
+	private static boolean isHostFailure(VolleyError error) {
+		if (error instanceof RetryScheduledError) {
+			error = ((RetryScheduledError) error).getError();
+		}
+		if (error instanceof ServerError) {
+			return error.networkResponse == null
+					|| error.networkResponse.statusCode >= 500;
+		}
+		return error instanceof TimeoutError || error instanceof NetworkError;
+	}
+
+	/**
+	 * Performs one attempt of the request.
+	 * 
+	 * @param headersTimeMs
+	 *            receives in its first element the time the attempt took to get
+	 *            response headers, if it got them
+	 */
+	private NetworkResponse performAttempt(Request<?> request,
+			long[] headersTimeMs) throws VolleyError {
+		long requestStart = SystemClock.elapsedRealtime();
+		Response response = null;
+		byte[] responseContents = null;
+		Map<String, String> responseHeaders = Collections.emptyMap();
+		try {
+			// Gather headers.
+			Map<String, String> headers = new HashMap<String, String>();
+			addCacheHeaders(headers, request.getCacheEntry());
+			long attemptStart = SystemClock.elapsedRealtime();
+			response = mHttpStack.performRequest(request, headers);
+			// Time to the response headers of this attempt alone, which is what
+			// the socket timeout guards, for the host's adaptive timeouts.
+			headersTimeMs[0] = SystemClock.elapsedRealtime() - attemptStart;
+			RetryPolicy retryPolicy = request.getRetryPolicy();
+			if (retryPolicy instanceof AdaptiveRetryPolicy) {
+				((AdaptiveRetryPolicy) retryPolicy).getRttEstimator().addSample(
+						headersTimeMs[0]);
+			}
+
+			int statusCode = response.code();
+			ResponseBody responseBody = response.body();
+
+			// Read in place from OkHttp's header block; copied only if iterated.
+			responseHeaders = new ResponseHeaders(response.headers());
+
+			// Handle cache validation.
+			if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+
+				Entry entry = request.getCacheEntry();
+				if (entry == null) {
 					return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED,
-							entry.data, entry.responseHeaders, true,
+							null, responseHeaders, true,
 							SystemClock.elapsedRealtime() - requestStart);
 				}
 
-				// Some responses such as 204s do not have content. We must
-				// check.
-				if (stream != null) {
-					responseContents = streamToBytes(stream, conrtentLength);
-				} else {
-					// Add 0 byte response as a way of honestly representing a
-					// no-content request.
-					responseContents = new byte[0];
+				// A HTTP 304 response does not have all header fields. We
+				// have to use the header fields from the cache entry plus
+				// the new ones from the response.
+				// http://www.w3.org/Protocols/rfc2616/rfc2616-sec10.html#sec10.3.5
+				Map<String, String> mergedHeaders = new TreeMap<String, String>(
+						String.CASE_INSENSITIVE_ORDER);
+				mergedHeaders.putAll(entry.responseHeaders);
+				mergedHeaders.putAll(responseHeaders);
+				entry.responseHeaders = mergedHeaders;
+				return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED,
+						entry.data, entry.responseHeaders, true,
+						SystemClock.elapsedRealtime() - requestStart);
+			}
+
+			// Successful responses to streaming requests are parsed straight
+			// off the connection instead of being read into a byte[] first.
+			if (request instanceof StreamRequest && statusCode >= 200
+					&& statusCode <= 299) {
+				try {
+					NetworkResponse head = new NetworkResponse(statusCode,
+							null, responseHeaders, false,
+							SystemClock.elapsedRealtime() - requestStart);
+					NetworkResponse streamed = ((StreamRequest<?>) request)
+							.parseNetworkStream(head, responseBody.source());
+					logSlowRequests(SystemClock.elapsedRealtime()
+							- requestStart, request, streamed.data, statusCode);
+					return streamed;
+				} catch (IOException e) {
+					// A request canceled mid-body stops reading on purpose;
+					// that is not a network failure.
+					if (request.isCanceled()) {
+						throw new CanceledError(e);
+					}
+					throw e;
+				} finally {
+					responseBody.close();
 				}
+			}
 
-				// if the request is slow, log it.
-				long requestLifetime = SystemClock.elapsedRealtime()
-						- requestStart;
-				logSlowRequests(requestLifetime, request, responseContents,
-						statusCode);
+			// Some responses such as 204s do not have content. We must
+			// check.
+			long conrtentLength = responseBody.contentLength();
+			InputStream stream = responseBody.byteStream();
+			if (stream != null) {
+				responseContents = streamToBytes(stream, conrtentLength);
+			} else {
+				// Add 0 byte response as a way of honestly representing a
+				// no-content request.
+				responseContents = new byte[0];
+			}
 
-				if (statusCode < 200 || statusCode > 299) {
-					throw new IOException();
-				}
-				return new NetworkResponse(statusCode, responseContents,
-						responseHeaders, false, SystemClock.elapsedRealtime()
-								- requestStart);
-			} catch (SocketTimeoutException e) {
-				attemptRetryOnException("socket", request, new TimeoutError());
-			} catch (InterruptedIOException e) {
-				attemptRetryOnException("connection", request,
-						new TimeoutError());
-			} catch (MalformedURLException e) {
-				throw new RuntimeException("Bad URL " + request.getUrl(), e);
-			} catch (IOException e) {
-				int statusCode = 0;
-				NetworkResponse networkResponse = null;
-				if (response != null) {
-					statusCode = response.code();
-				} else {
-					throw new NoConnectionError(e);
-				}
-				VolleyLog.e("Unexpected response code %d for %s", statusCode,
-						request.getUrl());
-				if (responseContents != null) {
-					networkResponse = new NetworkResponse(statusCode,
-							responseContents, responseHeaders, false,
-							SystemClock.elapsedRealtime() - requestStart);
-					if (statusCode == HttpStatus.SC_UNAUTHORIZED
-							|| statusCode == HttpStatus.SC_FORBIDDEN) {
-						attemptRetryOnException("auth", request,
-								new AuthFailureError(networkResponse));
-					} else {
-						// TODO: Only throw ServerError for 5xx status codes.
+			// if the request is slow, log it.
+			long requestLifetime = SystemClock.elapsedRealtime()
+					- requestStart;
+			logSlowRequests(requestLifetime, request, responseContents,
+					statusCode);
+
+			if (statusCode < 200 || statusCode > 299) {
+				throw new IOException();
+			}
+			return new NetworkResponse(statusCode, responseContents,
+					responseHeaders, false, SystemClock.elapsedRealtime()
+							- requestStart);
+		} catch (SocketTimeoutException e) {
+			throw attemptRetryOnException("socket", request, new TimeoutError(), 0);
+		} catch (InterruptedIOException e) {
+			throw attemptRetryOnException("connection", request,
+					new TimeoutError(), 0);
+		} catch (MalformedURLException e) {
+			throw new RuntimeException("Bad URL " + request.getUrl(), e);
+		} catch (IOException e) {
+			int statusCode = 0;
+			NetworkResponse networkResponse = null;
+			if (response != null) {
+				statusCode = response.code();
+			} else {
+				throw new NoConnectionError(e);
+			}
+			VolleyLog.e("Unexpected response code %d for %s", statusCode,
+					request.getUrl());
+			if (responseContents != null) {
+				networkResponse = new NetworkResponse(statusCode,
+						responseContents, responseHeaders, false,
+						SystemClock.elapsedRealtime() - requestStart);
+				if (statusCode == HttpStatus.SC_UNAUTHORIZED
+						|| statusCode == HttpStatus.SC_FORBIDDEN) {
+					throw attemptRetryOnException("auth", request,
+							new AuthFailureError(networkResponse), 0);
+				} else if (statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE
+						|| statusCode == HttpStatus.SC_TOO_MANY_REQUESTS) {
+					// The server asks to come back later; wait at least as long as it says.
+					long retryAfterMs = parseRetryAfterMs(
+							responseHeaders.get("Retry-After"));
+					if (retryAfterMs > mRetryMaxDelayMs) {
 						throw new ServerError(networkResponse);
 					}
+					throw attemptRetryOnException("server", request,
+							new ServerError(networkResponse), retryAfterMs);
 				} else {
-					throw new NetworkError(networkResponse);
+					// TODO: Only throw ServerError for 5xx status codes.
+					throw new ServerError(networkResponse);
 				}
+			} else {
+				throw new NetworkError(networkResponse);
 			}
 		}
 	}
@@ -209,9 +469,13 @@ public class BasicNetwork implements Network {
 	 * 
 	 * @param request
 	 *            The request to use.
+	 * @param minDelayMs
+	 *            Least time to wait before the retry, such as a Retry-After
+	 * @return the error telling the dispatcher when to retry
 	 */
-	private static void attemptRetryOnException(String logPrefix,
-			Request<?> request, VolleyError exception) throws VolleyError {
+	private RetryScheduledError attemptRetryOnException(String logPrefix,
+			Request<?> request, VolleyError exception, long minDelayMs)
+			throws VolleyError {
 		RetryPolicy retryPolicy = request.getRetryPolicy();
 		int oldTimeout = request.getTimeoutMs();
 
@@ -222,8 +486,38 @@ public class BasicNetwork implements Network {
 					logPrefix, oldTimeout));
 			throw e;
 		}
-		request.addMarker(String.format("%s-retry [timeout=%s]", logPrefix,
-				oldTimeout));
+		long delayMs = Math.max(minDelayMs,
+				backoffDelayMs(retryPolicy.getCurrentRetryCount()));
+		request.addMarker(String.format("%s-retry [timeout=%s] [delay=%s]",
+				logPrefix, oldTimeout, delayMs));
+		return new RetryScheduledError(delayMs, exception);
+	}
+
+	/**
+	 * Returns a random delay between 0 and the exponential backoff cap of the
+	 * given retry.
+	 */
+	private long backoffDelayMs(int retryCount) {
+		int doublings = Math.min(Math.max(retryCount - 1, 0), 30);
+		long capMs = Math.min(mRetryMaxDelayMs, mRetryBaseDelayMs << doublings);
+		return (long) (mRandom.nextDouble() * capMs);
+	}
+
+	/**
+	 * Returns the delay asked for by a Retry-After header, in seconds or as a
+	 * date, or 0 if there is none.
+	 */
+	private static long parseRetryAfterMs(String retryAfter) {
+		if (retryAfter == null) {
+			return 0;
+		}
+		retryAfter = retryAfter.trim();
+		try {
+			return Math.max(0, Long.parseLong(retryAfter) * 1000);
+		} catch (NumberFormatException e) {
+			long date = HttpHeaderParser.parseDateAsEpoch(retryAfter);
+			return date > 0 ? Math.max(0, date - System.currentTimeMillis()) : 0;
+		}
 	}
 
 	private void addCacheHeaders(Map<String, String> headers, Cache.Entry entry) {
@@ -237,10 +531,7 @@ public class BasicNetwork implements Network {
 		}
 
 		if (entry.lastModified > 0) {
-			Date refTime = new Date(entry.lastModified);
-			SimpleDateFormat sdf = new SimpleDateFormat(
-					"EEE, dd MMM yyyy HH:mm:ss zzz");
-			headers.put("If-Modified-Since", sdf.format(refTime));
+			headers.put("If-Modified-Since", HttpDate.format(entry.lastModified));
 		}
 	}
 
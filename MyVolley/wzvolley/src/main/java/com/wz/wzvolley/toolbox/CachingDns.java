@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley.toolbox;
+
+import android.os.SystemClock;
+
+import com.wz.wzvolley.VolleyLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Dns;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * A {@link Dns} that keeps host name lookups in memory, so that most requests skip the
+ * system resolver.
+ *
+ * <ul>
+ *     <li>Addresses are kept for a fixed TTL, the system resolver not exposing record
+ *         TTLs.</li>
+ *     <li>An entry used in the last quarter of its TTL is refreshed in the background, so
+ *         hosts in steady use never wait for a lookup.</li>
+ *     <li>If a lookup fails, expired addresses up to {@link #setMaxStaleMs(long)} old are
+ *         returned instead of failing the request.</li>
+ *     <li>{@link #saveSnapshot(File)} and {@link #loadSnapshot(File)} carry entries over to
+ *         the next process. Snapshot entries are returned at once and refreshed in the
+ *         background.</li>
+ * </ul>
+ *
+ * <pre>
+ * CachingDns dns = new CachingDns();
+ * dns.loadSnapshot(snapshotFile);
+ * OkHttpStack stack = new OkHttpStack().setDns(dns);
+ * </pre>
+ */
+public class CachingDns implements Dns {
+
+    /** Default time addresses are kept. */
+    public static final long DEFAULT_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    /** Default age up to which expired addresses stand in for a failed lookup. */
+    public static final long DEFAULT_MAX_STALE_MS = TimeUnit.HOURS.toMillis(24);
+
+    /** Fraction of the TTL after which an entry in use is refreshed ahead of expiry. */
+    private static final float REFRESH_AHEAD_FRACTION = 0.75f;
+
+    /** Most entries kept; the oldest lookups are dropped first. */
+    private static final int MAX_ENTRIES = 128;
+
+    /** Addresses of one host. */
+    private static class Entry {
+        final List<InetAddress> addresses;
+        /** Wall clock time of the lookup, so it stays meaningful in a snapshot. */
+        final long resolvedAtMs;
+        /** Whether the entry came from a snapshot and has not been looked up since. */
+        final boolean fromSnapshot;
+        boolean refreshing;
+
+        Entry(List<InetAddress> addresses, long resolvedAtMs, boolean fromSnapshot) {
+            this.addresses = addresses;
+            this.resolvedAtMs = resolvedAtMs;
+            this.fromSnapshot = fromSnapshot;
+        }
+    }
+
+    private final Dns mDelegate;
+
+    private final long mTtlMs;
+
+    private volatile long mMaxStaleMs = DEFAULT_MAX_STALE_MS;
+
+    /** Entries by lower-cased host name. */
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+
+    /** Up to two refreshes at once; idle threads end after 30 seconds. */
+    private final ThreadPoolExecutor mRefreshExecutor = new ThreadPoolExecutor(2, 2,
+            30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Volley-DnsRefresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final AtomicLong mLookupCount = new AtomicLong();
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mStaleCount = new AtomicLong();
+    private final AtomicLong mResolveCount = new AtomicLong();
+    private final AtomicLong mResolveFailureCount = new AtomicLong();
+    private final AtomicLong mResolveTimeMs = new AtomicLong();
+
+    /**
+     * Creates a cache in front of the system resolver with the default TTL.
+     */
+    public CachingDns() {
+        this(Dns.SYSTEM, DEFAULT_TTL_MS);
+    }
+
+    /**
+     * @param delegate The resolver to look up hosts missing from the cache
+     * @param ttlMs How long addresses are kept
+     */
+    public CachingDns(Dns delegate, long ttlMs) {
+        mDelegate = delegate;
+        mTtlMs = ttlMs;
+        mRefreshExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sets the age up to which expired addresses are returned when a lookup fails, or 0
+     * to fail the lookup instead.
+     *
+     * @return This cache to allow for chaining.
+     */
+    public CachingDns setMaxStaleMs(long maxStaleMs) {
+        mMaxStaleMs = maxStaleMs;
+        return this;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        mLookupCount.incrementAndGet();
+        String key = hostname.toLowerCase(Locale.US);
+        long now = System.currentTimeMillis();
+        Entry entry;
+        boolean refresh = false;
+        synchronized (mEntries) {
+            entry = mEntries.get(key);
+            if (entry != null) {
+                long age = now - entry.resolvedAtMs;
+                boolean usable = age < mTtlMs || (entry.fromSnapshot && isWithinStaleLimit(age));
+                if (usable) {
+                    if (!entry.refreshing
+                            && (entry.fromSnapshot || age >= mTtlMs * REFRESH_AHEAD_FRACTION)) {
+                        entry.refreshing = true;
+                        refresh = true;
+                    }
+                } else {
+                    entry = null;
+                }
+            }
+        }
+        if (entry != null) {
+            mHitCount.incrementAndGet();
+            if (refresh) {
+                refreshInBackground(hostname, key);
+            }
+            return entry.addresses;
+        }
+
+        try {
+            return resolve(hostname, key);
+        } catch (UnknownHostException e) {
+            Entry stale;
+            synchronized (mEntries) {
+                stale = mEntries.get(key);
+            }
+            if (stale != null && isWithinStaleLimit(now - stale.resolvedAtMs)) {
+                mStaleCount.incrementAndGet();
+                VolleyLog.d("Lookup of %s failed, using stale addresses: %s", hostname,
+                        e.toString());
+                return stale.addresses;
+            }
+            throw e;
+        }
+    }
+
+    /** Returns whether addresses looked up this long ago have not been expired too long. */
+    private boolean isWithinStaleLimit(long ageMs) {
+        return ageMs < mTtlMs + mMaxStaleMs;
+    }
+
+    /** Looks the host up with the delegate and caches the result. */
+    private List<InetAddress> resolve(String hostname, String key) throws UnknownHostException {
+        long start = SystemClock.elapsedRealtime();
+        List<InetAddress> addresses;
+        try {
+            addresses = Collections.unmodifiableList(
+                    new ArrayList<InetAddress>(mDelegate.lookup(hostname)));
+        } catch (UnknownHostException e) {
+            mResolveFailureCount.incrementAndGet();
+            synchronized (mEntries) {
+                Entry entry = mEntries.get(key);
+                if (entry != null) {
+                    entry.refreshing = false;
+                }
+            }
+            throw e;
+        } finally {
+            mResolveCount.incrementAndGet();
+            mResolveTimeMs.addAndGet(SystemClock.elapsedRealtime() - start);
+        }
+        synchronized (mEntries) {
+            mEntries.put(key, new Entry(addresses, System.currentTimeMillis(), false));
+            trim();
+        }
+        return addresses;
+    }
+
+    private void refreshInBackground(final String hostname, final String key) {
+        mRefreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resolve(hostname, key);
+                } catch (UnknownHostException e) {
+                    VolleyLog.d("Refresh of %s failed: %s", hostname, e.toString());
+                }
+            }
+        });
+    }
+
+    /** Drops the oldest lookups while there are too many entries. */
+    private void trim() {
+        while (mEntries.size() > MAX_ENTRIES) {
+            String oldestKey = null;
+            long oldest = Long.MAX_VALUE;
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                if (entry.getValue().resolvedAtMs < oldest) {
+                    oldest = entry.getValue().resolvedAtMs;
+                    oldestKey = entry.getKey();
+                }
+            }
+            mEntries.remove(oldestKey);
+        }
+    }
+
+    /**
+     * Drops all cached addresses, for example when the device changes networks.
+     */
+    public void clear() {
+        synchronized (mEntries) {
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * Writes the cached addresses to a file, to be read by {@link #loadSnapshot(File)} in a
+     * later process. Does file I/O; call it off the main thread.
+     */
+    public void saveSnapshot(File file) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        synchronized (mEntries) {
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                builder.append(entry.getKey()).append(' ').append(entry.getValue().resolvedAtMs);
+                for (InetAddress address : entry.getValue().addresses) {
+                    builder.append(' ').append(address.getHostAddress());
+                }
+                builder.append('\n');
+            }
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        BufferedSink sink = Okio.buffer(Okio.sink(tmp));
+        try {
+            sink.writeUtf8(builder.toString());
+        } finally {
+            sink.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Reads addresses saved by {@link #saveSnapshot(File)}. Hosts already cached keep their
+     * entries; snapshot entries older than the stale limit are skipped. Does file I/O;
+     * call it off the main thread.
+     */
+    public void loadSnapshot(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        BufferedSource source = Okio.buffer(Okio.source(file));
+        try {
+            String line;
+            while ((line = source.readUtf8Line()) != null) {
+                String[] fields = line.split(" ");
+                if (fields.length < 3) {
+                    continue;
+                }
+                long resolvedAtMs;
+                try {
+                    resolvedAtMs = Long.parseLong(fields[1]);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (!isWithinStaleLimit(now - resolvedAtMs)) {
+                    continue;
+                }
+                List<InetAddress> addresses = new ArrayList<InetAddress>(fields.length - 2);
+                for (int i = 2; i < fields.length; i++) {
+                    // Literal addresses are parsed, never looked up; skip anything else.
+                    if (!isAddressLiteral(fields[i])) {
+                        continue;
+                    }
+                    try {
+                        InetAddress literal = InetAddress.getByName(fields[i]);
+                        addresses.add(InetAddress.getByAddress(fields[0], literal.getAddress()));
+                    } catch (UnknownHostException e) {
+                        VolleyLog.d("Skipping bad address %s of %s", fields[i], fields[0]);
+                    }
+                }
+                if (addresses.isEmpty()) {
+                    continue;
+                }
+                synchronized (mEntries) {
+                    if (!mEntries.containsKey(fields[0])) {
+                        mEntries.put(fields[0], new Entry(
+                                Collections.unmodifiableList(addresses), resolvedAtMs, true));
+                    }
+                }
+            }
+            synchronized (mEntries) {
+                trim();
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Returns whether the text looks like an IPv4 or IPv6 literal, which
+     * {@link InetAddress#getByName(String)} parses without a lookup.
+     */
+    private static boolean isAddressLiteral(String text) {
+        if (text.length() == 0) {
+            return false;
+        }
+        // Only IPv6 literals have colons, and only they may have hex letters.
+        int radix = text.indexOf(':') >= 0 ? 16 : 10;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.digit(c, radix) < 0 && c != '.' && c != ':') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the number of lookups made through this cache. */
+    public long getLookupCount() {
+        return mLookupCount.get();
+    }
+
+    /** Returns the number of lookups answered from the cache. */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /** Returns the number of failed lookups answered with expired addresses. */
+    public long getStaleCount() {
+        return mStaleCount.get();
+    }
+
+    /** Returns the number of lookups made with the underlying resolver, refreshes included. */
+    public long getResolveCount() {
+        return mResolveCount.get();
+    }
+
+    /** Returns the number of lookups the underlying resolver failed. */
+    public long getResolveFailureCount() {
+        return mResolveFailureCount.get();
+    }
+
+    /** Returns the average time of lookups with the underlying resolver in ms. */
+    public long getAverageResolveTimeMs() {
+        long count = mResolveCount.get();
+        return count == 0 ? 0 : mResolveTimeMs.get() / count;
+    }
+}
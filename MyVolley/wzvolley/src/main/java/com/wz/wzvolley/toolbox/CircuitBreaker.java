@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley.toolbox;
+
+import android.os.SystemClock;
+
+import com.wz.wzvolley.VolleyLog;
+
+/**
+ * Circuit breaker of one host, which stops requests to a host that keeps failing so they
+ * fail fast instead of each waiting out timeouts and retries.
+ *
+ * <ul>
+ *     <li><b>Closed</b>: requests pass. The outcome of the last
+ *         {@link Config#setWindowSize(int)} attempts is kept; once at least
+ *         {@link Config#setMinimumCalls(int)} are known and the share of failures reaches
+ *         {@link Config#setFailureRateThreshold(float)}, the circuit opens. Attempts slower
+ *         than {@link Config#setSlowCallThresholdMs(long)} count as failures.</li>
+ *     <li><b>Open</b>: requests are refused for {@link Config#setOpenDurationMs(long)},
+ *         then the circuit goes half-open.</li>
+ *     <li><b>Half-open</b>: up to {@link Config#setHalfOpenTrialCalls(int)} trial
+ *         requests pass. The circuit closes when all of them succeed and opens again on
+ *         the first failure.</li>
+ * </ul>
+ *
+ * <p>Every request let through by {@link #allowRequest()} must be followed by one call to
+ * {@link #recordResult(boolean, long)}, or to {@link #recordIgnored()} if it ended without
+ * saying anything about the host.</p>
+ */
+public class CircuitBreaker {
+
+    /** States of the circuit. */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /**
+     * Thresholds of a circuit breaker.
+     */
+    public static class Config {
+        private int mWindowSize = 20;
+        private int mMinimumCalls = 10;
+        private float mFailureRateThreshold = 0.5f;
+        private long mSlowCallThresholdMs = 10 * 1000;
+        private long mOpenDurationMs = 30 * 1000;
+        private int mHalfOpenTrialCalls = 3;
+
+        /**
+         * Sets the number of recent attempts the failure rate is computed over.
+         * Defaults to 20.
+         *
+         * @return This config to allow for chaining.
+         */
+        public Config setWindowSize(int windowSize) {
+            mWindowSize = Math.max(1, windowSize);
+            return this;
+        }
+
+        /**
+         * Sets the number of attempts needed before the circuit can open. Defaults to 10.
+         *
+         * @return This config to allow for chaining.
+         */
+        public Config setMinimumCalls(int minimumCalls) {
+            mMinimumCalls = Math.max(1, minimumCalls);
+            return this;
+        }
+
+        /**
+         * Sets the share of failed attempts, between 0 and 1, at which the circuit opens.
+         * Defaults to 0.5.
+         *
+         * @return This config to allow for chaining.
+         */
+        public Config setFailureRateThreshold(float failureRateThreshold) {
+            mFailureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * Sets the time to the response headers after which a successful attempt still
+         * counts as a failure, or 0 to ignore latency. Reading the body is not counted, so
+         * large downloads are not slow calls. Defaults to 10 seconds.
+         *
+         * @return This config to allow for chaining.
+         */
+        public Config setSlowCallThresholdMs(long slowCallThresholdMs) {
+            mSlowCallThresholdMs = slowCallThresholdMs;
+            return this;
+        }
+
+        /**
+         * Sets how long an open circuit refuses requests before letting trials through.
+         * Defaults to 30 seconds.
+         *
+         * @return This config to allow for chaining.
+         */
+        public Config setOpenDurationMs(long openDurationMs) {
+            mOpenDurationMs = openDurationMs;
+            return this;
+        }
+
+        /**
+         * Sets the number of trial requests of a half-open circuit. Defaults to 3.
+         *
+         * @return This config to allow for chaining.
+         */
+        public Config setHalfOpenTrialCalls(int halfOpenTrialCalls) {
+            mHalfOpenTrialCalls = Math.max(1, halfOpenTrialCalls);
+            return this;
+        }
+    }
+
+    private final String mHost;
+
+    private final Config mConfig;
+
+    private State mState = State.CLOSED;
+
+    /** Outcomes of the last attempts while closed, true for a failure. */
+    private final boolean[] mWindow;
+
+    /** Next slot of the window to write. */
+    private int mWindowIndex;
+
+    /** Number of outcomes in the window. */
+    private int mWindowCount;
+
+    /** Number of failures in the window. */
+    private int mWindowFailures;
+
+    /** Time the circuit last opened. */
+    private long mOpenedAtMs;
+
+    /** Trial requests let through since going half-open. */
+    private int mTrialsStarted;
+
+    /** Trial requests that succeeded since going half-open. */
+    private int mTrialsSucceeded;
+
+    private long mRejectedCount;
+
+    private long mOpenCount;
+
+    /**
+     * @param host Host whose requests go through this breaker, used in logs
+     * @param config Thresholds of the breaker; later changes to it are not seen
+     */
+    public CircuitBreaker(String host, Config config) {
+        mHost = host;
+        mConfig = new Config()
+                .setWindowSize(config.mWindowSize)
+                .setMinimumCalls(config.mMinimumCalls)
+                .setFailureRateThreshold(config.mFailureRateThreshold)
+                .setSlowCallThresholdMs(config.mSlowCallThresholdMs)
+                .setOpenDurationMs(config.mOpenDurationMs)
+                .setHalfOpenTrialCalls(config.mHalfOpenTrialCalls);
+        mWindow = new boolean[mConfig.mWindowSize];
+    }
+
+    /**
+     * Returns whether a request may be sent now. An open circuit whose open time has
+     * passed goes half-open here.
+     */
+    public synchronized boolean allowRequest() {
+        if (mState == State.OPEN
+                && SystemClock.elapsedRealtime() - mOpenedAtMs >= mConfig.mOpenDurationMs) {
+            mState = State.HALF_OPEN;
+            mTrialsStarted = 0;
+            mTrialsSucceeded = 0;
+        }
+        switch (mState) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (mTrialsStarted < mConfig.mHalfOpenTrialCalls) {
+                    mTrialsStarted++;
+                    return true;
+                }
+                break;
+            default:
+                break;
+        }
+        mRejectedCount++;
+        return false;
+    }
+
+    /**
+     * Records the outcome of a request let through by {@link #allowRequest()}.
+     *
+     * @param success Whether the host answered properly
+     * @param durationMs Time the attempt took to get response headers, or to fail; slow
+     *         successes count as failures
+     */
+    public synchronized void recordResult(boolean success, long durationMs) {
+        boolean failure = !success || (mConfig.mSlowCallThresholdMs > 0
+                && durationMs >= mConfig.mSlowCallThresholdMs);
+        switch (mState) {
+            case CLOSED:
+                addToWindow(failure);
+                if (mWindowCount >= mConfig.mMinimumCalls
+                        && mWindowFailures >= mConfig.mFailureRateThreshold * mWindowCount) {
+                    open();
+                }
+                break;
+            case HALF_OPEN:
+                if (failure) {
+                    open();
+                } else if (++mTrialsSucceeded >= mConfig.mHalfOpenTrialCalls) {
+                    VolleyLog.d("Circuit closed for %s", mHost);
+                    mState = State.CLOSED;
+                    resetWindow();
+                }
+                break;
+            default:
+                // Attempt started before the circuit opened; it has had its say.
+                break;
+        }
+    }
+
+    /**
+     * Records that a request let through by {@link #allowRequest()} ended without an
+     * outcome, such as a cancellation. A trial of a half-open circuit is handed back.
+     */
+    public synchronized void recordIgnored() {
+        if (mState == State.HALF_OPEN && mTrialsStarted > mTrialsSucceeded) {
+            mTrialsStarted--;
+        }
+    }
+
+    private void addToWindow(boolean failure) {
+        if (mWindowCount == mWindow.length) {
+            if (mWindow[mWindowIndex]) {
+                mWindowFailures--;
+            }
+        } else {
+            mWindowCount++;
+        }
+        mWindow[mWindowIndex] = failure;
+        if (failure) {
+            mWindowFailures++;
+        }
+        mWindowIndex = (mWindowIndex + 1) % mWindow.length;
+    }
+
+    private void resetWindow() {
+        mWindowIndex = 0;
+        mWindowCount = 0;
+        mWindowFailures = 0;
+    }
+
+    private void open() {
+        VolleyLog.d("Circuit opened for %s", mHost);
+        mState = State.OPEN;
+        mOpenedAtMs = SystemClock.elapsedRealtime();
+        mOpenCount++;
+        resetWindow();
+    }
+
+    /**
+     * Returns the host of this breaker.
+     */
+    public String getHost() {
+        return mHost;
+    }
+
+    /**
+     * Returns the current state. An open circuit reports open until the next request
+     * finds its open time passed.
+     */
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * Returns the share of failures among the recent attempts while closed, or 0 if
+     * there are none.
+     */
+    public synchronized float getFailureRate() {
+        return mWindowCount == 0 ? 0 : (float) mWindowFailures / mWindowCount;
+    }
+
+    /**
+     * Returns the number of requests refused.
+     */
+    public synchronized long getRejectedCount() {
+        return mRejectedCount;
+    }
+
+    /**
+     * Returns the number of times the circuit opened.
+     */
+    public synchronized long getOpenCount() {
+        return mOpenCount;
+    }
+}
@@ -32,10 +32,11 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Cache implementation that caches files directly onto the hard disk in the specified
@@ -43,9 +44,18 @@ import java.util.Map;
  */
 public class DiskBasedCache implements Cache {
 
-    /** Map of the Key, CacheHeader pairs */
-    private final Map<String, CacheHeader> mEntries =
-            new LinkedHashMap<String, CacheHeader>(16, .75f, true);
+    /**
+     * Order in which entries are evicted once the cache is full.
+     */
+    public enum EvictionPolicy {
+        /** Evict the least recently read or written entry first. */
+        LRU,
+        /** Evict the least recently written entry first, ignoring reads. */
+        FIFO
+    }
+
+    /** Map of the Key, CacheHeader pairs, in eviction order. */
+    private final Map<String, CacheHeader> mEntries;
 
     /** Total amount of space currently used by the cache in bytes. */
     private long mTotalSize = 0;
@@ -63,16 +73,29 @@ public class DiskBasedCache implements Cache {
     private static final float HYSTERESIS_FACTOR = 0.9f;
 
     /** Magic number for current version of cache file format. */
-    private static final int CACHE_MAGIC = 0x20150306;
+    private static final int CACHE_MAGIC = 0x20161019;
 
     /**
      * Constructs an instance of the DiskBasedCache at the specified directory.
      * @param rootDirectory The root directory of the cache.
      * @param maxCacheSizeInBytes The maximum size of the cache in bytes.
+     * @param evictionPolicy The order in which entries are evicted when the cache is full.
      */
-    public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes) {
+    public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes,
+            EvictionPolicy evictionPolicy) {
         mRootDirectory = rootDirectory;
         mMaxCacheSizeInBytes = maxCacheSizeInBytes;
+        mEntries = new LinkedHashMap<String, CacheHeader>(16, .75f,
+                evictionPolicy == EvictionPolicy.LRU);
+    }
+
+    /**
+     * Constructs an LRU instance of the DiskBasedCache at the specified directory.
+     * @param rootDirectory The root directory of the cache.
+     * @param maxCacheSizeInBytes The maximum size of the cache in bytes.
+     */
+    public DiskBasedCache(File rootDirectory, int maxCacheSizeInBytes) {
+        this(rootDirectory, maxCacheSizeInBytes, EvictionPolicy.LRU);
     }
 
     /**
@@ -111,6 +134,19 @@ public class DiskBasedCache implements Cache {
             return null;
         }
 
+        try {
+            return readEntry(key, entry);
+        } catch (IOException e) {
+            VolleyLog.d("%s: %s", getFileForKey(key).getAbsolutePath(), e.toString());
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the data of an entry from disk.
+     */
+    private Entry readEntry(String key, CacheHeader entry) throws IOException {
         File file = getFileForKey(key);
         CountingInputStream cis = null;
         try {
@@ -118,17 +154,11 @@ public class DiskBasedCache implements Cache {
             CacheHeader.readHeader(cis); // eat header
             byte[] data = streamToBytes(cis, (int) (file.length() - cis.bytesRead));
             return entry.toCacheEntry(data);
-        } catch (IOException e) {
-            VolleyLog.d("%s: %s", file.getAbsolutePath(), e.toString());
-            remove(key);
-            return null;
         } finally {
             if (cis != null) {
                 try {
                     cis.close();
-                } catch (IOException ioe) {
-                    return null;
-                }
+                } catch (IOException ignored) { }
             }
         }
     }
@@ -185,8 +215,10 @@ public class DiskBasedCache implements Cache {
                 entry.ttl = 0;
             }
             put(key, entry);
+            for (String variantKey : entry.getVariantKeys()) {
+                invalidate(variantKey, fullExpire);
+            }
         }
-
     }
 
     /**
@@ -222,6 +254,29 @@ public class DiskBasedCache implements Cache {
      */
     @Override
     public synchronized void remove(String key) {
+        for (String variantKey : getVariantKeys(key)) {
+            removeFile(variantKey);
+        }
+        removeFile(key);
+    }
+
+    /**
+     * Returns the keys of the variants indexed by an entry, without reading entries that
+     * are not indexes, and without removing an index that cannot be read.
+     */
+    private List<String> getVariantKeys(String key) {
+        CacheHeader header = mEntries.get(key);
+        if (header == null || !header.toCacheEntry(null).isVariantIndex()) {
+            return Collections.emptyList();
+        }
+        try {
+            return readEntry(key, header).getVariantKeys();
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    private void removeFile(String key) {
         boolean deleted = getFileForKey(key).delete();
         removeEntry(key);
         if (!deleted) {
@@ -230,6 +285,13 @@ public class DiskBasedCache implements Cache {
         }
     }
 
+    /**
+     * Returns true if an entry with the specified key is in the cache. Does not touch disk.
+     */
+    synchronized boolean containsKey(String key) {
+        return mEntries.containsKey(key);
+    }
+
     /**
      * Creates a pseudo-unique filename for the specified cache key.
      * @param key The key to generate a file name for.
@@ -296,12 +358,13 @@ public class DiskBasedCache implements Cache {
      * @param entry The entry to cache.
      */
     private void putEntry(String key, CacheHeader entry) {
-        if (!mEntries.containsKey(key)) {
+        CacheHeader oldEntry = mEntries.remove(key);
+        if (oldEntry == null) {
             mTotalSize += entry.size;
         } else {
-            CacheHeader oldEntry = mEntries.get(key);
             mTotalSize += (entry.size - oldEntry.size);
         }
+        // Re-inserting moves a rewritten entry to the end of the eviction order.
         mEntries.put(key, entry);
     }
 
@@ -319,7 +382,7 @@ public class DiskBasedCache implements Cache {
     /**
      * Reads the contents of an InputStream into a byte[].
      * */
-    private static byte[] streamToBytes(InputStream in, int length) throws IOException {
+    static byte[] streamToBytes(InputStream in, int length) throws IOException {
         byte[] bytes = new byte[length];
         int count;
         int pos = 0;
@@ -359,6 +422,9 @@ public class DiskBasedCache implements Cache {
         /** Soft TTL for this record. */
         public long softTtl;
 
+        /** Time until which this record may be served when a refresh fails. */
+        public long staleIfErrorTtl;
+
         /** Headers from the response resulting in this cache entry. */
         public Map<String, String> responseHeaders;
 
@@ -377,6 +443,7 @@ public class DiskBasedCache implements Cache {
             this.lastModified = entry.lastModified;
             this.ttl = entry.ttl;
             this.softTtl = entry.softTtl;
+            this.staleIfErrorTtl = entry.staleIfErrorTtl;
             this.responseHeaders = entry.responseHeaders;
         }
 
@@ -401,6 +468,7 @@ public class DiskBasedCache implements Cache {
             entry.lastModified = readLong(is);
             entry.ttl = readLong(is);
             entry.softTtl = readLong(is);
+            entry.staleIfErrorTtl = readLong(is);
             entry.responseHeaders = readStringStringMap(is);
 
             return entry;
@@ -417,6 +485,7 @@ public class DiskBasedCache implements Cache {
             e.lastModified = lastModified;
             e.ttl = ttl;
             e.softTtl = softTtl;
+            e.staleIfErrorTtl = staleIfErrorTtl;
             e.responseHeaders = responseHeaders;
             return e;
         }
@@ -434,6 +503,7 @@ public class DiskBasedCache implements Cache {
                 writeLong(os, lastModified);
                 writeLong(os, ttl);
                 writeLong(os, softTtl);
+                writeLong(os, staleIfErrorTtl);
                 writeStringStringMap(responseHeaders, os);
                 os.flush();
                 return true;
@@ -556,9 +626,8 @@ public class DiskBasedCache implements Cache {
 
     static Map<String, String> readStringStringMap(InputStream is) throws IOException {
         int size = readInt(is);
-        Map<String, String> result = (size == 0)
-                ? Collections.<String, String>emptyMap()
-                : new HashMap<String, String>(size);
+        // Mutable, as a 304 merges new headers in, and case-insensitive like HTTP.
+        Map<String, String> result = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
         for (int i = 0; i < size; i++) {
             String key = readString(is).intern();
             String value = readString(is).intern();
@@ -0,0 +1,424 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley.toolbox;
+
+import android.os.SystemClock;
+
+import com.wz.wzvolley.AuthFailureError;
+import com.wz.wzvolley.HttpStatus;
+import com.wz.wzvolley.Request;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * An {@link HttpStack} that makes the calls of another stack slow, lossy or failing, to
+ * measure throughput and tail latency of retry, timeout and dispatcher settings against
+ * an unwell backend.
+ *
+ * <p>Faults are set per host, or per URL prefix, with {@link Faults}. A request matching
+ * several prefixes gets the faults of the longest; host faults only apply to requests
+ * matching no prefix. Each call to a faulty host is, in order:</p>
+ * <ol>
+ *     <li>delayed by a latency drawn from the host's {@link Latency}; a latency over the
+ *         request's timeout ends in a {@link SocketTimeoutException} at the timeout</li>
+ *     <li>reset, with a {@link SocketException}, at the reset rate</li>
+ *     <li>answered with a server error, without calling the delegate, at the server
+ *         error rate</li>
+ *     <li>passed on, its body read at no more than the bandwidth cap and, at the partial
+ *         body rate, cut off at a random point</li>
+ * </ol>
+ * <p>Random choices come from one seedable {@link Random}, so runs can be repeated. Calls
+ * on several dispatcher threads draw from it in whatever order they happen to run, so a
+ * seed only repeats a run exactly on a queue with a single network thread, see
+ * {@link com.wz.wzvolley.RequestQueue#RequestQueue(com.wz.wzvolley.Cache,
+ * com.wz.wzvolley.Network, int)}.</p>
+ *
+ * <pre>
+ * FaultInjectingHttpStack stack = new FaultInjectingHttpStack(new OkHttpStack(), 42)
+ *         .setFaults("api.example.com", new FaultInjectingHttpStack.Faults()
+ *                 .setLatency(FaultInjectingHttpStack.paretoLatency(50, 1.5))
+ *                 .setServerErrorRate(0.05f));
+ * </pre>
+ */
+public class FaultInjectingHttpStack implements HttpStack {
+
+    /**
+     * A distribution of latencies.
+     */
+    public interface Latency {
+        /**
+         * Returns the next latency in ms.
+         */
+        public long nextMs(Random random);
+    }
+
+    /**
+     * Faults injected into the calls to a host or URL prefix. All off by default.
+     */
+    public static class Faults {
+        /** Default of {@link #setPartialBodyMaxBytes(long)}. */
+        public static final long DEFAULT_PARTIAL_BODY_MAX_BYTES = 64 * 1024;
+
+        private Latency mLatency;
+        private long mBytesPerSecond;
+        private float mResetRate;
+        private float mServerErrorRate;
+        private int mServerErrorCode = HttpStatus.SC_SERVICE_UNAVAILABLE;
+        private float mPartialBodyRate;
+        private long mPartialBodyMaxBytes = DEFAULT_PARTIAL_BODY_MAX_BYTES;
+
+        /**
+         * Sets the latency added before each call, or null for none.
+         *
+         * @return This object to allow for chaining.
+         */
+        public Faults setLatency(Latency latency) {
+            mLatency = latency;
+            return this;
+        }
+
+        /**
+         * Sets the most bytes per second response bodies are read at, or 0 for no cap.
+         *
+         * @return This object to allow for chaining.
+         */
+        public Faults setBandwidth(long bytesPerSecond) {
+            mBytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Sets the share of calls, between 0 and 1, failing with a connection reset.
+         *
+         * @return This object to allow for chaining.
+         */
+        public Faults setResetRate(float resetRate) {
+            mResetRate = resetRate;
+            return this;
+        }
+
+        /**
+         * Sets the share of calls, between 0 and 1, answered with a 503.
+         *
+         * @return This object to allow for chaining.
+         */
+        public Faults setServerErrorRate(float serverErrorRate) {
+            return setServerErrorRate(serverErrorRate, HttpStatus.SC_SERVICE_UNAVAILABLE);
+        }
+
+        /**
+         * Sets the share of calls, between 0 and 1, answered with the given status code.
+         *
+         * @return This object to allow for chaining.
+         */
+        public Faults setServerErrorRate(float serverErrorRate, int statusCode) {
+            mServerErrorRate = serverErrorRate;
+            mServerErrorCode = statusCode;
+            return this;
+        }
+
+        /**
+         * Sets the share of calls, between 0 and 1, whose body is cut off at a random
+         * point, reading it failing there.
+         *
+         * @return This object to allow for chaining.
+         */
+        public Faults setPartialBodyRate(float partialBodyRate) {
+            mPartialBodyRate = partialBodyRate;
+            return this;
+        }
+
+        /**
+         * Sets the most bytes read before a cut off body fails, when the length of the body
+         * is unknown. Bodies of known length are cut off before their end.
+         *
+         * @return This object to allow for chaining.
+         */
+        public Faults setPartialBodyMaxBytes(long maxBytes) {
+            mPartialBodyMaxBytes = maxBytes;
+            return this;
+        }
+    }
+
+    /**
+     * Returns a latency that is always the same.
+     */
+    public static Latency fixedLatency(final long ms) {
+        return new Latency() {
+            @Override
+            public long nextMs(Random random) {
+                return ms;
+            }
+        };
+    }
+
+    /**
+     * Returns latencies spread evenly between two bounds.
+     */
+    public static Latency uniformLatency(final long minMs, final long maxMs) {
+        return new Latency() {
+            @Override
+            public long nextMs(Random random) {
+                return minMs + (long) (random.nextDouble() * (maxMs - minMs));
+            }
+        };
+    }
+
+    /**
+     * Returns heavy-tailed latencies, as seen from real backends: a Pareto distribution
+     * with the given minimum, whose tail is the heavier the smaller alpha is.
+     */
+    public static Latency paretoLatency(final long minMs, final double alpha) {
+        return new Latency() {
+            @Override
+            public long nextMs(Random random) {
+                // 1 - nextDouble() is in (0, 1], so the power stays finite.
+                return (long) (minMs / Math.pow(1 - random.nextDouble(), 1 / alpha));
+            }
+        };
+    }
+
+    private final HttpStack mDelegate;
+
+    private final Random mRandom;
+
+    /** Faults by lower-cased host or by URL prefix. */
+    private final Map<String, Faults> mFaults = new HashMap<String, Faults>();
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mTimeoutCount = new AtomicLong();
+    private final AtomicLong mResetCount = new AtomicLong();
+    private final AtomicLong mServerErrorCount = new AtomicLong();
+    private final AtomicLong mPartialBodyCount = new AtomicLong();
+    private final AtomicLong mInjectedLatencyMs = new AtomicLong();
+
+    public FaultInjectingHttpStack(HttpStack delegate) {
+        this(delegate, new Random());
+    }
+
+    /**
+     * @param delegate Stack performing the calls
+     * @param seed Seed of the random choices, to repeat a run
+     */
+    public FaultInjectingHttpStack(HttpStack delegate, long seed) {
+        this(delegate, new Random(seed));
+    }
+
+    private FaultInjectingHttpStack(HttpStack delegate, Random random) {
+        mDelegate = delegate;
+        mRandom = random;
+    }
+
+    /**
+     * Sets the faults of a host, or of the URLs starting with a prefix.
+     *
+     * @param hostOrUrlPrefix Host name, or a URL prefix including the scheme
+     * @param faults Faults of the matching calls, or null to remove them
+     * @return This stack to allow for chaining.
+     */
+    public FaultInjectingHttpStack setFaults(String hostOrUrlPrefix, Faults faults) {
+        String key = hostOrUrlPrefix.contains("://")
+                ? hostOrUrlPrefix : hostOrUrlPrefix.toLowerCase(Locale.US);
+        synchronized (mFaults) {
+            if (faults == null) {
+                mFaults.remove(key);
+            } else {
+                mFaults.put(key, faults);
+            }
+        }
+        return this;
+    }
+
+    private Faults getFaults(Request<?> request) {
+        synchronized (mFaults) {
+            String url = request.getUrl();
+            Faults faults = null;
+            int matchLength = 0;
+            for (Map.Entry<String, Faults> entry : mFaults.entrySet()) {
+                String prefix = entry.getKey();
+                if (prefix.length() > matchLength && prefix.contains("://")
+                        && url.startsWith(prefix)) {
+                    faults = entry.getValue();
+                    matchLength = prefix.length();
+                }
+            }
+            if (faults == null && request.getHost() != null) {
+                faults = mFaults.get(request.getHost());
+            }
+            return faults;
+        }
+    }
+
+    @Override
+    public Response performRequest(Request<?> request, Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        Faults faults = getFaults(request);
+        if (faults == null) {
+            return mDelegate.performRequest(request, additionalHeaders);
+        }
+        mRequestCount.incrementAndGet();
+
+        if (faults.mLatency != null) {
+            long latencyMs = Math.max(0, faults.mLatency.nextMs(mRandom));
+            int timeoutMs = request.getTimeoutMs();
+            if (timeoutMs > 0 && latencyMs > timeoutMs) {
+                sleep(timeoutMs);
+                mInjectedLatencyMs.addAndGet(timeoutMs);
+                mTimeoutCount.incrementAndGet();
+                throw new SocketTimeoutException("Injected timeout after " + timeoutMs + " ms");
+            }
+            sleep(latencyMs);
+            mInjectedLatencyMs.addAndGet(latencyMs);
+        }
+        if (mRandom.nextFloat() < faults.mResetRate) {
+            mResetCount.incrementAndGet();
+            throw new SocketException("Injected connection reset");
+        }
+        if (mRandom.nextFloat() < faults.mServerErrorRate) {
+            mServerErrorCount.incrementAndGet();
+            return new Response.Builder()
+                    .request(new okhttp3.Request.Builder().url(request.getUrl()).build())
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(faults.mServerErrorCode)
+                    .message("Injected server error")
+                    .body(ResponseBody.create(null, new byte[0]))
+                    .build();
+        }
+
+        Response response = mDelegate.performRequest(request, additionalHeaders);
+        long cutOffAt = -1;
+        if (mRandom.nextFloat() < faults.mPartialBodyRate) {
+            mPartialBodyCount.incrementAndGet();
+            long length = response.body().contentLength();
+            if (length < 0) {
+                // Unknown length, e.g. chunked: cut off anywhere up to the configured most.
+                length = faults.mPartialBodyMaxBytes;
+            }
+            cutOffAt = length > 0 ? (long) (mRandom.nextDouble() * length) : 0;
+        }
+        if (cutOffAt < 0 && faults.mBytesPerSecond <= 0) {
+            return response;
+        }
+        ResponseBody body = response.body();
+        BufferedSource source = Okio.buffer(
+                new FaultySource(body.source(), faults.mBytesPerSecond, cutOffAt));
+        return response.newBuilder()
+                .body(ResponseBody.create(body.contentType(), body.contentLength(), source))
+                .build();
+    }
+
+    private static void sleep(long ms) throws InterruptedIOException {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Injected latency interrupted");
+        }
+    }
+
+    /**
+     * Reads a body at no more than a byte rate, failing after a number of bytes if asked.
+     */
+    private static class FaultySource extends ForwardingSource {
+        /** Largest read, so the rate is kept smoothly. */
+        private static final long CHUNK_SIZE = 8192;
+
+        private final long mBytesPerSecond;
+        private final long mCutOffAt;
+        private final long mStartMs = SystemClock.elapsedRealtime();
+        private long mRead;
+
+        /**
+         * @param bytesPerSecond Rate cap, or 0 for none
+         * @param cutOffAt Bytes read before failing, or -1 to read the whole body
+         */
+        FaultySource(BufferedSource delegate, long bytesPerSecond, long cutOffAt) {
+            super(delegate);
+            mBytesPerSecond = bytesPerSecond;
+            mCutOffAt = cutOffAt;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long max = Math.min(byteCount, CHUNK_SIZE);
+            if (mCutOffAt >= 0) {
+                if (mRead >= mCutOffAt) {
+                    throw new IOException("Injected end of stream after " + mRead + " bytes");
+                }
+                max = Math.min(max, mCutOffAt - mRead);
+            }
+            long read = super.read(sink, max);
+            if (read > 0) {
+                mRead += read;
+                if (mBytesPerSecond > 0) {
+                    sleep(mStartMs + mRead * 1000 / mBytesPerSecond
+                            - SystemClock.elapsedRealtime());
+                }
+            }
+            return read;
+        }
+    }
+
+    /** Returns the number of calls faults applied to. */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /** Returns the number of injected timeouts. */
+    public long getTimeoutCount() {
+        return mTimeoutCount.get();
+    }
+
+    /** Returns the number of injected connection resets. */
+    public long getResetCount() {
+        return mResetCount.get();
+    }
+
+    /** Returns the number of injected server errors. */
+    public long getServerErrorCount() {
+        return mServerErrorCount.get();
+    }
+
+    /** Returns the number of bodies cut off. */
+    public long getPartialBodyCount() {
+        return mPartialBodyCount.get();
+    }
+
+    /** Returns the total latency injected, in ms. */
+    public long getInjectedLatencyMs() {
+        return mInjectedLatencyMs.get();
+    }
+}
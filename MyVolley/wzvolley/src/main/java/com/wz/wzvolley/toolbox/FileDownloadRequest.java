@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley.toolbox;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.wz.wzvolley.AuthFailureError;
+import com.wz.wzvolley.HttpConstant;
+import com.wz.wzvolley.HttpStatus;
+import com.wz.wzvolley.NetworkResponse;
+import com.wz.wzvolley.ParseError;
+import com.wz.wzvolley.Response.ErrorListener;
+import com.wz.wzvolley.Response.Listener;
+import com.wz.wzvolley.Response.ProgressListener;
+import com.wz.wzvolley.VolleyError;
+import com.wz.wzvolley.VolleyLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * A request that downloads a URL straight into a file.
+ *
+ * <p>The body is written from the OkHttp connection to the file through an Okio sink,
+ * segment by segment, so memory use stays constant whatever the size of the file. Bytes
+ * go to a ".part" file next to the target, which is renamed once complete. If the
+ * download is interrupted, by an error, a retry or cancellation, the next attempt asks
+ * for the remaining bytes only, using Range and If-Range with the validator of the first
+ * response, and starts over if the file changed on the server.</p>
+ *
+ * <p>Progress is posted to the main thread no more often than the given interval.</p>
+ */
+public class FileDownloadRequest extends StreamRequest<File> {
+
+    /** Default minimum interval between two progress callbacks. */
+    public static final int DEFAULT_PROGRESS_INTERVAL_MS = 200;
+
+    private static final long CHUNK_SIZE = 8192;
+
+    private static final String PART_SUFFIX = ".part";
+
+    private static final String VALIDATOR_SUFFIX = ".part.validator";
+
+    private final File mTarget;
+
+    private final File mPartFile;
+
+    private final File mValidatorFile;
+
+    private final Listener<File> mListener;
+
+    private final ProgressListener mProgressListener;
+
+    private final int mProgressIntervalMs;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Time of the last progress callback posted, on the elapsed realtime clock. */
+    private long mLastProgressMs;
+
+    /**
+     * Creates a new download request.
+     *
+     * @param url URL to download
+     * @param target File to write the download to; replaced once the download completes
+     * @param listener Listener to receive the downloaded file
+     * @param progressListener Listener for progress updates, or null for none
+     * @param progressIntervalMs Minimum interval between two progress updates
+     * @param errorListener Error listener, or null to ignore errors
+     */
+    public FileDownloadRequest(String url, File target, Listener<File> listener,
+            ProgressListener progressListener, int progressIntervalMs,
+            ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        mTarget = target;
+        mPartFile = new File(target.getPath() + PART_SUFFIX);
+        mValidatorFile = new File(target.getPath() + VALIDATOR_SUFFIX);
+        mListener = listener;
+        mProgressListener = progressListener;
+        mProgressIntervalMs = progressIntervalMs;
+        // The file is the cache; never keep a copy of the body in memory.
+        setShouldCache(false);
+    }
+
+    /**
+     * Creates a new download request reporting progress at the default interval.
+     */
+    public FileDownloadRequest(String url, File target, Listener<File> listener,
+            ProgressListener progressListener, ErrorListener errorListener) {
+        this(url, target, listener, progressListener, DEFAULT_PROGRESS_INTERVAL_MS,
+                errorListener);
+    }
+
+    /**
+     * Asks for the remaining bytes if part of the file was downloaded before. Called for
+     * every attempt, so retries resume where the previous attempt stopped.
+     */
+    @Override
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        long downloaded = mPartFile.length();
+        String validator = downloaded > 0 ? readValidator() : null;
+        if (validator == null) {
+            return super.getHeaders();
+        }
+        Map<String, String> headers = new HashMap<String, String>(super.getHeaders());
+        headers.put("Range", "bytes=" + downloaded + "-");
+        headers.put("If-Range", validator);
+        return headers;
+    }
+
+    @Override
+    protected File parseStream(NetworkResponse response, BufferedSource body)
+            throws IOException, ParseError {
+        long offset = 0;
+        if (response.statusCode == HttpStatus.SC_PARTIAL_CONTENT) {
+            offset = parseContentRangeStart(response.headers.get("Content-Range"));
+            if (offset != mPartFile.length()) {
+                discardPart();
+                throw new IOException("Unexpected Content-Range for " + mPartFile);
+            }
+        } else {
+            // A full body: the server ignored the range or the file changed.
+            writeValidator(response.headers);
+        }
+
+        long total = -1;
+        String contentLength = response.headers.get(HttpConstant.CONTENT_LEN);
+        if (contentLength != null) {
+            try {
+                total = offset + Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                total = -1;
+            }
+        }
+
+        long transferred = offset;
+        BufferedSink sink = Okio.buffer(offset > 0
+                ? Okio.appendingSink(mPartFile)
+                : Okio.sink(mPartFile));
+        try {
+            long read;
+            while ((read = body.read(sink.buffer(), CHUNK_SIZE)) != -1) {
+                // Hand complete segments to the file without copying them.
+                sink.emitCompleteSegments();
+                transferred += read;
+                if (isCanceled()) {
+                    // Keep what we have; a new request for the same file resumes from here.
+                    // BasicNetwork turns this into a CanceledError, not a network failure.
+                    throw new IOException("Download canceled: " + getUrl());
+                }
+                postProgress(transferred, total, false);
+            }
+        } finally {
+            sink.close();
+        }
+
+        if (mTarget.exists() && !mTarget.delete()) {
+            throw new IOException("Could not replace " + mTarget);
+        }
+        if (!mPartFile.renameTo(mTarget)) {
+            throw new IOException("Could not rename " + mPartFile + " to " + mTarget);
+        }
+        mValidatorFile.delete();
+        postProgress(transferred, total, true);
+        return mTarget;
+    }
+
+    /**
+     * Drops the partial download if the server says the requested range is unsatisfiable,
+     * so the next request starts over.
+     */
+    @Override
+    protected VolleyError parseNetworkError(VolleyError volleyError) {
+        if (volleyError.networkResponse != null
+                && volleyError.networkResponse.statusCode
+                        == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+            discardPart();
+        }
+        return volleyError;
+    }
+
+    @Override
+    protected void deliverResponse(File response) {
+        mListener.onResponse(response);
+    }
+
+    private void postProgress(final long transferred, final long total, boolean force) {
+        if (mProgressListener == null) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (!force && now - mLastProgressMs < mProgressIntervalMs) {
+            return;
+        }
+        mLastProgressMs = now;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCanceled()) {
+                    mProgressListener.onProgress(transferred, total);
+                }
+            }
+        });
+    }
+
+    /**
+     * Remembers the validator of a full response for If-Range. Weak ETags cannot be used
+     * for ranges, so Last-Modified is used instead in that case.
+     */
+    private void writeValidator(Map<String, String> headers) throws IOException {
+        String validator = headers.get("ETag");
+        if (validator == null || validator.startsWith("W/")) {
+            validator = headers.get("Last-Modified");
+        }
+        if (validator == null) {
+            mValidatorFile.delete();
+            return;
+        }
+        BufferedSink sink = Okio.buffer(Okio.sink(mValidatorFile));
+        try {
+            sink.writeUtf8(validator);
+        } finally {
+            sink.close();
+        }
+    }
+
+    private String readValidator() {
+        if (!mValidatorFile.exists()) {
+            return null;
+        }
+        BufferedSource source = null;
+        try {
+            source = Okio.buffer(Okio.source(mValidatorFile));
+            return source.readUtf8();
+        } catch (IOException e) {
+            VolleyLog.d("Could not read %s: %s", mValidatorFile, e.toString());
+            return null;
+        } finally {
+            if (source != null) {
+                try {
+                    source.close();
+                } catch (IOException ignored) { }
+            }
+        }
+    }
+
+    private void discardPart() {
+        mPartFile.delete();
+        mValidatorFile.delete();
+    }
+
+    /**
+     * Returns the first byte position of a "bytes first-last/length" Content-Range.
+     */
+    private static long parseContentRangeStart(String contentRange) throws IOException {
+        if (contentRange != null) {
+            String value = contentRange.trim();
+            if (value.startsWith("bytes ")) {
+                int dash = value.indexOf('-');
+                if (dash > 6) {
+                    try {
+                        return Long.parseLong(value.substring(6, dash).trim());
+                    } catch (NumberFormatException ignored) { }
+                }
+            }
+        }
+        throw new IOException("Invalid Content-Range: " + contentRange);
+    }
+}
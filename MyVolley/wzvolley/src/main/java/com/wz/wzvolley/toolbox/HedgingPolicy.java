@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley.toolbox;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * When to send a duplicate, or hedge, of a slow request, for use with
+ * {@link OkHttpStack#setHedgingPolicy(HedgingPolicy)}.
+ *
+ * <p>The latency of recent responses is kept per host, for the {@link #MAX_HOSTS} most
+ * recently used hosts. A request still without a
+ * response after the configured percentile of its host's latency is hedged, if the
+ * budget allows. Each hedgeable request adds the budget ratio to the budget and each
+ * hedge takes one from it, so hedges stay near that share of requests however slow the
+ * hosts get.</p>
+ */
+public class HedgingPolicy {
+
+    /** Default latency percentile after which a request is hedged. */
+    public static final float DEFAULT_PERCENTILE = 0.95f;
+
+    /** Default most hedges per hedgeable request. */
+    public static final float DEFAULT_BUDGET_RATIO = 0.1f;
+
+    /** Latencies kept per host. */
+    private static final int MAX_SAMPLES = 64;
+
+    /** Most hosts kept latencies for. */
+    public static final int MAX_HOSTS = 64;
+
+    /** Most hedges the budget can save up for a burst. */
+    private static final float MAX_BUDGET = 10;
+
+    /** Recent latencies of one host. */
+    private static class Samples {
+        final long[] latenciesMs = new long[MAX_SAMPLES];
+        int next;
+        int count;
+    }
+
+    private final float mPercentile;
+
+    private final float mBudgetRatio;
+
+    private int mMinSamples = 20;
+
+    private long mMinDelayMs = 10;
+
+    /** Samples by lower-cased host name; least recently used go first. */
+    private final Map<String, Samples> mSamples =
+            new LinkedHashMap<String, Samples>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Samples> eldest) {
+                    return size() > MAX_HOSTS;
+                }
+            };
+
+    private float mBudget = MAX_BUDGET;
+
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mHedgeCount = new AtomicLong();
+    private final AtomicLong mHedgeWinCount = new AtomicLong();
+
+    /**
+     * Creates a policy hedging after the 95th percentile of latency, for at most 10% of
+     * requests.
+     */
+    public HedgingPolicy() {
+        this(DEFAULT_PERCENTILE, DEFAULT_BUDGET_RATIO);
+    }
+
+    /**
+     * @param percentile Latency percentile, between 0 and 1, after which to hedge
+     * @param budgetRatio Most hedges per hedgeable request, between 0 and 1
+     */
+    public HedgingPolicy(float percentile, float budgetRatio) {
+        mPercentile = percentile;
+        mBudgetRatio = budgetRatio;
+    }
+
+    /**
+     * Sets the number of latencies a host needs before its requests are hedged.
+     * Defaults to 20.
+     *
+     * @return This policy to allow for chaining.
+     */
+    public HedgingPolicy setMinSamples(int minSamples) {
+        mMinSamples = Math.max(1, Math.min(MAX_SAMPLES, minSamples));
+        return this;
+    }
+
+    /**
+     * Sets the least time to wait before hedging, however fast the host. Defaults to
+     * 10 ms.
+     *
+     * @return This policy to allow for chaining.
+     */
+    public HedgingPolicy setMinDelayMs(long minDelayMs) {
+        mMinDelayMs = minDelayMs;
+        return this;
+    }
+
+    /**
+     * Counts a hedgeable request against the budget and returns how long to wait for
+     * its response before hedging, or -1 not to hedge as too little is known of the
+     * host yet.
+     */
+    /* package */ long onRequest(String host) {
+        mRequestCount.incrementAndGet();
+        long[] latencies;
+        synchronized (this) {
+            mBudget = Math.min(MAX_BUDGET, mBudget + mBudgetRatio);
+            Samples samples = mSamples.get(key(host));
+            if (samples == null || samples.count < mMinSamples) {
+                return -1;
+            }
+            latencies = Arrays.copyOf(samples.latenciesMs, samples.count);
+        }
+        Arrays.sort(latencies);
+        int index = Math.min(latencies.length - 1, (int) (mPercentile * latencies.length));
+        return Math.max(mMinDelayMs, latencies[index]);
+    }
+
+    /**
+     * Takes a hedge from the budget, returning false if it is spent.
+     */
+    /* package */ synchronized boolean tryAcquireHedge() {
+        if (mBudget < 1) {
+            return false;
+        }
+        mBudget--;
+        mHedgeCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records the time a host took to send response headers, from the start of the
+     * original request even if the hedge answered, or the time waited for a request that
+     * failed.
+     *
+     * @param hedgeWon Whether the response came from the hedge rather than the original
+     */
+    /* package */ void recordLatency(String host, long latencyMs, boolean hedgeWon) {
+        if (hedgeWon) {
+            mHedgeWinCount.incrementAndGet();
+        }
+        synchronized (this) {
+            String key = key(host);
+            Samples samples = mSamples.get(key);
+            if (samples == null) {
+                samples = new Samples();
+                mSamples.put(key, samples);
+            }
+            samples.latenciesMs[samples.next] = latencyMs;
+            samples.next = (samples.next + 1) % MAX_SAMPLES;
+            samples.count = Math.min(MAX_SAMPLES, samples.count + 1);
+        }
+    }
+
+    private static String key(String host) {
+        return host.toLowerCase(Locale.US);
+    }
+
+    /** Returns the number of hedgeable requests sent. */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /** Returns the number of hedges sent. */
+    public long getHedgeCount() {
+        return mHedgeCount.get();
+    }
+
+    /** Returns the number of hedges that answered before the original request. */
+    public long getHedgeWinCount() {
+        return mHedgeWinCount.get();
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley.toolbox;
+
+/**
+ * Parses and formats HTTP dates without {@link java.text.SimpleDateFormat}.
+ *
+ * <p>Parsing accepts the three formats of RFC 7231, section 7.1.1.1:</p>
+ * <pre>
+ * Sun, 06 Nov 1994 08:49:37 GMT    ; IMF-fixdate, as in RFC 1123
+ * Sunday, 06-Nov-94 08:49:37 GMT   ; RFC 850
+ * Sun Nov  6 08:49:37 1994         ; asctime
+ * </pre>
+ * <p>Dates are read field by field off the string without allocating, and the last
+ * dates parsed and formatted are kept, as the same Date and Expires values tend to come
+ * back many times. All methods are thread-safe.</p>
+ */
+public final class HttpDate {
+
+    private static final long MS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private static final String[] MONTHS = {
+        "Jan", "Feb", "Mar", "Apr", "May", "Jun",
+        "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"
+    };
+
+    private static final String[] WEEKDAYS = {
+        "Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat"
+    };
+
+    /** Size of the cache of parsed dates; a power of two. */
+    private static final int PARSE_CACHE_SIZE = 16;
+
+    /** A date and its text. Immutable, so it can be shared without locks. */
+    private static final class Entry {
+        final String text;
+        final long epochMs;
+
+        Entry(String text, long epochMs) {
+            this.text = text;
+            this.epochMs = epochMs;
+        }
+    }
+
+    /** Recently parsed dates, by hash of their text. */
+    private static final Entry[] sParsed = new Entry[PARSE_CACHE_SIZE];
+
+    /** The last date formatted. */
+    private static volatile Entry sLastFormatted;
+
+    private HttpDate() {
+    }
+
+    /**
+     * Returns the HTTP date as epoch ms, or 0 if it is not a valid date. Dates are
+     * taken to be in GMT, whatever zone they name.
+     */
+    public static long parse(String text) {
+        if (text == null) {
+            return 0;
+        }
+        int slot = text.hashCode() & (PARSE_CACHE_SIZE - 1);
+        Entry cached = sParsed[slot];
+        if (cached != null && cached.text.equals(text)) {
+            return cached.epochMs;
+        }
+        long epochMs = parseUncached(text);
+        sParsed[slot] = new Entry(text, epochMs);
+        return epochMs;
+    }
+
+    private static long parseUncached(String s) {
+        int n = s.length();
+        int i = skipSpaces(s, 0);
+        // The weekday is redundant; skip it and its comma.
+        int weekdayEnd = lettersEnd(s, i);
+        if (weekdayEnd > i) {
+            i = weekdayEnd;
+            if (i < n && s.charAt(i) == ',') {
+                i++;
+            }
+            i = skipSpaces(s, i);
+        }
+
+        int day;
+        int month;
+        int year;
+        long time;
+        if (i < n && isLetter(s.charAt(i))) {
+            // asctime: Nov  6 08:49:37 1994
+            month = parseMonth(s, i);
+            i = skipSpaces(s, i + 3);
+            int end = digitsEnd(s, i);
+            day = toInt(s, i, end);
+            i = skipSpaces(s, end);
+            time = parseTime(s, i);
+            i = skipSpaces(s, i + 8);
+            end = digitsEnd(s, i);
+            year = end - i == 4 ? toInt(s, i, end) : -1;
+        } else {
+            // IMF-fixdate: 06 Nov 1994 08:49:37 GMT, RFC 850: 06-Nov-94 08:49:37 GMT
+            int end = digitsEnd(s, i);
+            day = toInt(s, i, end);
+            if (!isDateSeparator(s, end)) {
+                return 0;
+            }
+            i = end + 1;
+            month = parseMonth(s, i);
+            i += 3;
+            if (!isDateSeparator(s, i)) {
+                return 0;
+            }
+            i++;
+            end = digitsEnd(s, i);
+            year = toInt(s, i, end);
+            if (end - i == 2) {
+                year = expandTwoDigitYear(year);
+            }
+            time = parseTime(s, skipSpaces(s, end));
+        }
+        if (year < 0 || month < 0 || day < 1 || day > 31 || time < 0) {
+            return 0;
+        }
+        return daysFromCivil(year, month + 1, day) * MS_PER_DAY + time;
+    }
+
+    /**
+     * Parses "HH:mm:ss" at the index, returning the ms into the day, or -1.
+     */
+    private static long parseTime(String s, int i) {
+        if (i + 8 > s.length() || s.charAt(i + 2) != ':' || s.charAt(i + 5) != ':') {
+            return -1;
+        }
+        int hour = toInt(s, i, i + 2);
+        int minute = toInt(s, i + 3, i + 5);
+        int second = toInt(s, i + 6, i + 8);
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return -1;
+        }
+        // A leap second is taken as the last second of its minute.
+        return ((hour * 60L + minute) * 60 + Math.min(second, 59)) * 1000;
+    }
+
+    /**
+     * Returns the 0-based month named by the three letters at the index, or -1.
+     */
+    private static int parseMonth(String s, int i) {
+        if (i + 3 > s.length()) {
+            return -1;
+        }
+        for (int month = 0; month < MONTHS.length; month++) {
+            if (s.regionMatches(true, i, MONTHS[month], 0, 3)) {
+                return month;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the year a two-digit RFC 850 year stands for: the one with those last
+     * digits not more than 50 years in the future, as RFC 7231 asks.
+     */
+    private static int expandTwoDigitYear(int twoDigitYear) {
+        int currentYear = (int) (civil(System.currentTimeMillis() / MS_PER_DAY) / 10000);
+        int year = currentYear - currentYear % 100 + twoDigitYear;
+        if (year > currentYear + 50) {
+            year -= 100;
+        }
+        return year;
+    }
+
+    /**
+     * Returns the days since 1970-01-01 of a date of the proleptic Gregorian calendar,
+     * month 1-based (H. Hinnant, "chrono-Compatible Low-Level Date Algorithms").
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns the date of the days since 1970-01-01 as yyyyMMdd, the inverse of
+     * {@link #daysFromCivil(int, int, int)}.
+     */
+    private static long civil(long epochDays) {
+        long z = epochDays + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+
+    /**
+     * Formats epoch ms as an IMF-fixdate, such as "Sun, 06 Nov 1994 08:49:37 GMT".
+     */
+    public static String format(long epochMs) {
+        long epochSeconds = floorDiv(epochMs, 1000);
+        Entry cached = sLastFormatted;
+        if (cached != null && cached.epochMs == epochSeconds) {
+            return cached.text;
+        }
+        long epochDays = floorDiv(epochSeconds, 86400);
+        int secondOfDay = (int) (epochSeconds - epochDays * 86400L);
+        long date = civil(epochDays);
+        int year = (int) (date / 10000);
+        int month = (int) (date / 100 % 100);
+        int day = (int) (date % 100);
+        // 1970-01-01 was a Thursday.
+        int weekday = (int) (epochDays + 4 - floorDiv(epochDays + 4, 7) * 7);
+
+        char[] chars = new char[29];
+        WEEKDAYS[weekday].getChars(0, 3, chars, 0);
+        chars[3] = ',';
+        chars[4] = ' ';
+        putTwoDigits(chars, 5, day);
+        chars[7] = ' ';
+        MONTHS[month - 1].getChars(0, 3, chars, 8);
+        chars[11] = ' ';
+        putTwoDigits(chars, 12, year / 100);
+        putTwoDigits(chars, 14, year % 100);
+        chars[16] = ' ';
+        putTwoDigits(chars, 17, secondOfDay / 3600);
+        chars[19] = ':';
+        putTwoDigits(chars, 20, secondOfDay / 60 % 60);
+        chars[22] = ':';
+        putTwoDigits(chars, 23, secondOfDay % 60);
+        chars[25] = ' ';
+        chars[26] = 'G';
+        chars[27] = 'M';
+        chars[28] = 'T';
+        String text = new String(chars);
+        sLastFormatted = new Entry(text, epochSeconds);
+        return text;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return x % y < 0 ? quotient - 1 : quotient;
+    }
+
+    private static void putTwoDigits(char[] chars, int index, int value) {
+        chars[index] = (char) ('0' + value / 10);
+        chars[index + 1] = (char) ('0' + value % 10);
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDateSeparator(String s, int i) {
+        return i < s.length() && (s.charAt(i) == ' ' || s.charAt(i) == '-');
+    }
+
+    private static int skipSpaces(String s, int i) {
+        while (i < s.length() && s.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int lettersEnd(String s, int i) {
+        while (i < s.length() && isLetter(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int digitsEnd(String s, int i) {
+        while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the decimal number between the indexes, or -1 if it is empty or not all
+     * digits.
+     */
+    private static int toInt(String s, int start, int end) {
+        if (start >= end || end - start > 9) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
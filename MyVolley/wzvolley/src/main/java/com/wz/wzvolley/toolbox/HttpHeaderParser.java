@@ -21,9 +21,7 @@ import com.wz.wzvolley.Cache;
 import com.wz.wzvolley.HttpConstant;
 import com.wz.wzvolley.NetworkResponse;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -31,9 +29,26 @@ import java.util.Map;
  */
 public class HttpHeaderParser {
 
+    /** Upper bound for heuristic freshness, past which RFC 7234 requires a warning. */
+    private static final long MAX_HEURISTIC_FRESHNESS_MS = 24 * 60 * 60 * 1000L;
+
+    /** Fraction of the time since Last-Modified used as heuristic freshness. */
+    private static final int HEURISTIC_FRESHNESS_DIVISOR = 10;
+
+    /** Minimum freshness of an immutable response, so it is not revalidated while it lasts. */
+    private static final long IMMUTABLE_FRESHNESS_MS = 365 * 24 * 60 * 60 * 1000L;
+
     /**
      * Extracts a {@link Cache.Entry} from a {@link NetworkResponse}.
      *
+     * <p>Freshness follows RFC 7234 for a private cache: the lifetime comes from max-age,
+     * then Expires, then a heuristic of 10% of the time since Last-Modified; the age the
+     * response already had is subtracted using the Age and Date headers and the network
+     * time of the response. s-maxage and proxy-revalidate only concern shared caches and
+     * are ignored, while private responses may be stored. Fresh immutable responses stay
+     * fresh for at least a year, as their body will never change, and no-cache responses are
+     * stored only if they carry a validator, so they can be revalidated cheaply.</p>
+     *
      * @param response The network response to parse headers from
      * @return a cache entry for the given response, or null if the response is not cacheable.
      */
@@ -47,10 +62,14 @@ public class HttpHeaderParser {
         long serverExpires = 0;
         long softExpire = 0;
         long finalExpire = 0;
-        long maxAge = 0;
+        long maxAge = -1;
+        long age = 0;
         long staleWhileRevalidate = 0;
-        boolean hasCacheControl = false;
+        long staleIfError = 0;
+        boolean hasExpires = false;
+        boolean noCache = false;
         boolean mustRevalidate = false;
+        boolean immutable = false;
 
         String serverEtag = null;
         String headerValue;
@@ -62,30 +81,31 @@ public class HttpHeaderParser {
 
         headerValue = headers.get("Cache-Control");
         if (headerValue != null) {
-            hasCacheControl = true;
             String[] tokens = headerValue.split(",");
             for (int i = 0; i < tokens.length; i++) {
-                String token = tokens[i].trim();
-                if (token.equals("no-cache") || token.equals("no-store")) {
+                String token = tokens[i].trim().toLowerCase(Locale.US);
+                if (token.equals("no-store")) {
                     return null;
+                } else if (token.equals("no-cache") || token.startsWith("no-cache=")) {
+                    noCache = true;
                 } else if (token.startsWith("max-age=")) {
-                    try {
-                        maxAge = Long.parseLong(token.substring(8));
-                    } catch (Exception e) {
-                    }
+                    maxAge = parseDeltaSeconds(token.substring(8), maxAge);
                 } else if (token.startsWith("stale-while-revalidate=")) {
-                    try {
-                        staleWhileRevalidate = Long.parseLong(token.substring(23));
-                    } catch (Exception e) {
-                    }
-                } else if (token.equals("must-revalidate") || token.equals("proxy-revalidate")) {
+                    staleWhileRevalidate = parseDeltaSeconds(token.substring(23), 0);
+                } else if (token.startsWith("stale-if-error=")) {
+                    staleIfError = parseDeltaSeconds(token.substring(15), 0);
+                } else if (token.equals("must-revalidate")) {
                     mustRevalidate = true;
+                } else if (token.equals("immutable")) {
+                    immutable = true;
                 }
             }
         }
 
         headerValue = headers.get("Expires");
         if (headerValue != null) {
+            hasExpires = true;
+            // An invalid date, such as "0", means already expired.
             serverExpires = parseDateAsEpoch(headerValue);
         }
 
@@ -94,19 +114,57 @@ public class HttpHeaderParser {
             lastModified = parseDateAsEpoch(headerValue);
         }
 
+        headerValue = headers.get("Age");
+        if (headerValue != null) {
+            age = parseDeltaSeconds(headerValue.trim(), 0);
+        }
+
         serverEtag = headers.get("ETag");
 
-        // Cache-Control takes precedence over an Expires header, even if both exist and Expires
-        // is more restrictive.
-        if (hasCacheControl) {
-            softExpire = now + maxAge * 1000;
-            finalExpire = mustRevalidate
-                    ? softExpire
-                    : softExpire + staleWhileRevalidate * 1000;
-        } else if (serverDate > 0 && serverExpires >= serverDate) {
-            // Default semantic for Expire header in HTTP specification is softExpire.
-            softExpire = now + (serverExpires - serverDate);
-            finalExpire = softExpire;
+        // A response varying on everything can never be selected again.
+        headerValue = headers.get("Vary");
+        if (headerValue != null && headerValue.trim().equals("*")) {
+            return null;
+        }
+
+        // Without a validator, a response that must be revalidated on every use is useless.
+        if (noCache && serverEtag == null && lastModified <= 0) {
+            return null;
+        }
+
+        // Freshness lifetime (RFC 7234 section 4.2.1). Cache-Control takes precedence over an
+        // Expires header, even if both exist and Expires is more restrictive.
+        long dateOrNow = serverDate > 0 ? serverDate : now;
+        long lifetime = -1;
+        if (maxAge >= 0) {
+            lifetime = maxAge * 1000;
+        } else if (hasExpires) {
+            lifetime = Math.max(0, serverExpires - dateOrNow);
+        } else if (lastModified > 0 && lastModified < dateOrNow
+                && isHeuristicallyCacheable(response.statusCode)) {
+            lifetime = Math.min((dateOrNow - lastModified) / HEURISTIC_FRESHNESS_DIVISOR,
+                    MAX_HEURISTIC_FRESHNESS_MS);
+        }
+        if (noCache) {
+            lifetime = 0;
+        } else if (immutable && lifetime > 0) {
+            lifetime = Math.max(lifetime, IMMUTABLE_FRESHNESS_MS);
+        }
+
+        if (lifetime >= 0) {
+            // Age the response already had on arrival (RFC 7234 section 4.2.3), taking the
+            // larger of the age by our clock and the Age header plus the response delay.
+            long apparentAge = serverDate > 0 ? Math.max(0, now - serverDate) : 0;
+            long correctedAge = age * 1000 + response.networkTimeMs;
+            long initialAge = Math.max(apparentAge, correctedAge);
+
+            softExpire = now + lifetime - initialAge;
+            if (mustRevalidate) {
+                // Must-revalidate responses are never served stale.
+                finalExpire = softExpire;
+            } else {
+                finalExpire = softExpire + staleWhileRevalidate * 1000;
+            }
         }
 
         Cache.Entry entry = new Cache.Entry();
@@ -114,6 +172,10 @@ public class HttpHeaderParser {
         entry.etag = serverEtag;
         entry.softTtl = softExpire;
         entry.ttl = finalExpire;
+        // The stale-if-error window starts once the response stops being fresh.
+        entry.staleIfErrorTtl = mustRevalidate || staleIfError <= 0
+                ? 0
+                : softExpire + staleIfError * 1000;
         entry.serverDate = serverDate;
         entry.lastModified = lastModified;
         entry.responseHeaders = headers;
@@ -122,20 +184,52 @@ public class HttpHeaderParser {
     }
 
     /**
-     * Parse date in RFC1123 format, and return its value as epoch
+     * Parses a delta-seconds value, returning the given default if it is not a valid one.
+     * Values too large to represent are capped at 2^31 seconds (RFC 7234 section 1.2.1).
      */
-    public static long parseDateAsEpoch(String dateStr) {
-    	try {
-            // Parse date in RFC1123 format if this header contains one
-        	SimpleDateFormat  sdf = new SimpleDateFormat();
-        	Date date = sdf.parse(dateStr);
-            return date.getTime();
-        } catch (ParseException e) {
-            // Date in invalid format, fallback to 0
-            return 0;
+    private static long parseDeltaSeconds(String value, long defaultValue) {
+        if (value.length() > 1 && value.charAt(0) == '"'
+                && value.charAt(value.length() - 1) == '"') {
+            value = value.substring(1, value.length() - 1);
+        }
+        try {
+            long seconds = Long.parseLong(value);
+            if (seconds < 0) {
+                return defaultValue;
+            }
+            return Math.min(seconds, Integer.MAX_VALUE);
+        } catch (NumberFormatException e) {
+            for (int i = 0; i < value.length(); i++) {
+                if (!Character.isDigit(value.charAt(i))) {
+                    return defaultValue;
+                }
+            }
+            return value.length() > 0 ? Integer.MAX_VALUE : defaultValue;
+        }
+    }
+
+    /**
+     * Returns true for status codes that are cacheable by default (RFC 7231 section 6.1),
+     * plus 304 which refreshes an entry of such a response.
+     */
+    private static boolean isHeuristicallyCacheable(int statusCode) {
+        switch (statusCode) {
+            case 200: case 203: case 204: case 206: case 300: case 301: case 304:
+            case 404: case 405: case 410: case 414: case 501:
+                return true;
+            default:
+                return false;
         }
     }
 
+    /**
+     * Parse date in RFC1123, RFC850 or asctime format, and return its value as epoch,
+     * or 0 if it is not a valid date
+     */
+    public static long parseDateAsEpoch(String dateStr) {
+        return HttpDate.parse(dateStr);
+    }
+
     /**
      * Retrieve a charset from headers
      *
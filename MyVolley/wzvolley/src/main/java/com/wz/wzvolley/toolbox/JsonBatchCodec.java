@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley.toolbox;
+
+import com.wz.wzvolley.AuthFailureError;
+import com.wz.wzvolley.Cache;
+import com.wz.wzvolley.HttpStatus;
+import com.wz.wzvolley.NetworkResponse;
+import com.wz.wzvolley.ParseError;
+import com.wz.wzvolley.Request;
+import com.wz.wzvolley.Request.Method;
+import com.wz.wzvolley.RequestBatcher;
+import com.wz.wzvolley.VolleyError;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A {@link RequestBatcher.Codec} batching GET requests under a URL prefix as JSON.
+ *
+ * <p>The batch call posts</p>
+ * <pre>
+ * {"requests": [{"method": "GET", "url": "...", "headers": {"If-None-Match": "..."}}, ...]}
+ * </pre>
+ * <p>and expects, in the same order,</p>
+ * <pre>
+ * {"responses": [{"status": 200, "headers": {"Cache-Control": "..."}, "body": "..."}, ...]}
+ * </pre>
+ * <p>An entry without a status sends its request alone. A 304 is answered from the
+ * request's cache entry, as for a request sent alone.</p>
+ */
+public class JsonBatchCodec implements RequestBatcher.Codec {
+
+    private static final String PROTOCOL_CHARSET = "utf-8";
+
+    private static final String PROTOCOL_CONTENT_TYPE =
+            String.format("application/json; charset=%s", PROTOCOL_CHARSET);
+
+    private final String mUrlPrefix;
+
+    /**
+     * @param urlPrefix Prefix of the URLs of the GET requests the batch endpoint serves,
+     *         such as "https://api.example.com/v1/"
+     */
+    public JsonBatchCodec(String urlPrefix) {
+        mUrlPrefix = urlPrefix;
+    }
+
+    @Override
+    public boolean canBatch(Request<?> request) {
+        return request.getMethod() == Method.GET && !(request instanceof StreamRequest)
+                && request.getUrl() != null && request.getUrl().startsWith(mUrlPrefix);
+    }
+
+    @Override
+    public String getBodyContentType() {
+        return PROTOCOL_CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encode(List<Request<?>> requests) throws AuthFailureError {
+        try {
+            JSONArray items = new JSONArray();
+            for (Request<?> request : requests) {
+                JSONObject headers = new JSONObject();
+                Map<String, String> requestHeaders = request.getHeaders();
+                if (requestHeaders != null) {
+                    for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                        headers.put(header.getKey(), header.getValue());
+                    }
+                }
+                Cache.Entry entry = request.getCacheEntry();
+                if (entry != null && entry.etag != null) {
+                    headers.put("If-None-Match", entry.etag);
+                }
+                JSONObject item = new JSONObject();
+                item.put("method", "GET");
+                item.put("url", request.getUrl());
+                item.put("headers", headers);
+                items.put(item);
+            }
+            return new JSONObject().put("requests", items).toString()
+                    .getBytes(PROTOCOL_CHARSET);
+        } catch (JSONException e) {
+            throw new IllegalArgumentException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public List<NetworkResponse> decode(NetworkResponse response, List<Request<?>> requests)
+            throws VolleyError {
+        try {
+            String json = new String(response.data,
+                    HttpHeaderParser.parseCharset(response.headers, PROTOCOL_CHARSET));
+            JSONArray items = new JSONObject(json).getJSONArray("responses");
+            List<NetworkResponse> responses = new ArrayList<NetworkResponse>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                JSONObject item = items.optJSONObject(i);
+                responses.add(item == null || !item.has("status")
+                        ? null : toNetworkResponse(item, requests.get(i), response.networkTimeMs));
+            }
+            return responses;
+        } catch (JSONException e) {
+            throw new ParseError(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new ParseError(e);
+        }
+    }
+
+    /**
+     * Returns the response to one request of the batch, or null to send it alone.
+     */
+    private static NetworkResponse toNetworkResponse(JSONObject item, Request<?> request,
+            long networkTimeMs) throws JSONException, UnsupportedEncodingException {
+        int statusCode = item.getInt("status");
+        Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        JSONObject itemHeaders = item.optJSONObject("headers");
+        if (itemHeaders != null) {
+            Iterator<String> names = itemHeaders.keys();
+            while (names.hasNext()) {
+                String name = names.next();
+                headers.put(name, itemHeaders.getString(name));
+            }
+        }
+        if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+            Cache.Entry entry = request.getCacheEntry();
+            if (entry == null) {
+                return null;
+            }
+            // A 304 does not have all header fields; merge in those of the cache entry.
+            Map<String, String> mergedHeaders =
+                    new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            mergedHeaders.putAll(entry.responseHeaders);
+            mergedHeaders.putAll(headers);
+            entry.responseHeaders = mergedHeaders;
+            return new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, entry.data,
+                    entry.responseHeaders, true, networkTimeMs);
+        }
+        byte[] body = item.optString("body", "").getBytes(PROTOCOL_CHARSET);
+        return new NetworkResponse(statusCode, body, headers, false, networkTimeMs);
+    }
+}
@@ -19,12 +19,16 @@ package com.wz.wzvolley.toolbox;
 import com.wz.wzvolley.NetworkResponse;
 import com.wz.wzvolley.Request;
 import com.wz.wzvolley.Response;
+import com.wz.wzvolley.StreamingBody;
 import com.wz.wzvolley.VolleyLog;
 import com.wz.wzvolley.Response.ErrorListener;
 import com.wz.wzvolley.Response.Listener;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 
+import okio.BufferedSink;
+
 /**
  * A request for retrieving a T type response body at a given URL that also
  * optionally sends along a JSON body in the request specified.
@@ -83,4 +87,58 @@ public abstract class JsonRequest<T> extends Request<T> {
             return null;
         }
     }
+
+    /**
+     * Streams the body as UTF-8 straight to the connection, without building a byte[]
+     * copy of the string first.
+     */
+    @Override
+    public StreamingBody getStreamingBody() {
+        if (mRequestBody == null) {
+            return null;
+        }
+        return new StreamingBody() {
+            private long mContentLength = -1;
+
+            @Override
+            public long contentLength() {
+                if (mContentLength == -1) {
+                    mContentLength = utf8Length(mRequestBody);
+                }
+                return mContentLength;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                sink.writeUtf8(mRequestBody);
+            }
+        };
+    }
+
+    /**
+     * Returns the number of bytes the string takes encoded as UTF-8, the way
+     * {@link BufferedSink#writeUtf8(String)} encodes it.
+     */
+    private static long utf8Length(String string) {
+        long length = 0;
+        for (int i = 0, size = string.length(); i < size; i++) {
+            char c = string.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (c < 0xd800 || c > 0xdfff) {
+                length += 3;
+            } else if (c <= 0xdbff && i + 1 < size
+                    && string.charAt(i + 1) >= 0xdc00 && string.charAt(i + 1) <= 0xdfff) {
+                // A valid surrogate pair is one 4-byte code point.
+                length += 4;
+                i++;
+            } else {
+                // A lone surrogate is replaced with '?'.
+                length++;
+            }
+        }
+        return length;
+    }
 }
@@ -1,18 +1,31 @@
 package com.wz.wzvolley.toolbox;
 
+import android.os.SystemClock;
+
 import com.wz.wzvolley.AuthFailureError;
+import com.wz.wzvolley.ConnectionWarmer;
 import com.wz.wzvolley.HttpConstant;
 import com.wz.wzvolley.Request;
 import com.wz.wzvolley.Request.Method;
+import com.wz.wzvolley.StreamingBody;
 import com.wz.wzvolley.VolleyLog;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
@@ -21,22 +34,59 @@ import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
 import okhttp3.Dispatcher;
+import okhttp3.Dns;
 import okhttp3.FormBody;
+import okhttp3.HttpUrl;
 import okhttp3.Interceptor;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request.Builder;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+public class OkHttpStack implements HttpStack, ConnectionWarmer {
+
+	/** The client calls are made with; rebuilt from {@link #mConfig} when that is set. */
+	private OkHttpClient mClient;
 
-public class OkHttpStack implements HttpStack {
+	/** Configuration changes not yet applied to {@link #mClient}, or null for none. */
+	private OkHttpClient.Builder mConfig;
 
-	private final OkHttpClient mClient;
+	/** Most clients kept for distinct request timeouts. */
+	private static final int MAX_TIMEOUT_CLIENTS = 16;
+
+	/**
+	 * Clients derived from {@link #mClient} with per-call timeouts, by timeout bucket in
+	 * ms; see {@link #getTimeoutBucketMs(int)}.
+	 * They share its connection pool and dispatcher; least recently used go first.
+	 */
+	private final Map<Integer, OkHttpClient> mTimeoutClients =
+			new LinkedHashMap<Integer, OkHttpClient>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Integer, OkHttpClient> eldest) {
+					return size() > MAX_TIMEOUT_CLIENTS;
+				}
+			};
 
 	private final UrlRewriter mUrlRewriter;
 
+	/** Default smallest body compressed for requests that allow it. */
+	public static final long DEFAULT_COMPRESSION_THRESHOLD_BYTES = 1024;
+
+	private long mCompressionThreshold = DEFAULT_COMPRESSION_THRESHOLD_BYTES;
+
+	/** Policy for racing slow hedgeable requests, or null to never hedge. */
+	private volatile HedgingPolicy mHedgingPolicy;
+
 	/**
 	 * An interface for transforming URLs before use.
 	 */
@@ -48,6 +98,14 @@ public class OkHttpStack implements HttpStack {
 		public String rewriteUrl(String originalUrl);
 	}
 
+	/**
+	 * Creates a stack with a default {@link OkHttpClient}, to be tuned through the
+	 * setters of this class.
+	 */
+	public OkHttpStack() {
+		this(new OkHttpClient());
+	}
+
 	public OkHttpStack(OkHttpClient client) {
 		this(null, client);
 	}
@@ -61,8 +119,70 @@ public class OkHttpStack implements HttpStack {
 		this.mClient = client;
 		this.mUrlRewriter = urlRewriter;
 		if(null != sslSocketFactory) {
-			this.mClient.newBuilder().sslSocketFactory(sslSocketFactory);
+			config().sslSocketFactory(sslSocketFactory);
+		}
+	}
+
+	/**
+	 * Returns the builder collecting configuration changes. They are applied by building
+	 * a single new client before the next call, which keeps the connection pool and
+	 * dispatcher of the current client unless they were replaced.
+	 */
+	private synchronized OkHttpClient.Builder config() {
+		if (mConfig == null) {
+			mConfig = mClient.newBuilder();
+		}
+		return mConfig;
+	}
+
+	/**
+	 * Returns the client used for calls, with all configuration applied. The same
+	 * client, and so the same connection pool, is shared by all network dispatchers.
+	 */
+	public synchronized OkHttpClient getClient() {
+		if (mConfig != null) {
+			mClient = mConfig.build();
+			mConfig = null;
+			mTimeoutClients.clear();
 		}
+		return mClient;
+	}
+
+	/**
+	 * Returns a client whose connect, read and write timeouts are the given timeout,
+	 * rounded up to its bucket, derived from {@link #getClient()} once per bucket.
+	 * Deriving a client with {@link OkHttpClient#newBuilder()} keeps the connection
+	 * pool, so connections are reused across timeouts.
+	 */
+	/* package */ synchronized OkHttpClient getClient(int timeoutMs) {
+		OkHttpClient client = getClient();
+		if (timeoutMs <= 0) {
+			return client;
+		}
+		timeoutMs = getTimeoutBucketMs(timeoutMs);
+		OkHttpClient timeoutClient = mTimeoutClients.get(timeoutMs);
+		if (timeoutClient == null) {
+			timeoutClient = client.newBuilder()
+					.connectTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+					.readTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+					.writeTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+					.build();
+			mTimeoutClients.put(timeoutMs, timeoutClient);
+		}
+		return timeoutClient;
+	}
+
+	/**
+	 * Rounds a timeout up to one of four steps per doubling, so that the timeouts of
+	 * adaptive retry policies, which differ by a few ms from call to call, share a few
+	 * clients. A timeout is lengthened by at most a quarter.
+	 */
+	/* package */ static int getTimeoutBucketMs(int timeoutMs) {
+		if (timeoutMs <= 4) {
+			return timeoutMs;
+		}
+		int step = Integer.highestOneBit(timeoutMs) / 4;
+		return (timeoutMs + step - 1) / step * step;
 	}
 
 	/**
@@ -75,35 +195,137 @@ public class OkHttpStack implements HttpStack {
 		if (dispatcher == null) {
 			return;
 		}
-		this.mClient.newBuilder().dispatcher(dispatcher);
+		config().dispatcher(dispatcher);
+	}
+
+	/**
+	 * set the connection pool, replacing the client's default of 5 idle connections
+	 * kept alive for 5 minutes
+	 *
+	 * @param maxIdleConnections
+	 *            idle connections kept per pool
+	 * @param keepAliveDuration
+	 *            how long an idle connection is kept
+	 * @param timeUnit
+	 *            unit of keepAliveDuration
+	 * @return this http stack
+	 */
+	public OkHttpStack setConnectionPool(int maxIdleConnections, long keepAliveDuration,
+			TimeUnit timeUnit) {
+		config().connectionPool(
+				new ConnectionPool(maxIdleConnections, keepAliveDuration, timeUnit));
+		return this;
+	}
+
+	/**
+	 * set the protocols negotiated with servers, in order of preference; must contain
+	 * {@link Protocol#HTTP_1_1}
+	 *
+	 * @param protocols
+	 *            protocols
+	 * @return this http stack
+	 */
+	public OkHttpStack setProtocols(List<Protocol> protocols) {
+		config().protocols(protocols);
+		return this;
+	}
+
+	/**
+	 * enable or disable HTTP/2, which multiplexes all calls to a host over one
+	 * connection
+	 *
+	 * @param enabled
+	 *            whether to offer HTTP/2
+	 * @return this http stack
+	 */
+	public OkHttpStack setHttp2Enabled(boolean enabled) {
+		return setProtocols(enabled
+				? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+				: Arrays.asList(Protocol.HTTP_1_1));
+	}
+
+	/**
+	 * set the socket send and receive buffer sizes, or 0 to keep the system default
+	 *
+	 * @param sendBufferSize
+	 *            SO_SNDBUF in bytes
+	 * @param receiveBufferSize
+	 *            SO_RCVBUF in bytes
+	 * @return this http stack
+	 */
+	public OkHttpStack setSocketBufferSizes(int sendBufferSize, int receiveBufferSize) {
+		config().socketFactory(new BufferSizeSocketFactory(SocketFactory.getDefault(),
+				sendBufferSize, receiveBufferSize));
+		return this;
+	}
+
+	/**
+	 * set the DNS service used to look up host names
+	 *
+	 * @param dns
+	 *            dns
+	 * @return this http stack
+	 */
+	public OkHttpStack setDns(Dns dns) {
+		config().dns(dns);
+		return this;
+	}
+
+	/**
+	 * set the smallest request body, in bytes, that is gzip-compressed for requests
+	 * allowing it with {@link Request#setShouldCompressBody(boolean)}. Bodies of unknown
+	 * length are always compressed.
+	 *
+	 * @param thresholdBytes
+	 *            threshold in bytes
+	 * @return this http stack
+	 */
+	public OkHttpStack setCompressionThreshold(long thresholdBytes) {
+		mCompressionThreshold = thresholdBytes;
+		return this;
+	}
+
+	/**
+	 * set the policy for sending a duplicate of slow requests marked with
+	 * {@link Request#setHedgeable(boolean)}; the first response is used and the
+	 * other call canceled. Hedged calls run on the client's dispatcher, whose
+	 * per-host limit should leave room for them.
+	 *
+	 * @param policy
+	 *            hedging policy, or null to never hedge
+	 * @return this http stack
+	 */
+	public OkHttpStack setHedgingPolicy(HedgingPolicy policy) {
+		mHedgingPolicy = policy;
+		return this;
 	}
 
 	public void addInterceptor(Interceptor interceptor) {
 		if (interceptor == null) {
 			return;
 		}
-		this.mClient.interceptors().add(interceptor);
+		config().interceptors().add(interceptor);
 	}
 
 	public void addNetworkInterceptor(Interceptor interceptor) {
 		if (interceptor == null) {
 			return;
 		}
-		this.mClient.networkInterceptors().add(interceptor);
+		config().networkInterceptors().add(interceptor);
 	}
 
 	public void removeInterceptor(Interceptor interceptor) {
 		if (interceptor == null) {
 			return;
 		}
-		this.mClient.interceptors().remove(interceptor);
+		config().interceptors().remove(interceptor);
 	}
 
 	public void removeNetworkInterceptor(Interceptor interceptor) {
 		if (interceptor == null) {
 			return;
 		}
-		this.mClient.networkInterceptors().remove(interceptor);
+		config().networkInterceptors().remove(interceptor);
 	}
 
 	/**
@@ -122,9 +344,6 @@ public class OkHttpStack implements HttpStack {
 			Map<String, String> additionalHeaders) throws IOException,
 			AuthFailureError {
 		String url = request.getUrl();
-		HashMap<String, String> map = new HashMap<String, String>();
-		map.putAll(request.getHeaders());
-		map.putAll(additionalHeaders);
 		if (mUrlRewriter != null) {
 			String rewritten = mUrlRewriter.rewriteUrl(url);
 			if (rewritten == null) {
@@ -134,15 +353,20 @@ public class OkHttpStack implements HttpStack {
 		}
 		Builder builder = new Builder();
 		builder.url(url);
-		for (String headerName : map.keySet()) {
-			builder.header(headerName, map.get(headerName));
-			if (VolleyLog.DEBUG) {
-				VolleyLog.d("RequestHeader: %1$s:%2$s", headerName,
-						map.get(headerName));
-			}
-		}
+		// Additional headers go last so they replace the request's own.
+		addHeaders(builder, request.getHeaders());
+		addHeaders(builder, additionalHeaders);
 		setConnectionParametersForRequest(builder, request);
-		Response response = mClient.newCall(builder.build()).execute();
+		okhttp3.Request okRequest = builder.build();
+		if (request.shouldCompressBody()) {
+			okRequest = compressBody(okRequest);
+		}
+		// The retry policy's current timeout, which grows with each retry.
+		OkHttpClient client = getClient(request.getTimeoutMs());
+		HedgingPolicy hedgingPolicy = mHedgingPolicy;
+		Response response = hedgingPolicy != null && request.isHedgeable()
+				? executeHedged(client, okRequest, hedgingPolicy)
+				: client.newCall(okRequest).execute();
 		int responseCode = response.code();
 		if (responseCode == -1) {
 			throw new IOException(
@@ -151,20 +375,193 @@ public class OkHttpStack implements HttpStack {
 		return response;
 	}
 
+	/**
+	 * Sends the request, and a duplicate if no response arrives within the hedging
+	 * delay of its host, and returns the first response.
+	 */
+	private static Response executeHedged(OkHttpClient client,
+			okhttp3.Request okRequest, HedgingPolicy policy) throws IOException {
+		String host = okRequest.url().host();
+		long delayMs = policy.onRequest(host);
+		HedgedCall hedgedCall = new HedgedCall(client, okRequest);
+		hedgedCall.start();
+		try {
+			if (delayMs >= 0 && !hedgedCall.await(delayMs)
+					&& policy.tryAcquireHedge()) {
+				hedgedCall.start();
+			}
+			hedgedCall.await(0);
+		} catch (InterruptedException e) {
+			hedgedCall.cancel();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for " + okRequest.url());
+		} finally {
+			hedgedCall.recordLatency(policy, host);
+		}
+		return hedgedCall.getResponse();
+	}
+
+	/**
+	 * Up to two calls of the same request racing each other. The first response wins
+	 * and the other call is canceled; the request fails only if every call does.
+	 */
+	private static class HedgedCall implements Callback {
+		private final OkHttpClient mClient;
+		private final okhttp3.Request mRequest;
+		private final List<Call> mCalls = new ArrayList<Call>(2);
+		private final List<Long> mStartTimes = new ArrayList<Long>(2);
+		private Response mResponse;
+		private int mWinner;
+		private long mLatencyMs;
+		private IOException mFailure;
+		private int mFailureCount;
+
+		HedgedCall(OkHttpClient client, okhttp3.Request request) {
+			mClient = client;
+			mRequest = request;
+		}
+
+		synchronized void start() {
+			Call call = mClient.newCall(mRequest);
+			mCalls.add(call);
+			mStartTimes.add(SystemClock.elapsedRealtime());
+			call.enqueue(this);
+		}
+
+		/**
+		 * Waits until a call answers or all have failed, for at most timeoutMs, or
+		 * without limit if 0. Returns whether that happened.
+		 */
+		synchronized boolean await(long timeoutMs) throws InterruptedException {
+			long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+			while (mResponse == null && mFailureCount < mCalls.size()) {
+				if (timeoutMs == 0) {
+					wait();
+				} else {
+					long remainingMs = deadline - SystemClock.elapsedRealtime();
+					if (remainingMs <= 0) {
+						return false;
+					}
+					wait(remainingMs);
+				}
+			}
+			return true;
+		}
+
+		synchronized void cancel() {
+			for (Call call : mCalls) {
+				call.cancel();
+			}
+		}
+
+		/**
+		 * Returns the winning response, or throws the last failure.
+		 */
+		synchronized Response getResponse() throws IOException {
+			if (mResponse == null) {
+				throw mFailure;
+			}
+			return mResponse;
+		}
+
+		/**
+		 * Records the latency seen by the caller, from the start of the original
+		 * call: until the winning response, or until now if there is none, so that
+		 * failures and timeouts count for at least the time waited.
+		 */
+		void recordLatency(HedgingPolicy policy, String host) {
+			long latencyMs;
+			boolean hedgeWon;
+			synchronized (this) {
+				hedgeWon = mResponse != null && mWinner > 0;
+				latencyMs = mResponse != null ? mLatencyMs
+						: SystemClock.elapsedRealtime() - mStartTimes.get(0);
+			}
+			policy.recordLatency(host, latencyMs, hedgeWon);
+		}
+
+		@Override
+		public void onResponse(Call call, Response response) throws IOException {
+			synchronized (this) {
+				if (mResponse == null) {
+					mResponse = response;
+					mWinner = mCalls.indexOf(call);
+					mLatencyMs = SystemClock.elapsedRealtime() - mStartTimes.get(0);
+					for (Call other : mCalls) {
+						if (other != call) {
+							other.cancel();
+						}
+					}
+					notifyAll();
+					return;
+				}
+			}
+			// Lost the race.
+			response.body().close();
+		}
+
+		@Override
+		public synchronized void onFailure(Call call, IOException e) {
+			mFailure = e;
+			mFailureCount++;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Sends a HEAD request to the origin of the URL in the background. Its connection is
+	 * returned to the shared pool once the response arrives, ready for the next request
+	 * to that origin.
+	 */
+	@Override
+	public void preconnect(String url) {
+		if (mUrlRewriter != null) {
+			url = mUrlRewriter.rewriteUrl(url);
+		}
+		HttpUrl parsed = url == null ? null : HttpUrl.parse(url);
+		if (parsed == null) {
+			return;
+		}
+		final HttpUrl origin = parsed.resolve("/");
+		getClient().newCall(new Builder().url(origin).head().build()).enqueue(new Callback() {
+			@Override
+			public void onResponse(Call call, Response response) throws IOException {
+				response.body().close();
+			}
+
+			@Override
+			public void onFailure(Call call, IOException e) {
+				VolleyLog.d("Preconnect to %s failed: %s", origin, e.toString());
+			}
+		});
+	}
+
+	private static void addHeaders(Builder builder, Map<String, String> headers) {
+		if (headers == null) {
+			return;
+		}
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			builder.header(header.getKey(), header.getValue());
+			if (VolleyLog.DEBUG) {
+				VolleyLog.d("RequestHeader: %1$s:%2$s", header.getKey(),
+						header.getValue());
+			}
+		}
+	}
+
 	/* package */
 	static void setConnectionParametersForRequest(Builder builder,
 			Request<?> request) throws IOException, AuthFailureError {
 
-		byte[] postBody = null;
+		RequestBody body = null;
 		if (VolleyLog.DEBUG) {
 			VolleyLog.d("request.method = %1$s", request.getMethod());
 		}
 		switch (request.getMethod()) {
 		case Method.DEPRECATED_GET_OR_POST:
-			postBody = request.getBodyBytes();
-			if (postBody != null) {
-				builder.post(RequestBody.create(
-						MediaType.parse(request.getBodyContentType()), postBody));
+			body = createBody(request);
+			if (body != null) {
+				builder.post(body);
 			} else {
 				builder.get();
 			}
@@ -176,37 +573,34 @@ public class OkHttpStack implements HttpStack {
 			builder.delete();
 			break;
 		case Method.POST:
-			postBody = request.getBodyBytes();
-			if (postBody == null) {
+			body = createBody(request);
+			if (body == null) {
 				Map<String, String> bodyParams = request.getBodyParams();
 				Map<String, File> fileParams = request.getBodyFiles();
-				postBuilder(builder, bodyParams, fileParams);
+				postBuilder(builder, request, bodyParams, fileParams);
 			} else {
-				builder.post(RequestBody.create(
-						MediaType.parse(request.getBodyContentType()), postBody));
+				builder.post(body);
 			}
 			break;
 		case Method.PUT:
-			postBody = request.getBodyBytes();
-			if (postBody == null) {
+			body = createBody(request);
+			if (body == null) {
 				builder.put(RequestBody.create(
 						MediaType.parse(request.getBodyContentType()), ""));
 			} else {
-				builder.put(RequestBody.create(
-						MediaType.parse(request.getBodyContentType()), postBody));
+				builder.put(body);
 			}
 			break;
 		case Method.HEAD:
 			builder.head();
 			break;
 		case Method.PATCH:
-			postBody = request.getBodyBytes();
-			if (postBody == null) {
+			body = createBody(request);
+			if (body == null) {
 				builder.patch(RequestBody.create(
 						MediaType.parse(request.getBodyContentType()), ""));
 			} else {
-				builder.patch(RequestBody.create(
-						MediaType.parse(request.getBodyContentType()), postBody));
+				builder.patch(body);
 			}
 			break;
 		default:
@@ -215,8 +609,101 @@ public class OkHttpStack implements HttpStack {
 
 	}
 
-	private static void postBuilder(Builder builder, Map<String, String> bodyParams,
-			Map<String, File> fileParams) {
+	/**
+	 * Returns the body of the request, streamed if the request provides a
+	 * {@link StreamingBody}, or null if it has neither a streaming body nor body bytes.
+	 */
+	private static RequestBody createBody(Request<?> request) throws AuthFailureError {
+		MediaType contentType = MediaType.parse(request.getBodyContentType());
+		StreamingBody streamingBody = request.getStreamingBody();
+		if (streamingBody != null) {
+			return UploadRequestBody.wrap(
+					new StreamingRequestBody(contentType, streamingBody), request);
+		}
+		byte[] postBody = request.getBodyBytes();
+		return postBody == null ? null : UploadRequestBody.wrap(
+				RequestBody.create(contentType, postBody), request);
+	}
+
+	/**
+	 * Adapts a {@link StreamingBody} to OkHttp, which writes it straight to the socket.
+	 */
+	private static class StreamingRequestBody extends RequestBody {
+		private final MediaType mContentType;
+		private final StreamingBody mBody;
+
+		StreamingRequestBody(MediaType contentType, StreamingBody body) {
+			mContentType = contentType;
+			mBody = body;
+		}
+
+		@Override
+		public MediaType contentType() {
+			return mContentType;
+		}
+
+		@Override
+		public long contentLength() throws IOException {
+			return mBody.contentLength();
+		}
+
+		@Override
+		public void writeTo(BufferedSink sink) throws IOException {
+			mBody.writeTo(sink);
+		}
+	}
+
+	/**
+	 * Returns the request with its body gzip-compressed, or the request as is if it has
+	 * no body, is already encoded or is below the compression threshold.
+	 */
+	private okhttp3.Request compressBody(okhttp3.Request okRequest) throws IOException {
+		RequestBody body = okRequest.body();
+		if (body == null || okRequest.header(HttpConstant.CONTENT_ENCODING) != null) {
+			return okRequest;
+		}
+		long length = body.contentLength();
+		if (length >= 0 && length < mCompressionThreshold) {
+			return okRequest;
+		}
+		return okRequest.newBuilder()
+				.header(HttpConstant.CONTENT_ENCODING, "gzip")
+				.method(okRequest.method(), new GzipRequestBody(body))
+				.build();
+	}
+
+	/**
+	 * Compresses a body while it is written, so no compressed copy is held in memory.
+	 * The compressed length is unknown up front, so the body is sent chunked.
+	 */
+	private static class GzipRequestBody extends RequestBody {
+		private final RequestBody mBody;
+
+		GzipRequestBody(RequestBody body) {
+			mBody = body;
+		}
+
+		@Override
+		public MediaType contentType() {
+			return mBody.contentType();
+		}
+
+		@Override
+		public long contentLength() {
+			return -1;
+		}
+
+		@Override
+		public void writeTo(BufferedSink sink) throws IOException {
+			BufferedSink gzipSink = Okio.buffer(new GzipSink(sink));
+			mBody.writeTo(gzipSink);
+			// Writes the gzip trailer; OkHttp tolerates its sink being closed here.
+			gzipSink.close();
+		}
+	}
+
+	private static void postBuilder(Builder builder, Request<?> request,
+			Map<String, String> bodyParams, Map<String, File> fileParams) {
 		if ((null != fileParams) && (fileParams.size() > 0)) {
 			MultipartBody.Builder multipartBuilder = new MultipartBody.Builder();
 			if ((null != bodyParams) && (bodyParams.size() > 0)) {
@@ -233,7 +720,7 @@ public class OkHttpStack implements HttpStack {
 										.parse(HttpConstant.OCTET_STREAM_TYPE),
 										file));
 			}
-			builder.post(multipartBuilder.build());
+			builder.post(UploadRequestBody.wrap(multipartBuilder.build(), request));
 		} else {
 			if ((null != bodyParams) && (bodyParams.size() > 0)) {
 				FormBody.Builder formBuilder = new FormBody.Builder();
@@ -241,7 +728,7 @@ public class OkHttpStack implements HttpStack {
 					String value = bodyParams.get(name);
 					formBuilder.add(name, (String) value);
 				}
-				builder.post(formBuilder.build());
+				builder.post(UploadRequestBody.wrap(formBuilder.build(), request));
 			}
 		}
 	}
@@ -252,7 +739,7 @@ public class OkHttpStack implements HttpStack {
 	 * @return this http stact
 	 */
 	public OkHttpStack trustAllCerts() {
-		this.mClient.newBuilder().sslSocketFactory(getTrustedFactory());
+		config().sslSocketFactory(getTrustedFactory());
 		return this;
 	}
 
@@ -262,7 +749,7 @@ public class OkHttpStack implements HttpStack {
 	 * @return
 	 */
 	public OkHttpStack trustAllHosts() {
-		this.mClient.newBuilder().hostnameVerifier(getTrustedVerifier());
+		config().hostnameVerifier(getTrustedVerifier());
 		return this;
 	}
 
@@ -274,10 +761,64 @@ public class OkHttpStack implements HttpStack {
 	 * @return this http stack
 	 */
 	public OkHttpStack setHostnameVerifier(HostnameVerifier verifier) {
-		this.mClient.newBuilder().hostnameVerifier(verifier);
+		config().hostnameVerifier(verifier);
 		return this;
 	}
 
+	/**
+	 * Creates sockets with the given buffer sizes, set before they connect so that
+	 * the receive window can be negotiated accordingly.
+	 */
+	private static class BufferSizeSocketFactory extends SocketFactory {
+		private final SocketFactory mDelegate;
+		private final int mSendBufferSize;
+		private final int mReceiveBufferSize;
+
+		BufferSizeSocketFactory(SocketFactory delegate, int sendBufferSize,
+				int receiveBufferSize) {
+			mDelegate = delegate;
+			mSendBufferSize = sendBufferSize;
+			mReceiveBufferSize = receiveBufferSize;
+		}
+
+		private Socket configure(Socket socket) throws IOException {
+			if (mSendBufferSize > 0) {
+				socket.setSendBufferSize(mSendBufferSize);
+			}
+			if (mReceiveBufferSize > 0) {
+				socket.setReceiveBufferSize(mReceiveBufferSize);
+			}
+			return socket;
+		}
+
+		@Override
+		public Socket createSocket() throws IOException {
+			return configure(mDelegate.createSocket());
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return configure(mDelegate.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost,
+				int localPort) throws IOException {
+			return configure(mDelegate.createSocket(host, port, localHost, localPort));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			return configure(mDelegate.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+				int localPort) throws IOException {
+			return configure(mDelegate.createSocket(address, port, localAddress, localPort));
+		}
+	}
+
 	private static SSLSocketFactory TRUSTED_FACTORY;
 	private static HostnameVerifier TRUSTED_VERIFIER;
 
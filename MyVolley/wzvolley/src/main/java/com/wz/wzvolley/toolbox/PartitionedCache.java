@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley.toolbox;
+
+import com.wz.wzvolley.Cache;
+import com.wz.wzvolley.HttpConstant;
+import com.wz.wzvolley.Request;
+import com.wz.wzvolley.toolbox.DiskBasedCache.EvictionPolicy;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A {@link Cache} made of named {@link DiskBasedCache} partitions, each with its own
+ * directory, byte quota, eviction policy and default TTL, so that bursts of one kind of
+ * traffic cannot evict another.
+ *
+ * <p>An entry goes to the partition named by {@link Request#setCachePartition(String)},
+ * otherwise to the first partition routed to its content type by
+ * {@link #routeContentType(String, String)}, otherwise to {@link #DEFAULT_PARTITION}.
+ * Partitions and routes must be set up before the cache is handed to a
+ * {@link com.wz.wzvolley.RequestQueue}.</p>
+ *
+ * <pre>
+ * PartitionedCache cache = new PartitionedCache(cacheDir, 2 * 1024 * 1024)
+ *         .addPartition("images", 20 * 1024 * 1024, EvictionPolicy.LRU, 0)
+ *         .routeContentType("image/", "images");
+ * RequestQueue queue = new RequestQueue(cache, network);
+ * </pre>
+ */
+public class PartitionedCache implements Cache {
+
+    /** Name of the partition used when no other partition applies. */
+    public static final String DEFAULT_PARTITION = "default";
+
+    /** A single named partition. */
+    private static class Partition {
+        final String name;
+        final DiskBasedCache cache;
+        final long defaultTtlMs;
+
+        Partition(String name, DiskBasedCache cache, long defaultTtlMs) {
+            this.name = name;
+            this.cache = cache;
+            this.defaultTtlMs = defaultTtlMs;
+        }
+    }
+
+    /** The root directory; each partition lives in a subdirectory named after it. */
+    private final File mRootDirectory;
+
+    /** Partitions by name, in the order they were added. */
+    private final Map<String, Partition> mPartitions = new LinkedHashMap<String, Partition>();
+
+    /** Content type prefixes and the partitions they route to, in registration order. */
+    private final List<String[]> mContentTypeRoutes = new ArrayList<String[]>();
+
+    /**
+     * Creates a partitioned cache with only the default partition.
+     * @param rootDirectory The root directory of the cache.
+     * @param defaultMaxCacheSizeInBytes The maximum size of the default partition in bytes.
+     */
+    public PartitionedCache(File rootDirectory, int defaultMaxCacheSizeInBytes) {
+        mRootDirectory = rootDirectory;
+        addPartition(DEFAULT_PARTITION, defaultMaxCacheSizeInBytes, EvictionPolicy.LRU, 0);
+    }
+
+    /**
+     * Adds, or replaces, a named partition.
+     *
+     * @param name Partition name, also used as its directory name
+     * @param maxCacheSizeInBytes Byte quota of the partition
+     * @param evictionPolicy Order in which the partition evicts entries once full
+     * @param defaultTtlMs Lifetime given to entries whose response carried no freshness
+     *         information, or 0 to store them already expired as usual
+     * @return This cache to allow for chaining.
+     */
+    public synchronized PartitionedCache addPartition(String name, int maxCacheSizeInBytes,
+            EvictionPolicy evictionPolicy, long defaultTtlMs) {
+        DiskBasedCache cache = new DiskBasedCache(new File(mRootDirectory, name),
+                maxCacheSizeInBytes, evictionPolicy);
+        mPartitions.put(name, new Partition(name, cache, defaultTtlMs));
+        return this;
+    }
+
+    /**
+     * Routes entries whose Content-Type starts with the given prefix (for example
+     * "image/" or "application/json") to the named partition, unless their request
+     * picked a partition explicitly.
+     *
+     * @return This cache to allow for chaining.
+     */
+    public synchronized PartitionedCache routeContentType(String contentTypePrefix,
+            String partition) {
+        if (!mPartitions.containsKey(partition)) {
+            throw new IllegalArgumentException("Unknown cache partition: " + partition);
+        }
+        mContentTypeRoutes.add(new String[] {
+                contentTypePrefix.toLowerCase(Locale.US), partition });
+        return this;
+    }
+
+    /**
+     * Returns the named partition, or null if there is no such partition.
+     */
+    public synchronized Cache getPartition(String name) {
+        Partition partition = mPartitions.get(name);
+        return partition == null ? null : partition.cache;
+    }
+
+    @Override
+    public synchronized Entry get(String key) {
+        for (Partition partition : mPartitions.values()) {
+            Entry entry = partition.cache.get(key);
+            if (entry != null) {
+                entry.partition = partition.name;
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void put(String key, Entry entry) {
+        Partition target = partitionFor(entry);
+        // A key lives in one partition only; drop a copy routed elsewhere earlier.
+        for (Partition partition : mPartitions.values()) {
+            if (partition != target && partition.cache.containsKey(key)) {
+                partition.cache.remove(key);
+            }
+        }
+        if (entry.ttl == 0 && entry.softTtl == 0 && target.defaultTtlMs > 0) {
+            entry.softTtl = System.currentTimeMillis() + target.defaultTtlMs;
+            entry.ttl = entry.softTtl;
+        }
+        target.cache.put(key, entry);
+    }
+
+    @Override
+    public synchronized void initialize() {
+        for (Partition partition : mPartitions.values()) {
+            partition.cache.initialize();
+        }
+    }
+
+    @Override
+    public synchronized void invalidate(String key, boolean fullExpire) {
+        Partition partition = partitionContaining(key);
+        if (partition != null) {
+            partition.cache.invalidate(key, fullExpire);
+        }
+    }
+
+    @Override
+    public synchronized void remove(String key) {
+        Partition partition = partitionContaining(key);
+        if (partition != null) {
+            partition.cache.remove(key);
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        for (Partition partition : mPartitions.values()) {
+            partition.cache.clear();
+        }
+    }
+
+    private Partition partitionContaining(String key) {
+        for (Partition partition : mPartitions.values()) {
+            if (partition.cache.containsKey(key)) {
+                return partition;
+            }
+        }
+        return null;
+    }
+
+    private Partition partitionFor(Entry entry) {
+        if (entry.partition != null) {
+            Partition partition = mPartitions.get(entry.partition);
+            if (partition != null) {
+                return partition;
+            }
+        }
+        String contentType = entry.responseHeaders.get(HttpConstant.CONTENT_TYPE);
+        if (contentType != null) {
+            contentType = contentType.trim().toLowerCase(Locale.US);
+            for (String[] route : mContentTypeRoutes) {
+                if (contentType.startsWith(route[0])) {
+                    return mPartitions.get(route[1]);
+                }
+            }
+        }
+        return mPartitions.get(DEFAULT_PARTITION);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley.toolbox;
+
+import android.os.SystemClock;
+
+import com.wz.wzvolley.AuthFailureError;
+import com.wz.wzvolley.Request;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import okhttp3.Headers;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * An {@link HttpStack} that passes requests on to another stack and writes every
+ * request and response, with its timing, to a file for {@link ReplayHttpStack} to serve
+ * back later.
+ *
+ * <p>Response bodies are read whole before being returned, so streaming requests do not
+ * stream while recorded. Failed calls are recorded too, with the class and message of
+ * their exception, and replayed as failures of the same type.</p>
+ *
+ * <pre>
+ * RecordingHttpStack recorder = new RecordingHttpStack(new OkHttpStack(), file);
+ * RequestQueue queue = Volley.newRequestQueue(context, recorder);
+ * ...
+ * recorder.close();
+ * </pre>
+ */
+public class RecordingHttpStack implements HttpStack, Closeable {
+
+    /** Magic number at the start of every record. */
+    /* package */ static final int RECORD_MAGIC = 0x20161020;
+
+    /**
+     * Status code of a record of a failed call. Its message is the class name of the
+     * exception and its body the exception's message.
+     */
+    /* package */ static final int FAILED_CALL = -1;
+
+    private final HttpStack mDelegate;
+
+    private final OutputStream mOut;
+
+    /** Time recording started, which record times are relative to. */
+    private final long mStartMs = SystemClock.elapsedRealtime();
+
+    /**
+     * @param delegate Stack performing the requests
+     * @param file File to append the records to
+     */
+    public RecordingHttpStack(HttpStack delegate, File file) throws IOException {
+        mDelegate = delegate;
+        mOut = new BufferedOutputStream(new FileOutputStream(file, true));
+    }
+
+    @Override
+    public Response performRequest(Request<?> request, Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        String key = keyOf(request);
+        long start = SystemClock.elapsedRealtime();
+        Response response;
+        byte[] body;
+        long headersMs;
+        try {
+            response = mDelegate.performRequest(request, additionalHeaders);
+            headersMs = SystemClock.elapsedRealtime() - start;
+            body = response.body().bytes();
+        } catch (IOException e) {
+            long failedMs = SystemClock.elapsedRealtime() - start;
+            write(key, start, failedMs, failedMs, FAILED_CALL, e.getClass().getName(), null,
+                    e.getMessage() == null ? null : e.getMessage().getBytes("UTF-8"));
+            throw e;
+        }
+        long totalMs = SystemClock.elapsedRealtime() - start;
+        write(key, start, headersMs, totalMs, response.code(), response.message(),
+                response.headers(), body);
+        ResponseBody responseBody = ResponseBody.create(response.body().contentType(), body);
+        return response.newBuilder().body(responseBody).build();
+    }
+
+    private synchronized void write(String key, long start, long headersMs, long totalMs,
+            int code, String message, Headers headers, byte[] body) throws IOException {
+        DiskBasedCache.writeInt(mOut, RECORD_MAGIC);
+        DiskBasedCache.writeString(mOut, key);
+        DiskBasedCache.writeLong(mOut, start - mStartMs);
+        DiskBasedCache.writeLong(mOut, headersMs);
+        DiskBasedCache.writeLong(mOut, totalMs);
+        DiskBasedCache.writeInt(mOut, code);
+        DiskBasedCache.writeString(mOut, message == null ? "" : message);
+        // Written as pairs rather than a map, to keep repeated headers.
+        int headerCount = headers == null ? 0 : headers.size();
+        DiskBasedCache.writeInt(mOut, headerCount);
+        for (int i = 0; i < headerCount; i++) {
+            DiskBasedCache.writeString(mOut, headers.name(i));
+            DiskBasedCache.writeString(mOut, headers.value(i));
+        }
+        int length = body == null ? 0 : body.length;
+        DiskBasedCache.writeLong(mOut, length);
+        if (length > 0) {
+            mOut.write(body);
+        }
+    }
+
+    /**
+     * Writes out the records still buffered.
+     */
+    public synchronized void flush() throws IOException {
+        mOut.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mOut.close();
+    }
+
+    /**
+     * Returns the key a request is recorded and replayed under: its method, URL and a
+     * hash of its body.
+     */
+    /* package */ static String keyOf(Request<?> request) throws AuthFailureError {
+        byte[] body = request.getBodyBytes();
+        return request.getMethod() + " " + request.getUrl()
+                + (body == null ? "" : " " + Integer.toHexString(Arrays.hashCode(body)));
+    }
+}
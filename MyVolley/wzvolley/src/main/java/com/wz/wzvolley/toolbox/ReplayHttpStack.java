@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley.toolbox;
+
+import com.wz.wzvolley.AuthFailureError;
+import com.wz.wzvolley.Request;
+import com.wz.wzvolley.VolleyLog;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * An {@link HttpStack} serving the responses recorded by {@link RecordingHttpStack},
+ * without a network, to benchmark the queue, cache and parsing on real traffic.
+ *
+ * <p>Requests are matched on method, URL and body. A request recorded several times
+ * gets its responses in recorded order, starting over after the last. Responses come at
+ * once by default; with {@link #setLatencyScale(float)} they take their recorded time,
+ * split between the wait for headers and the read of the body.</p>
+ */
+public class ReplayHttpStack implements HttpStack {
+
+    /** One recorded call. */
+    private static class Record {
+        long headersMs;
+        long totalMs;
+        int code;
+        String message;
+        Headers headers;
+        byte[] body;
+    }
+
+    /** Records by request key, in recorded order. */
+    private final Map<String, List<Record>> mRecords = new HashMap<String, List<Record>>();
+
+    /** Index of the next record to serve, by request key. */
+    private final Map<String, Integer> mNextIndex = new HashMap<String, Integer>();
+
+    private int mRecordCount;
+
+    private volatile float mLatencyScale = 0;
+
+    private final AtomicLong mServedCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * Reads the records of a file written by {@link RecordingHttpStack}. A record cut
+     * short at the end of the file, as by a process killed while recording, is skipped.
+     */
+    public ReplayHttpStack(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            while (readRecord(in)) {
+                mRecordCount++;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads one record, returning false at the end of the file.
+     */
+    private boolean readRecord(InputStream in) throws IOException {
+        int magic;
+        try {
+            magic = DiskBasedCache.readInt(in);
+        } catch (EOFException e) {
+            return false;
+        }
+        if (magic != RecordingHttpStack.RECORD_MAGIC) {
+            throw new IOException("Not a recording, or corrupt after "
+                    + mRecordCount + " records");
+        }
+        try {
+            String key = DiskBasedCache.readString(in);
+            Record record = new Record();
+            // Start time relative to the recording; kept for tools, not used here.
+            DiskBasedCache.readLong(in);
+            record.headersMs = DiskBasedCache.readLong(in);
+            record.totalMs = DiskBasedCache.readLong(in);
+            record.code = DiskBasedCache.readInt(in);
+            record.message = DiskBasedCache.readString(in);
+            int headerCount = DiskBasedCache.readInt(in);
+            Headers.Builder headers = new Headers.Builder();
+            for (int i = 0; i < headerCount; i++) {
+                headers.add(DiskBasedCache.readString(in), DiskBasedCache.readString(in));
+            }
+            record.headers = headers.build();
+            record.body = DiskBasedCache.streamToBytes(in, (int) DiskBasedCache.readLong(in));
+            List<Record> records = mRecords.get(key);
+            if (records == null) {
+                records = new ArrayList<Record>();
+                mRecords.put(key, records);
+            }
+            records.add(record);
+            return true;
+        } catch (IOException e) {
+            VolleyLog.d("Recording cut short after %d records: %s", mRecordCount, e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Sets how long responses take relative to their recorded time: 0 (the default) to
+     * serve them at once, 1 for their original latency, 0.5 for twice as fast, and so on.
+     *
+     * @return This stack to allow for chaining.
+     */
+    public ReplayHttpStack setLatencyScale(float scale) {
+        mLatencyScale = scale;
+        return this;
+    }
+
+    @Override
+    public Response performRequest(Request<?> request, Map<String, String> additionalHeaders)
+            throws IOException, AuthFailureError {
+        String key = RecordingHttpStack.keyOf(request);
+        Record record = nextRecord(key);
+        if (record == null) {
+            mMissCount.incrementAndGet();
+            throw new IOException("No recording of " + key);
+        }
+        mServedCount.incrementAndGet();
+        float scale = mLatencyScale;
+        sleep((long) (record.headersMs * scale));
+        if (record.code == RecordingHttpStack.FAILED_CALL) {
+            throw toException(record);
+        }
+        MediaType contentType = record.headers.get("Content-Type") == null
+                ? null : MediaType.parse(record.headers.get("Content-Type"));
+        Buffer body = new Buffer().write(record.body);
+        long bodyDelayMs = (long) ((record.totalMs - record.headersMs) * scale);
+        return new Response.Builder()
+                .request(new okhttp3.Request.Builder().url(request.getUrl()).build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(record.code)
+                .message(record.message)
+                .headers(record.headers)
+                .body(ResponseBody.create(contentType, record.body.length,
+                        Okio.buffer(new DelayedSource(body, bodyDelayMs))))
+                .build();
+    }
+
+    /**
+     * Returns an exception of the recorded type, such as a SocketTimeoutException, so
+     * that it is classified as the original failure was. Types that cannot be made again
+     * become a plain IOException.
+     */
+    private static IOException toException(Record record) throws IOException {
+        String message = record.body.length == 0 ? null : new String(record.body, "UTF-8");
+        try {
+            Class<?> type = Class.forName(record.message);
+            if (IOException.class.isAssignableFrom(type)) {
+                return (IOException) type.getConstructor(String.class).newInstance(message);
+            }
+        } catch (Exception e) {
+            // Not an exception type we can make, or a recording of an older format.
+        }
+        return new IOException(message == null
+                ? record.message : record.message + ": " + message);
+    }
+
+    private synchronized Record nextRecord(String key) {
+        List<Record> records = mRecords.get(key);
+        if (records == null) {
+            return null;
+        }
+        Integer next = mNextIndex.get(key);
+        int index = next == null ? 0 : next;
+        mNextIndex.put(key, (index + 1) % records.size());
+        return records.get(index);
+    }
+
+    private static void sleep(long ms) throws InterruptedIOException {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Replay interrupted");
+        }
+    }
+
+    /**
+     * Holds back the body until its recorded read time has passed.
+     */
+    private static class DelayedSource extends ForwardingSource {
+        private long mDelayMs;
+
+        DelayedSource(Buffer body, long delayMs) {
+            super(body);
+            mDelayMs = delayMs;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            sleep(mDelayMs);
+            mDelayMs = 0;
+            return super.read(sink, byteCount);
+        }
+    }
+
+    /** Returns the number of records read from the file. */
+    public int getRecordCount() {
+        return mRecordCount;
+    }
+
+    /** Returns the number of requests served from the records. */
+    public long getServedCount() {
+        return mServedCount.get();
+    }
+
+    /** Returns the number of requests without a record. */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley.toolbox;
+
+import com.wz.wzvolley.Cache;
+import com.wz.wzvolley.NetworkResponse;
+import com.wz.wzvolley.ParseError;
+import com.wz.wzvolley.Request;
+import com.wz.wzvolley.Response;
+import com.wz.wzvolley.Response.ErrorListener;
+
+import java.io.IOException;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * A request whose response body is parsed while it streams in, rather than after it has
+ * been read into a byte[].
+ *
+ * <p>For successful network responses {@link #parseStream(NetworkResponse, BufferedSource)}
+ * runs on the network dispatcher thread with the connection still open, so it can start
+ * work on the first bytes and memory use does not grow with the size of the body. If the
+ * response should be cached, the bytes read are copied aside as they stream past, up to
+ * {@link #setMaxCachedBodyBytes(int)}; larger bodies are simply not cached. Cache hits and
+ * error bodies are parsed from memory through the same method.</p>
+ *
+ * @param <T> The type of parsed response this request expects.
+ */
+public abstract class StreamRequest<T> extends Request<T> {
+
+    /** Default limit on the body bytes kept in memory to cache a streamed response. */
+    public static final int DEFAULT_MAX_CACHED_BODY_BYTES = 512 * 1024;
+
+    private static final int SKIP_BUFFER_SIZE = 8192;
+
+    private int mMaxCachedBodyBytes = DEFAULT_MAX_CACHED_BODY_BYTES;
+
+    /** Result parsed from the network stream, waiting to be picked up by the dispatcher. */
+    private volatile Response<T> mStreamedResponse;
+
+    public StreamRequest(int method, String url, ErrorListener listener) {
+        super(method, url, listener);
+    }
+
+    /**
+     * Sets the largest body that is kept in memory so the response can be cached. Bodies
+     * over the limit are still parsed, just not cached.
+     *
+     * @return This Request object to allow for chaining.
+     */
+    public StreamRequest<T> setMaxCachedBodyBytes(int maxCachedBodyBytes) {
+        mMaxCachedBodyBytes = maxCachedBodyBytes;
+        return this;
+    }
+
+    /**
+     * Subclasses must implement this to parse the response body as it is read. This method
+     * is called from a worker thread. It need not read the whole body nor close it.
+     *
+     * @param response Status code and headers of the response; its data is null when
+     *         the body is being streamed from the network
+     * @param body The response body
+     * @return The parsed response, which will be delivered if it is not null
+     * @throws IOException If reading the body fails
+     * @throws ParseError If the body cannot be parsed
+     */
+    protected abstract T parseStream(NetworkResponse response, BufferedSource body)
+            throws IOException, ParseError;
+
+    /**
+     * Returns the result streamed from the network, or parses a response held in memory,
+     * such as a cache hit.
+     */
+    @Override
+    protected Response<T> parseNetworkResponse(NetworkResponse response) {
+        Response<T> streamed = mStreamedResponse;
+        if (streamed != null) {
+            mStreamedResponse = null;
+            return streamed;
+        }
+        if (response.data == null) {
+            return Response.error(new ParseError(response));
+        }
+        try {
+            T result = parseStream(response, new Buffer().write(response.data));
+            return Response.success(result, HttpHeaderParser.parseCacheHeaders(response));
+        } catch (IOException e) {
+            return Response.error(new ParseError(e));
+        } catch (ParseError e) {
+            return Response.error(e);
+        }
+    }
+
+    /**
+     * Parses a successful response straight off the network. Called by {@link BasicNetwork}
+     * with the body still open; the result is handed over to
+     * {@link #parseNetworkResponse(NetworkResponse)}.
+     *
+     * @param head Status code, headers and timing of the response, without data
+     * @param source The response body
+     * @return The response to give to the dispatcher; its data is the cached copy of the
+     *         body, or null if the body was not kept
+     */
+    /* package */ NetworkResponse parseNetworkStream(NetworkResponse head, BufferedSource source)
+            throws IOException, ParseError {
+        CopyingSource copy = shouldCache() ? new CopyingSource(source, mMaxCachedBodyBytes) : null;
+        BufferedSource body = copy == null ? source : Okio.buffer(copy);
+        T result = parseStream(head, body);
+
+        byte[] data = null;
+        if (copy != null && !copy.overflowed()) {
+            // Read what the parser left so the cached copy is the complete body.
+            Buffer skipped = new Buffer();
+            while (!copy.overflowed() && body.read(skipped, SKIP_BUFFER_SIZE) != -1) {
+                skipped.clear();
+            }
+            data = copy.bytes();
+        }
+        NetworkResponse response = new NetworkResponse(head.statusCode, data, head.headers,
+                false, head.networkTimeMs);
+        Cache.Entry entry = data == null ? null : HttpHeaderParser.parseCacheHeaders(response);
+        mStreamedResponse = Response.success(result, entry);
+        return response;
+    }
+
+    /**
+     * A source that keeps a copy of the bytes read through it, until the copy would grow
+     * past a limit.
+     */
+    private static class CopyingSource extends ForwardingSource {
+        private final Buffer mCopy = new Buffer();
+        private final long mLimit;
+        private boolean mOverflowed;
+
+        CopyingSource(Source delegate, long limit) {
+            super(delegate);
+            mLimit = limit;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, byteCount);
+            if (read > 0 && !mOverflowed) {
+                if (mCopy.size() + read > mLimit) {
+                    mOverflowed = true;
+                    mCopy.clear();
+                } else {
+                    sink.copyTo(mCopy, sink.size() - read, read);
+                }
+            }
+            return read;
+        }
+
+        boolean overflowed() {
+            return mOverflowed;
+        }
+
+        byte[] bytes() {
+            return mCopy.readByteArray();
+        }
+    }
+}
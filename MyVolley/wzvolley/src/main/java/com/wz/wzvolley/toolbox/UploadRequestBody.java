@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.wz.wzvolley.toolbox;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.wz.wzvolley.Request;
+import com.wz.wzvolley.Response.ProgressListener;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+/**
+ * Wraps a request body to report upload progress, cap the upload rate and stop
+ * mid-body when the request is canceled.
+ *
+ * <p>The body is handed to the connection in chunks of at most {@link #CHUNK_SIZE} bytes;
+ * after each chunk the request is checked for cancellation, the rate cap is applied by
+ * sleeping the dispatcher thread, and progress is posted to the main thread if the
+ * request's progress interval has passed.</p>
+ *
+ * <p>A capped upload therefore holds its dispatcher thread for as long as the cap makes
+ * it last. The waits are cut into short slices so that cancellation and the deadline of
+ * the connection's sink are still noticed while paused.</p>
+ */
+/* package */ class UploadRequestBody extends RequestBody {
+
+    /** Largest write handed to the connection at once. */
+    /* package */ static final long CHUNK_SIZE = 8192;
+
+    /** Longest single sleep while pacing, between checks for cancellation. */
+    private static final long MAX_THROTTLE_SLEEP_MS = 100;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final RequestBody mDelegate;
+
+    private final Request<?> mRequest;
+
+    /**
+     * Wraps the body if the request asks for upload progress or a rate cap, otherwise
+     * returns it as is.
+     */
+    static RequestBody wrap(RequestBody body, Request<?> request) {
+        if (body == null || (request.getUploadProgressListener() == null
+                && request.getMaxUploadBytesPerSecond() <= 0)) {
+            return body;
+        }
+        return new UploadRequestBody(body, request);
+    }
+
+    private UploadRequestBody(RequestBody delegate, Request<?> request) {
+        mDelegate = delegate;
+        mRequest = request;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mDelegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return mDelegate.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        // Called again for every attempt, so progress and rate start over each time.
+        MonitoringSink monitor = new MonitoringSink(sink, contentLength());
+        BufferedSink bufferedMonitor = Okio.buffer(monitor);
+        mDelegate.writeTo(bufferedMonitor);
+        bufferedMonitor.flush();
+        monitor.postProgress(true);
+    }
+
+    private class MonitoringSink extends ForwardingSink {
+        private final long mTotal;
+        private final long mStartMs = SystemClock.elapsedRealtime();
+        private long mWritten;
+        private long mLastProgressMs;
+
+        MonitoringSink(BufferedSink delegate, long total) {
+            super(delegate);
+            mTotal = total;
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            while (byteCount > 0) {
+                if (mRequest.isCanceled()) {
+                    throw new IOException("Upload canceled: " + mRequest.getUrl());
+                }
+                long chunk = Math.min(byteCount, CHUNK_SIZE);
+                super.write(source, chunk);
+                byteCount -= chunk;
+                mWritten += chunk;
+                throttle();
+                postProgress(false);
+            }
+        }
+
+        /** Sleeps until the bytes written so far fit within the rate cap. */
+        private void throttle() throws IOException {
+            long maxBytesPerSecond = mRequest.getMaxUploadBytesPerSecond();
+            if (maxBytesPerSecond <= 0) {
+                return;
+            }
+            long dueMs = mStartMs + mWritten * 1000 / maxBytesPerSecond;
+            long waitMs;
+            while ((waitMs = dueMs - SystemClock.elapsedRealtime()) > 0) {
+                if (mRequest.isCanceled()) {
+                    throw new IOException("Upload canceled: " + mRequest.getUrl());
+                }
+                timeout().throwIfReached();
+                try {
+                    Thread.sleep(Math.min(waitMs, MAX_THROTTLE_SLEEP_MS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Upload interrupted");
+                }
+            }
+        }
+
+        void postProgress(boolean force) {
+            final ProgressListener listener = mRequest.getUploadProgressListener();
+            if (listener == null) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            if (!force && now - mLastProgressMs < mRequest.getUploadProgressIntervalMs()) {
+                return;
+            }
+            mLastProgressMs = now;
+            final long written = mWritten;
+            sMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mRequest.isCanceled()) {
+                        listener.onProgress(written, mTotal);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -23,8 +23,6 @@ import com.wz.wzvolley.RequestQueue;
 
 import java.io.File;
 
-import okhttp3.OkHttpClient;
-
 public class Volley {
 
     /** Default on-disk cache directory. */
@@ -40,9 +38,23 @@ public class Volley {
      * @return A started {@link RequestQueue} instance.
      */
     public static RequestQueue newRequestQueue(Context context) {
+        return newRequestQueue(context, null);
+    }
+
+    /**
+     * Creates a default instance of the worker pool and calls {@link RequestQueue#start()} on it.
+     *
+     * @param context A {@link Context} to use for creating the cache dir.
+     * @param stack An {@link HttpStack} to use for the network, or null for a default
+     *         {@link OkHttpStack}. Only used by the first call, which creates the queue.
+     * @return A started {@link RequestQueue} instance.
+     */
+    public static RequestQueue newRequestQueue(Context context, HttpStack stack) {
         if(queue == null) {
         	File cacheDir = new File(context.getCacheDir(), DEFAULT_CACHE_DIR);
-        	OkHttpStack stack = new OkHttpStack(new OkHttpClient());
+        	if (stack == null) {
+        	    stack = new OkHttpStack();
+        	}
             Network network = new BasicNetwork(stack);
             queue = new RequestQueue(new DiskBasedCache(cacheDir), network);
             queue.start();
@@ -0,0 +1,183 @@
+package com.wz.wzvolley;
+
+import com.wz.wzvolley.toolbox.DiskBasedCache;
+import com.wz.wzvolley.toolbox.StringRequest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class CacheVariantsTest {
+
+    private static final String URL = "http://example.com/greeting";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private DiskBasedCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mCache = new DiskBasedCache(temporaryFolder.getRoot());
+        mCache.initialize();
+    }
+
+    @Test
+    public void get_selectsVariantByVaryingHeader() throws Exception {
+        CacheVariants.put(mCache, newRequest("en"), newEntry("hello", "Accept-Language"));
+        CacheVariants.put(mCache, newRequest("fr"), newEntry("bonjour", "Accept-Language"));
+
+        assertEquals("hello", data(CacheVariants.get(mCache, newRequest("en"))));
+        assertEquals("bonjour", data(CacheVariants.get(mCache, newRequest("fr"))));
+        assertNull(CacheVariants.get(mCache, newRequest("de")));
+        // Header names and values are matched like HTTP does.
+        assertEquals("hello", data(CacheVariants.get(mCache,
+                newRequest("accept-language", " en "))));
+    }
+
+    @Test
+    public void get_readsIndexBackFromDisk() throws Exception {
+        CacheVariants.put(mCache, newRequest("en"), newEntry("hello", "Accept-Language"));
+
+        DiskBasedCache reopened = new DiskBasedCache(temporaryFolder.getRoot());
+        reopened.initialize();
+
+        Cache.Entry index = reopened.get(newRequest("en").getCacheKey());
+        assertTrue(index.isVariantIndex());
+        assertEquals("Accept-Language", index.responseHeaders.get(CacheVariants.INDEX_HEADER));
+        assertEquals(1, index.getVariantKeys().size());
+        assertEquals("hello", data(CacheVariants.get(reopened, newRequest("en"))));
+    }
+
+    @Test
+    public void get_returnsPlainEntryWithoutVary() throws Exception {
+        Cache.Entry entry = newEntry("plain", null);
+        CacheVariants.put(mCache, newRequest("en"), entry);
+        Cache.Entry stored = mCache.get(newRequest("en").getCacheKey());
+        assertFalse(stored.isVariantIndex());
+        assertTrue(stored.getVariantKeys().isEmpty());
+        assertEquals("plain", data(CacheVariants.get(mCache, newRequest("fr"))));
+    }
+
+    @Test
+    public void put_evictsOldestVariant() throws Exception {
+        String[] languages = { "en", "fr", "de", "it", "es" };
+        assertEquals(languages.length, CacheVariants.MAX_VARIANTS_PER_KEY + 1);
+        for (String language : languages) {
+            CacheVariants.put(mCache, newRequest(language),
+                    newEntry("hi-" + language, "Accept-Language"));
+        }
+
+        assertNull(CacheVariants.get(mCache, newRequest("en")));
+        for (int i = 1; i < languages.length; i++) {
+            assertEquals("hi-" + languages[i],
+                    data(CacheVariants.get(mCache, newRequest(languages[i]))));
+        }
+        assertEquals(CacheVariants.MAX_VARIANTS_PER_KEY,
+                mCache.get(newRequest("en").getCacheKey()).getVariantKeys().size());
+    }
+
+    @Test
+    public void put_replacingVariantKeepsIt() throws Exception {
+        CacheVariants.put(mCache, newRequest("en"), newEntry("hello", "Accept-Language"));
+        CacheVariants.put(mCache, newRequest("en"), newEntry("hi", "Accept-Language"));
+        assertEquals("hi", data(CacheVariants.get(mCache, newRequest("en"))));
+        assertEquals(1, mCache.get(newRequest("en").getCacheKey()).getVariantKeys().size());
+    }
+
+    @Test
+    public void put_dropsVariantsWhenVaryChanges() throws Exception {
+        CacheVariants.put(mCache, newRequest("en"), newEntry("hello", "Accept-Language"));
+        List<String> oldKeys = mCache.get(newRequest("en").getCacheKey()).getVariantKeys();
+
+        CacheVariants.put(mCache, newRequest("en"), newEntry("hello", "Accept-Encoding"));
+
+        assertNull(mCache.get(oldKeys.get(0)));
+    }
+
+    @Test
+    public void put_skipsVaryStar() throws Exception {
+        CacheVariants.put(mCache, newRequest("en"), newEntry("hello", "*"));
+        assertNull(mCache.get(newRequest("en").getCacheKey()));
+    }
+
+    @Test
+    public void invalidate_expiresVariantsToo() throws Exception {
+        CacheVariants.put(mCache, newRequest("en"), newEntry("hello", "Accept-Language"));
+        CacheVariants.put(mCache, newRequest("fr"), newEntry("bonjour", "Accept-Language"));
+
+        mCache.invalidate(newRequest("en").getCacheKey(), true);
+
+        Cache.Entry en = CacheVariants.get(mCache, newRequest("en"));
+        assertTrue(en.isExpired());
+        assertTrue(en.refreshNeeded());
+        assertTrue(CacheVariants.get(mCache, newRequest("fr")).isExpired());
+    }
+
+    @Test
+    public void invalidate_softExpiresVariants() throws Exception {
+        CacheVariants.put(mCache, newRequest("en"), newEntry("hello", "Accept-Language"));
+
+        mCache.invalidate(newRequest("en").getCacheKey(), false);
+
+        Cache.Entry en = CacheVariants.get(mCache, newRequest("en"));
+        assertTrue(en.refreshNeeded());
+        assertFalse(en.isExpired());
+    }
+
+    @Test
+    public void remove_removesVariantsToo() throws Exception {
+        CacheVariants.put(mCache, newRequest("en"), newEntry("hello", "Accept-Language"));
+        CacheVariants.put(mCache, newRequest("fr"), newEntry("bonjour", "Accept-Language"));
+        String key = newRequest("en").getCacheKey();
+        List<String> variantKeys = mCache.get(key).getVariantKeys();
+        assertEquals(2, variantKeys.size());
+
+        mCache.remove(key);
+
+        assertNull(mCache.get(key));
+        for (String variantKey : variantKeys) {
+            assertNull(mCache.get(variantKey));
+        }
+    }
+
+    private static Request<?> newRequest(String language) {
+        return newRequest("Accept-Language", language);
+    }
+
+    private static Request<?> newRequest(String headerName, String language) {
+        final Map<String, String> headers = Collections.singletonMap(headerName, language);
+        return new StringRequest(URL, null, null, null) {
+            @Override
+            public Map<String, String> getHeaders() {
+                return headers;
+            }
+        };
+    }
+
+    private static Cache.Entry newEntry(String data, String vary) throws Exception {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = data.getBytes("UTF-8");
+        entry.ttl = System.currentTimeMillis() + 60 * 1000;
+        entry.softTtl = entry.ttl;
+        Map<String, String> headers = new HashMap<String, String>();
+        if (vary != null) {
+            headers.put("Vary", vary);
+        }
+        entry.responseHeaders = headers;
+        return entry;
+    }
+
+    private static String data(Cache.Entry entry) throws Exception {
+        assertNotNull(entry);
+        return new String(entry.data, "UTF-8");
+    }
+}
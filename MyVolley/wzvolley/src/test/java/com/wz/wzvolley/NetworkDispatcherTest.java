@@ -0,0 +1,268 @@
+package com.wz.wzvolley;
+
+import com.wz.wzvolley.toolbox.NoCache;
+import com.wz.wzvolley.toolbox.StringRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NetworkDispatcherTest {
+
+    private final BlockingQueue<Request<?>> mQueue = new LinkedBlockingQueue<Request<?>>();
+    private final BlockingQueue<Object> mDelivered = new LinkedBlockingQueue<Object>();
+    private final FakeNetwork mNetwork = new FakeNetwork();
+    private final RetryBudget mBudget = new RetryBudget(0.5f, 1);
+    private NetworkDispatcher mDispatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        mDispatcher = new NetworkDispatcher(mQueue, mNetwork, new NoCache(),
+                new RecordingDelivery(), null, mBudget);
+        mDispatcher.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDispatcher.quit();
+    }
+
+    @Test
+    public void networkResponsesEarnTokens() throws Exception {
+        mNetwork.response = new NetworkResponse("ok".getBytes());
+        assertTrue(dispatch(newRequest()) instanceof Response);
+        assertEquals(1, mBudget.getSuccessCount());
+
+        mNetwork.response = new NetworkResponse(HttpStatus.SC_NOT_MODIFIED, "ok".getBytes(),
+                Collections.<String, String>emptyMap(), true);
+        assertTrue(dispatch(newRequest()) instanceof Response);
+        assertEquals(2, mBudget.getSuccessCount());
+    }
+
+    @Test
+    public void batchedResponsesEarnTokensLikeOthers() throws Exception {
+        Request<?> request = newRequest();
+        request.setBatchResponse(new NetworkResponse("ok".getBytes()));
+        assertTrue(dispatch(request) instanceof Response);
+        assertEquals(0, mNetwork.calls);
+        assertEquals(1, mBudget.getSuccessCount());
+
+        Request<?> failed = newRequest();
+        failed.setBatchResponse(new NetworkResponse(500, null,
+                Collections.<String, String>emptyMap(), false));
+        assertTrue(dispatch(failed) instanceof ServerError);
+        assertEquals(1, mBudget.getSuccessCount());
+    }
+
+    @Test
+    public void retriesStopWhenTheBudgetIsSpent() throws Exception {
+        mNetwork.error = new RetryScheduledError(0, new TimeoutError());
+        // One token to start with: one retry, then the error of the last attempt.
+        assertTrue(dispatch(newRequest()) instanceof TimeoutError);
+        assertEquals(2, mNetwork.calls);
+        assertEquals(1, mBudget.getRetryCount());
+        assertEquals(1, mBudget.getExhaustedCount());
+    }
+
+    @Test
+    public void retriesAreDeferredToTheDispatcher() throws Exception {
+        mNetwork.response = new NetworkResponse("ok".getBytes());
+        Request<?> request = newRequest();
+        dispatch(request);
+        assertTrue(request.isRetryDeferred());
+    }
+
+    @Test
+    public void retriesGoThroughTheScheduler() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(mQueue);
+        restartDispatcher(scheduler);
+        mNetwork.error = new RetryScheduledError(0, new TimeoutError());
+        mNetwork.response = new NetworkResponse("ok".getBytes());
+        mNetwork.failures = 1;
+
+        assertTrue(dispatch(newRequest()) instanceof Response);
+        assertEquals(2, mNetwork.calls);
+        scheduler.quit();
+    }
+
+    @Test
+    public void retryAfterTheSchedulerQuitDeliversTheError() throws Exception {
+        RequestScheduler scheduler = new RequestScheduler(mQueue);
+        scheduler.quit();
+        restartDispatcher(scheduler);
+        mNetwork.error = new RetryScheduledError(0, new TimeoutError());
+
+        assertTrue(dispatch(newRequest()) instanceof TimeoutError);
+        // The dispatcher lives on.
+        mNetwork.error = null;
+        mNetwork.response = new NetworkResponse("ok".getBytes());
+        assertTrue(dispatch(newRequest()) instanceof Response);
+    }
+
+    @Test
+    public void stoppingTheQueueDuringACallDeliversItsError() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        Network network = new Network() {
+            @Override
+            public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+                started.countDown();
+                try {
+                    Thread.sleep(60 * 1000);
+                } catch (InterruptedException e) {
+                    // What an interrupted call comes to in BasicNetwork.
+                    throw new RetryScheduledError(0, new TimeoutError());
+                }
+                throw new AssertionError("not interrupted");
+            }
+        };
+        RequestQueue queue = new RequestQueue(new NoCache(), network, 1,
+                new RecordingDelivery());
+        queue.start();
+        Request<?> request = newRequest();
+        request.setShouldCache(false);
+        queue.add(request);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        queue.stop();
+
+        Object result = mDelivered.poll(5, TimeUnit.SECONDS);
+        assertTrue("delivered " + result, result instanceof TimeoutError);
+    }
+
+    @Test
+    public void timeoutDeliversStaleEntryWithinMaxStale() throws Exception {
+        mNetwork.error = new TimeoutError();
+        Request<?> request = newRequest().setMaxStaleOnErrorMs(60 * 1000);
+        request.setCacheEntry(newExpiredEntry(1000));
+
+        Object result = dispatch(request);
+
+        assertTrue(result instanceof Response);
+        assertEquals("stale", ((Response<?>) result).result);
+        assertTrue(request.isResponseStale());
+    }
+
+    @Test
+    public void serverErrorDeliversStaleEntry() throws Exception {
+        mNetwork.error = new ServerError(new NetworkResponse(503, null,
+                Collections.<String, String>emptyMap(), false));
+        Request<?> request = newRequest().setMaxStaleOnErrorMs(60 * 1000);
+        request.setCacheEntry(newExpiredEntry(1000));
+
+        assertTrue(dispatch(request) instanceof Response);
+        assertTrue(request.isResponseStale());
+    }
+
+    @Test
+    public void staleIfErrorDirectiveAllowsStaleEntry() throws Exception {
+        mNetwork.error = new NoConnectionError();
+        Cache.Entry entry = newExpiredEntry(10 * 60 * 1000);
+        entry.staleIfErrorTtl = System.currentTimeMillis() + 60 * 1000;
+        Request<?> request = newRequest();
+        request.setCacheEntry(entry);
+
+        assertTrue(dispatch(request) instanceof Response);
+    }
+
+    @Test
+    public void clientErrorRefusesStaleEntry() throws Exception {
+        mNetwork.error = new ServerError(new NetworkResponse(404, null,
+                Collections.<String, String>emptyMap(), false));
+        Request<?> request = newRequest().setMaxStaleOnErrorMs(60 * 1000);
+        request.setCacheEntry(newExpiredEntry(1000));
+
+        assertTrue(dispatch(request) instanceof ServerError);
+        assertFalse(request.isResponseStale());
+    }
+
+    @Test
+    public void entryPastMaxStaleIsRefused() throws Exception {
+        mNetwork.error = new TimeoutError();
+        Request<?> request = newRequest().setMaxStaleOnErrorMs(60 * 1000);
+        request.setCacheEntry(newExpiredEntry(2 * 60 * 1000));
+
+        assertTrue(dispatch(request) instanceof TimeoutError);
+        assertFalse(request.isResponseStale());
+    }
+
+    @Test
+    public void staleEntryIsNotServedTwice() throws Exception {
+        mNetwork.error = new TimeoutError();
+        Request<?> request = newRequest().setMaxStaleOnErrorMs(60 * 1000);
+        request.setCacheEntry(newExpiredEntry(1000));
+        // The cache already delivered it while refreshing.
+        request.markDelivered();
+
+        assertTrue(dispatch(request) instanceof TimeoutError);
+    }
+
+    /** Returns a cached "stale" body that expired the given time ago. */
+    private static Cache.Entry newExpiredEntry(long expiredAgoMs) throws Exception {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = "stale".getBytes("UTF-8");
+        entry.ttl = System.currentTimeMillis() - expiredAgoMs;
+        entry.softTtl = entry.ttl;
+        return entry;
+    }
+
+    private void restartDispatcher(RequestScheduler scheduler) throws InterruptedException {
+        mDispatcher.quit();
+        mDispatcher.join();
+        mDispatcher = new NetworkDispatcher(mQueue, mNetwork, new NoCache(),
+                new RecordingDelivery(), scheduler, null);
+        mDispatcher.start();
+    }
+
+    private Object dispatch(Request<?> request) throws InterruptedException {
+        mQueue.add(request);
+        Object result = mDelivered.poll(5, TimeUnit.SECONDS);
+        assertNotNull("nothing delivered", result);
+        return result;
+    }
+
+    private static Request<?> newRequest() {
+        return new StringRequest("http://example.com/", null, null, null);
+    }
+
+    private static class FakeNetwork implements Network {
+        volatile NetworkResponse response;
+        volatile VolleyError error;
+        volatile int calls;
+        /** Calls failing with the error before the response is given, or -1 for all. */
+        volatile int failures = -1;
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+            calls++;
+            if (error != null && (failures < 0 || calls <= failures)) {
+                throw error;
+            }
+            return response;
+        }
+    }
+
+    private class RecordingDelivery implements ResponseDelivery {
+        @Override
+        public void postResponse(Request<?> request, Response<?> response) {
+            mDelivered.add(response);
+        }
+
+        @Override
+        public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
+            mDelivered.add(response);
+        }
+
+        @Override
+        public void postError(Request<?> request, VolleyError error) {
+            mDelivered.add(error);
+        }
+    }
+}
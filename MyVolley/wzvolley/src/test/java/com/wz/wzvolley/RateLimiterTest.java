@@ -0,0 +1,62 @@
+package com.wz.wzvolley;
+
+import com.wz.wzvolley.toolbox.NoCache;
+import com.wz.wzvolley.toolbox.StringRequest;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RateLimiterTest {
+
+    @Test
+    public void reserve_burstIsFree() throws Exception {
+        RateLimiter limiter = new RateLimiter(10, 3);
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(0, limiter.reserve());
+        assertEquals(3, limiter.getPermitCount());
+        assertEquals(0, limiter.getDelayedCount());
+    }
+
+    @Test
+    public void reserve_spacesPermitsAfterBurst() throws Exception {
+        RateLimiter limiter = new RateLimiter(10, 2);
+        limiter.reserve();
+        limiter.reserve();
+
+        long first = limiter.reserve();
+        long second = limiter.reserve();
+        assertTrue("waited " + first, first > 50 && first <= 100);
+        assertTrue("waited " + second, second > 150 && second <= 200);
+        assertEquals(2, limiter.getDelayedCount());
+    }
+
+    @Test
+    public void reserve_withoutBurst() throws Exception {
+        RateLimiter limiter = new RateLimiter(2);
+        assertEquals(0, limiter.reserve());
+        long wait = limiter.reserve();
+        assertTrue("waited " + wait, wait > 450 && wait <= 500);
+    }
+
+    @Test
+    public void requestQueue_longestUrlPrefixWins() throws Exception {
+        RequestQueue queue = new RequestQueue(new NoCache(), null, 1, null);
+        RateLimiter api = new RateLimiter(10);
+        RateLimiter search = new RateLimiter(1);
+        queue.setRateLimiter("https://api.example.com/", api);
+        queue.setRateLimiter("https://api.example.com/v1/search", search);
+
+        assertSame(search, queue.getRateLimiter(newRequest("https://api.example.com/v1/search?q=a")));
+        assertSame(api, queue.getRateLimiter(newRequest("https://api.example.com/v1/items")));
+        assertNull(queue.getRateLimiter(newRequest("https://cdn.example.com/a.png")));
+
+        queue.setRateLimiter("https://api.example.com/v1/search", null);
+        assertSame(api, queue.getRateLimiter(newRequest("https://api.example.com/v1/search?q=a")));
+    }
+
+    private static Request<?> newRequest(String url) {
+        return new StringRequest(url, null, null, null);
+    }
+}
@@ -0,0 +1,213 @@
+package com.wz.wzvolley;
+
+import com.wz.wzvolley.toolbox.NoCache;
+import com.wz.wzvolley.toolbox.StringRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RequestBatcherTest {
+
+    private static final String BATCH_URL = "http://example.com/batch";
+
+    private final BlockingQueue<Object> mDelivered = new LinkedBlockingQueue<Object>();
+    private final EchoNetwork mNetwork = new EchoNetwork();
+    private RequestQueue mQueue;
+    private RequestBatcher mBatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        mQueue = new RequestQueue(new NoCache(), mNetwork, 2, new RecordingDelivery());
+        mBatcher = new RequestBatcher(BATCH_URL, new LineCodec()).setWindowMs(50);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mQueue.stop();
+    }
+
+    @Test
+    public void sendsRequestsOfTheWindowAsOneCall() throws Exception {
+        mQueue.setRequestBatcher(mBatcher);
+        mQueue.start();
+
+        mQueue.add(newRequest("http://example.com/a"));
+        mQueue.add(newRequest("http://example.com/b"));
+
+        Set<Object> bodies = new HashSet<Object>();
+        bodies.add(take());
+        bodies.add(take());
+        assertTrue(bodies.contains("http://example.com/a"));
+        assertTrue(bodies.contains("http://example.com/b"));
+        assertEquals(1, mNetwork.batchCalls.get());
+        assertEquals(0, mNetwork.singleCalls.get());
+        assertEquals(1, mBatcher.getBatchCount());
+        assertEquals(2, mBatcher.getBatchedRequestCount());
+    }
+
+    @Test
+    public void batchesOnAQueueAlreadyRunning() throws Exception {
+        mQueue.start();
+        mQueue.setRequestBatcher(mBatcher);
+
+        mQueue.add(newRequest("http://example.com/a"));
+        mQueue.add(newRequest("http://example.com/b"));
+        take();
+        take();
+
+        assertEquals(1, mNetwork.batchCalls.get());
+    }
+
+    @Test
+    public void fullBatchIsSentAtOnce() throws Exception {
+        mBatcher.setWindowMs(60 * 1000).setMaxBatchSize(2);
+        mQueue.setRequestBatcher(mBatcher);
+        mQueue.start();
+
+        mQueue.add(newRequest("http://example.com/a"));
+        mQueue.add(newRequest("http://example.com/b"));
+        take();
+        take();
+
+        assertEquals(1, mNetwork.batchCalls.get());
+    }
+
+    @Test
+    public void loneRequestIsSentAlone() throws Exception {
+        mQueue.setRequestBatcher(mBatcher);
+        mQueue.start();
+
+        mQueue.add(newRequest("http://example.com/a"));
+
+        assertEquals("http://example.com/a", take());
+        assertEquals(0, mNetwork.batchCalls.get());
+        assertEquals(1, mNetwork.singleCalls.get());
+    }
+
+    @Test
+    public void partsWithoutResponseAreSentAlone() throws Exception {
+        mQueue.setRequestBatcher(mBatcher);
+        mQueue.start();
+
+        mQueue.add(newRequest("http://example.com/a"));
+        mQueue.add(newRequest("http://example.com/skip"));
+        take();
+        take();
+
+        assertEquals(1, mNetwork.batchCalls.get());
+        assertEquals(1, mNetwork.singleCalls.get());
+    }
+
+    @Test
+    public void offerFailsUnlessRunning() throws Exception {
+        mQueue.setRequestBatcher(mBatcher);
+        Request<?> request = newRequest("http://example.com/a");
+        assertFalse(mBatcher.offer(request));
+
+        mQueue.start();
+        assertTrue(mBatcher.offer(request));
+
+        // A stopped queue sends nothing more; offers must not throw or strand requests.
+        mQueue.stop();
+        assertFalse(mBatcher.offer(newRequest("http://example.com/b")));
+    }
+
+    private Object take() throws InterruptedException {
+        Object result = mDelivered.poll(5, TimeUnit.SECONDS);
+        assertNotNull("nothing delivered", result);
+        return result;
+    }
+
+    private static Request<?> newRequest(String url) {
+        Request<?> request = new StringRequest(url, null, null, null);
+        request.setShouldCache(false);
+        return request;
+    }
+
+    /**
+     * Batch bodies are the URLs of the requests, one per line. The response repeats
+     * them, except for URLs ending in "skip".
+     */
+    private static class LineCodec implements RequestBatcher.Codec {
+        @Override
+        public boolean canBatch(Request<?> request) {
+            return !request.getUrl().equals(BATCH_URL);
+        }
+
+        @Override
+        public String getBodyContentType() {
+            return "text/plain";
+        }
+
+        @Override
+        public byte[] encode(List<Request<?>> requests) {
+            StringBuilder builder = new StringBuilder();
+            for (Request<?> request : requests) {
+                builder.append(request.getUrl()).append('\n');
+            }
+            return builder.toString().getBytes();
+        }
+
+        @Override
+        public List<NetworkResponse> decode(NetworkResponse response,
+                List<Request<?>> requests) {
+            List<NetworkResponse> responses = new ArrayList<NetworkResponse>();
+            for (String line : new String(response.data).split("\n")) {
+                responses.add(line.endsWith("skip") ? null : new NetworkResponse(line.getBytes()));
+            }
+            return responses;
+        }
+    }
+
+    /** Answers each request with its URL, and batch calls with their body. */
+    private static class EchoNetwork implements Network {
+        final AtomicInteger batchCalls = new AtomicInteger();
+        final AtomicInteger singleCalls = new AtomicInteger();
+
+        @Override
+        public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+            if (request.getUrl().equals(BATCH_URL)) {
+                batchCalls.incrementAndGet();
+                return new NetworkResponse(request.getBodyBytes(), new HashMap<String, String>());
+            }
+            singleCalls.incrementAndGet();
+            return new NetworkResponse(request.getUrl().getBytes());
+        }
+    }
+
+    private class RecordingDelivery implements ResponseDelivery {
+        @Override
+        public void postResponse(Request<?> request, Response<?> response) {
+            postResponse(request, response, null);
+        }
+
+        @Override
+        public void postResponse(Request<?> request, Response<?> response, Runnable runnable) {
+            // The call carrying a batch delivers nothing of its own.
+            if (response.result != null) {
+                mDelivered.add(response.result);
+            }
+            if (runnable != null) {
+                runnable.run();
+            }
+        }
+
+        @Override
+        public void postError(Request<?> request, VolleyError error) {
+            mDelivered.add(error);
+        }
+    }
+}
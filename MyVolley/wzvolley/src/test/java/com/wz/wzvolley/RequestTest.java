@@ -0,0 +1,106 @@
+package com.wz.wzvolley;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RequestTest {
+
+    @Test
+    public void getUrl_sortsQueryAndNormalizesBase() throws Exception {
+        TestRequest request = new TestRequest("HTTP://Example.COM:80/a/b?z=1&a=2#frag");
+        assertEquals("http://example.com/a/b?a=2&z=1", request.getUrl());
+    }
+
+    @Test
+    public void getUrl_keepsNonDefaultPortAndAddsRootPath() throws Exception {
+        assertEquals("https://example.com:8443/", new TestRequest("https://example.com:8443").getUrl());
+        assertEquals("https://example.com/", new TestRequest("https://EXAMPLE.com:443").getUrl());
+    }
+
+    @Test
+    public void getUrl_keepsOrderOfRepeatedNames() throws Exception {
+        TestRequest request = new TestRequest("http://example.com/?b=1&a=2&b=0");
+        assertEquals("http://example.com/?a=2&b=1&b=0", request.getUrl());
+    }
+
+    @Test
+    public void getUrl_mergesEncodedUrlParams() throws Exception {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("q", "a b");
+        params.put("page", "2");
+        TestRequest request = new TestRequest("http://example.com/search?lang=en", params);
+        assertEquals("http://example.com/search?lang=en&page=2&q=a+b", request.getUrl());
+    }
+
+    @Test
+    public void getUrl_isIndependentOfParamOrder() throws Exception {
+        Map<String, String> first = new LinkedHashMap<String, String>();
+        first.put("x", "1");
+        first.put("y", "2");
+        Map<String, String> second = new LinkedHashMap<String, String>();
+        second.put("y", "2");
+        second.put("x", "1");
+        assertEquals(new TestRequest("http://example.com/", first).getCacheKey(),
+                new TestRequest("http://example.com/", second).getCacheKey());
+    }
+
+    @Test
+    public void getUrl_isMemoized() throws Exception {
+        TestRequest request = new TestRequest("http://example.com/", new LinkedHashMap<String, String>());
+        request.getUrl();
+        request.getUrl();
+        request.getCacheKey();
+        assertEquals(1, request.urlParamsCalls);
+    }
+
+    @Test
+    public void getCacheKey_dropsIgnoredParams() throws Exception {
+        TestRequest request = new TestRequest("http://example.com/feed?_=12345&id=7&utm_source=x");
+        assertEquals("http://example.com/feed?_=12345&id=7&utm_source=x", request.getCacheKey());
+        request.setIgnoredCacheKeyParams("_", "utm_source");
+        assertEquals("http://example.com/feed?id=7", request.getCacheKey());
+        assertEquals("http://example.com/feed?_=12345&id=7&utm_source=x", request.getUrl());
+    }
+
+    @Test
+    public void getCacheKey_ignoringEveryParamDropsQuery() throws Exception {
+        TestRequest request = new TestRequest("http://example.com/feed?_=1");
+        request.setIgnoredCacheKeyParams("_");
+        assertEquals("http://example.com/feed", request.getCacheKey());
+        request.setIgnoredCacheKeyParams();
+        assertEquals("http://example.com/feed?_=1", request.getCacheKey());
+    }
+
+    private static class TestRequest extends Request<String> {
+        private final Map<String, String> mParams;
+        int urlParamsCalls;
+
+        TestRequest(String url) {
+            this(url, null);
+        }
+
+        TestRequest(String url, Map<String, String> params) {
+            super(Method.GET, url, null);
+            mParams = params;
+        }
+
+        @Override
+        public Map<String, String> getUrlParams() {
+            urlParamsCalls++;
+            return mParams;
+        }
+
+        @Override
+        protected Response<String> parseNetworkResponse(NetworkResponse response) {
+            return null;
+        }
+
+        @Override
+        protected void deliverResponse(String response) {
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.wz.wzvolley;
+
+import com.wz.wzvolley.toolbox.NoCache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void startsFull() throws Exception {
+        RetryBudget budget = new RetryBudget(0.1f, 3);
+        assertEquals(3f, budget.getTokens(), 0f);
+        assertTrue(budget.tryAcquireRetry());
+        assertTrue(budget.tryAcquireRetry());
+        assertTrue(budget.tryAcquireRetry());
+        assertFalse(budget.tryAcquireRetry());
+        assertEquals(3, budget.getRetryCount());
+        assertEquals(1, budget.getExhaustedCount());
+    }
+
+    @Test
+    public void successesEarnRetries() throws Exception {
+        RetryBudget budget = new RetryBudget(0.25f, 1);
+        assertTrue(budget.tryAcquireRetry());
+
+        for (int i = 0; i < 3; i++) {
+            budget.onSuccess();
+            assertFalse(budget.tryAcquireRetry());
+        }
+        budget.onSuccess();
+        assertTrue(budget.tryAcquireRetry());
+        assertEquals(4, budget.getSuccessCount());
+    }
+
+    @Test
+    public void tokensAreCapped() throws Exception {
+        RetryBudget budget = new RetryBudget(0.5f, 2);
+        for (int i = 0; i < 10; i++) {
+            budget.onSuccess();
+        }
+        assertEquals(2f, budget.getTokens(), 0f);
+    }
+
+    @Test
+    public void requestQueue_hasNoBudgetByDefault() throws Exception {
+        RequestQueue queue = new RequestQueue(new NoCache(), null, 1, null);
+        assertNull(queue.getRetryBudget());
+
+        RetryBudget budget = new RetryBudget();
+        queue.setRetryBudget(budget);
+        assertSame(budget, queue.getRetryBudget());
+    }
+}
@@ -0,0 +1,152 @@
+package com.wz.wzvolley;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RttEstimatorTest {
+
+    @Test
+    public void getTimeoutMs_initialBeforeAnySample() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+        assertEquals(2500, estimator.getTimeoutMs(2500, 1000, 20000));
+        assertEquals(-1, estimator.getSmoothedRttMs());
+        assertEquals(0, estimator.getSampleCount());
+    }
+
+    @Test
+    public void addSample_followsRfc6298() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+
+        estimator.addSample(100);
+        assertEquals(100, estimator.getSmoothedRttMs());
+        assertEquals(50, estimator.getRttVarianceMs());
+        assertEquals(300, estimator.getTimeoutMs(2500, 0, 20000));
+
+        estimator.addSample(200);
+        // var = 3/4 * 50 + 1/4 * |100 - 200|, srtt = 7/8 * 100 + 1/8 * 200
+        assertEquals(112, estimator.getSmoothedRttMs());
+        assertEquals(62, estimator.getRttVarianceMs());
+        assertEquals(362, estimator.getTimeoutMs(2500, 0, 20000));
+        assertEquals(2, estimator.getSampleCount());
+    }
+
+    @Test
+    public void addSample_ignoresNegativeTimes() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+        estimator.addSample(-5);
+        assertEquals(0, estimator.getSampleCount());
+    }
+
+    @Test
+    public void getTimeoutMs_staysWithinBounds() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+        estimator.addSample(10);
+        assertEquals(1000, estimator.getTimeoutMs(2500, 1000, 20000));
+        estimator.addSample(60000);
+        assertEquals(20000, estimator.getTimeoutMs(2500, 1000, 20000));
+    }
+
+    @Test
+    public void forHost_sharesEstimatorIgnoringCase() throws Exception {
+        assertSame(RttEstimator.forHost("Rtt.Example.com"), RttEstimator.forHost("rtt.example.com"));
+        assertNotSame(RttEstimator.forHost("a.rtt.example.com"),
+                RttEstimator.forHost("b.rtt.example.com"));
+    }
+
+    @Test
+    public void forHost_keepsOnlyRecentHosts() throws Exception {
+        RttEstimator first = RttEstimator.forHost("first.lru.example.com");
+        RttEstimator recent = RttEstimator.forHost("recent.lru.example.com");
+        for (int i = 0; i < RttEstimator.MAX_HOSTS; i++) {
+            RttEstimator.forHost("host" + i + ".lru.example.com");
+            // Keep one host in use so it is not the eldest.
+            RttEstimator.forHost("recent.lru.example.com");
+        }
+        assertSame(recent, RttEstimator.forHost("recent.lru.example.com"));
+        assertNotSame(first, RttEstimator.forHost("first.lru.example.com"));
+    }
+
+    @Test
+    public void onTimeout_doublesTimeoutUntilNextSample() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+        estimator.addSample(10);
+        assertEquals(1000, estimator.getTimeoutMs(2500, 1000, 20000));
+
+        // Doubles from the floor, not from the tiny estimate under it.
+        estimator.onTimeout();
+        assertEquals(2000, estimator.getTimeoutMs(2500, 1000, 20000));
+        for (int i = 0; i < 40; i++) {
+            estimator.onTimeout();
+        }
+        assertEquals(20000, estimator.getTimeoutMs(2500, 1000, 20000));
+
+        estimator.addSample(10);
+        assertEquals(0, estimator.getBackoffCount());
+        assertEquals(1000, estimator.getTimeoutMs(2500, 1000, 20000));
+    }
+
+    @Test
+    public void onTimeout_backsOffInitialTimeout() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+        estimator.onTimeout();
+        assertEquals(5000, estimator.getTimeoutMs(2500, 1000, 20000));
+    }
+
+    @Test
+    public void adaptiveRetryPolicy_recoversWhenHostSlowsDown() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+        for (int i = 0; i < 20; i++) {
+            estimator.addSample(50);
+        }
+        // The host now takes 3 s to answer; every request gets one retry.
+        long slowRttMs = 3000;
+        int requests = 0;
+        boolean answered = false;
+        while (!answered && requests < 10) {
+            requests++;
+            AdaptiveRetryPolicy policy = new AdaptiveRetryPolicy(estimator, 2500, 1000, 20000, 1);
+            try {
+                while (policy.getCurrentTimeout() < slowRttMs) {
+                    policy.retry(new TimeoutError());
+                }
+                estimator.addSample(slowRttMs);
+                answered = true;
+            } catch (TimeoutError e) {
+                // Out of retries; the next request tries again.
+            }
+        }
+        assertTrue(answered);
+        // 1000 ms timed out, then 2000 ms did too, giving up on the first request.
+        assertEquals(2, requests);
+        assertTrue(estimator.getTimeoutMs(2500, 1000, 20000) >= slowRttMs);
+    }
+
+    @Test
+    public void adaptiveRetryPolicy_otherErrorsDoNotBackOff() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+        estimator.addSample(100);
+        AdaptiveRetryPolicy policy = new AdaptiveRetryPolicy(estimator, 2500, 0, 1000, 2);
+        policy.retry(new ServerError());
+        assertEquals(300, policy.getCurrentTimeout());
+        assertEquals(0, estimator.getBackoffCount());
+    }
+
+    @Test
+    public void adaptiveRetryPolicy_doublesTimeoutPerRetry() throws Exception {
+        RttEstimator estimator = new RttEstimator();
+        estimator.addSample(100);
+        AdaptiveRetryPolicy policy = new AdaptiveRetryPolicy(estimator, 2500, 0, 1000, 2);
+
+        assertEquals(300, policy.getCurrentTimeout());
+        policy.retry(new TimeoutError());
+        assertEquals(600, policy.getCurrentTimeout());
+        policy.retry(new TimeoutError());
+        assertEquals(1000, policy.getCurrentTimeout());
+        try {
+            policy.retry(new TimeoutError());
+            fail("expected the retries to run out");
+        } catch (TimeoutError expected) {
+        }
+    }
+}
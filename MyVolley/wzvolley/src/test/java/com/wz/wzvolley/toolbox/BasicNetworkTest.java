@@ -0,0 +1,314 @@
+package com.wz.wzvolley.toolbox;
+
+import com.wz.wzvolley.AdaptiveRetryPolicy;
+import com.wz.wzvolley.CanceledError;
+import com.wz.wzvolley.CircuitOpenError;
+import com.wz.wzvolley.DefaultRetryPolicy;
+import com.wz.wzvolley.NetworkError;
+import com.wz.wzvolley.NetworkResponse;
+import com.wz.wzvolley.Request;
+import com.wz.wzvolley.RetryScheduledError;
+import com.wz.wzvolley.RttEstimator;
+import com.wz.wzvolley.ServerError;
+import com.wz.wzvolley.TimeoutError;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+public class BasicNetworkTest {
+
+    @Test
+    public void performRequest_canceledStreamIsNotANetworkError() throws Exception {
+        BasicNetwork network = new BasicNetwork(new FakeStack(200, "0123456789"));
+        CancelingStreamRequest request = new CancelingStreamRequest("http://example.com/file");
+
+        try {
+            network.performRequest(request);
+            fail("expected a CanceledError");
+        } catch (CanceledError expected) {
+            assertTrue(request.isCanceled());
+        }
+    }
+
+    @Test
+    public void performRequest_canceledStreamIsNotAHostFailure() throws Exception {
+        BasicNetwork network = new BasicNetwork(new FakeStack(200, "0123456789"))
+                .setCircuitBreakerConfig(new CircuitBreaker.Config().setMinimumCalls(1));
+
+        try {
+            network.performRequest(new CancelingStreamRequest("http://example.com/file"));
+            fail("expected a CanceledError");
+        } catch (CanceledError expected) {
+        }
+        assertEquals(CircuitBreaker.State.CLOSED,
+                network.getCircuitBreaker(newStringRequest().getHost()).getState());
+    }
+
+    @Test
+    public void performRequest_runtimeExceptionIsAHostFailure() throws Exception {
+        BasicNetwork network = new BasicNetwork(new HttpStack() {
+            @Override
+            public okhttp3.Response performRequest(Request<?> request,
+                    Map<String, String> additionalHeaders) {
+                throw new IllegalStateException("stack broke");
+            }
+        }).setCircuitBreakerConfig(new CircuitBreaker.Config().setMinimumCalls(1));
+
+        try {
+            network.performRequest(newStringRequest());
+            fail("expected the exception to propagate");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(CircuitBreaker.State.OPEN,
+                network.getCircuitBreaker(newStringRequest().getHost()).getState());
+    }
+
+    @Test
+    public void performRequest_serverErrorsOpenTheCircuit() throws Exception {
+        FakeStack stack = new FakeStack(500, "down");
+        BasicNetwork network = new BasicNetwork(stack).setCircuitBreakerConfig(
+                new CircuitBreaker.Config().setMinimumCalls(2).setOpenDurationMs(60000));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                network.performRequest(newStringRequest());
+                fail("expected a ServerError");
+            } catch (ServerError expected) {
+            }
+        }
+        try {
+            network.performRequest(newStringRequest());
+            fail("expected a CircuitOpenError");
+        } catch (CircuitOpenError expected) {
+        }
+        assertEquals(2, stack.calls);
+    }
+
+    @Test
+    public void performRequest_clientErrorsAreNotHostFailures() throws Exception {
+        BasicNetwork network = new BasicNetwork(new FakeStack(404, "missing"))
+                .setCircuitBreakerConfig(new CircuitBreaker.Config().setMinimumCalls(1));
+
+        try {
+            network.performRequest(newStringRequest());
+            fail("expected a ServerError");
+        } catch (ServerError expected) {
+        }
+        assertEquals(CircuitBreaker.State.CLOSED,
+                network.getCircuitBreaker(newStringRequest().getHost()).getState());
+    }
+
+    @Test
+    public void performRequest_failingStreamIsANetworkError() throws Exception {
+        BasicNetwork network = new BasicNetwork(new FakeStack(200, "0123456789"));
+        CancelingStreamRequest request = new CancelingStreamRequest("http://example.com/file");
+        request.mCancel = false;
+
+        try {
+            network.performRequest(request);
+            fail("expected a NetworkError");
+        } catch (CanceledError e) {
+            fail("not canceled");
+        } catch (NetworkError expected) {
+        }
+    }
+
+    @Test
+    public void performRequest_samplesRttOnlyForAdaptivePolicies() throws Exception {
+        BasicNetwork network = new BasicNetwork(new FakeStack(200, "ok"));
+        RttEstimator estimator = new RttEstimator();
+
+        network.performRequest(newStringRequest());
+        assertEquals(0, estimator.getSampleCount());
+
+        Request<?> request = newStringRequest();
+        request.setRetryPolicy(new AdaptiveRetryPolicy(estimator, 2500, 1000, 20000, 1));
+        network.performRequest(request);
+        assertEquals(1, estimator.getSampleCount());
+    }
+
+    @Test
+    public void performRequest_retriesInlineWithoutADispatcher() throws Exception {
+        FakeStack stack = new FakeStack(200, "ok");
+        stack.timeouts = 1;
+        BasicNetwork network = new BasicNetwork(stack).setRetryBackoff(1, 1);
+
+        NetworkResponse response = network.performRequest(newStringRequest());
+
+        assertEquals(200, response.statusCode);
+        assertEquals(2, stack.calls);
+    }
+
+    @Test
+    public void performRequest_inlineRetriesEndWithTheLastError() throws Exception {
+        FakeStack stack = new FakeStack(200, "ok");
+        stack.timeouts = 10;
+        BasicNetwork network = new BasicNetwork(stack).setRetryBackoff(1, 1);
+        Request<?> request = newStringRequest();
+        request.setRetryPolicy(new DefaultRetryPolicy(2500, 2, 1f));
+        try {
+            network.performRequest(request);
+            fail("expected a timeout");
+        } catch (TimeoutError expected) {
+        }
+        assertEquals(3, stack.calls);
+    }
+
+    @Test
+    public void performRequest_deferredRetryIsLeftToTheCaller() throws Exception {
+        FakeStack stack = new FakeStack(200, "ok");
+        stack.timeouts = 1;
+        BasicNetwork network = new BasicNetwork(stack).setRetryBackoff(100, 1000);
+        Request<?> request = newStringRequest();
+        request.setRetryDeferred(true);
+        try {
+            network.performRequest(request);
+            fail("expected a scheduled retry");
+        } catch (RetryScheduledError retry) {
+            assertTrue(retry.getError() instanceof TimeoutError);
+            // Full jitter below the first cap.
+            assertTrue(retry.getDelayMs() >= 0 && retry.getDelayMs() < 100);
+        }
+        assertEquals(1, stack.calls);
+    }
+
+    @Test
+    public void performRequest_retryWaitsAtLeastRetryAfter() throws Exception {
+        FakeStack stack = new FakeStack(503, "busy");
+        stack.retryAfter = "2";
+        BasicNetwork network = new BasicNetwork(stack).setRetryBackoff(100, 30000);
+        Request<?> request = newStringRequest();
+        request.setRetryDeferred(true);
+        try {
+            network.performRequest(request);
+            fail("expected a scheduled retry");
+        } catch (RetryScheduledError retry) {
+            assertTrue(retry.getError() instanceof ServerError);
+            assertEquals(2000, retry.getDelayMs());
+        }
+    }
+
+    @Test
+    public void performRequest_retryAfterOverTheMaxDelayIsNotRetried() throws Exception {
+        FakeStack stack = new FakeStack(503, "busy");
+        stack.retryAfter = "60";
+        BasicNetwork network = new BasicNetwork(stack).setRetryBackoff(100, 30000);
+        Request<?> request = newStringRequest();
+        request.setRetryDeferred(true);
+        try {
+            network.performRequest(request);
+            fail("expected a server error");
+        } catch (RetryScheduledError retry) {
+            fail("retried after " + retry.getDelayMs() + " ms");
+        } catch (ServerError expected) {
+        }
+        assertEquals(1, stack.calls);
+    }
+
+    @Test
+    public void performRequest_slowBodyIsNotASlowCall() throws Exception {
+        BasicNetwork network = new BasicNetwork(new HttpStack() {
+            @Override
+            public okhttp3.Response performRequest(Request<?> request,
+                    Map<String, String> additionalHeaders) {
+                // Headers at once, then a body that takes a while to read.
+                BufferedSource body = Okio.buffer(new ForwardingSource(
+                        new Buffer().writeUtf8("large")) {
+                    @Override
+                    public long read(Buffer sink, long byteCount) throws IOException {
+                        try {
+                            TimeUnit.MILLISECONDS.sleep(100);
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        return super.read(sink, byteCount);
+                    }
+                });
+                return new okhttp3.Response.Builder()
+                        .request(new okhttp3.Request.Builder().url(request.getUrl()).build())
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(200)
+                        .body(ResponseBody.create(MediaType.parse("text/plain"), -1, body))
+                        .build();
+            }
+        }).setCircuitBreakerConfig(new CircuitBreaker.Config()
+                .setMinimumCalls(1).setSlowCallThresholdMs(50));
+
+        network.performRequest(newStringRequest());
+
+        assertEquals(CircuitBreaker.State.CLOSED,
+                network.getCircuitBreaker(newStringRequest().getHost()).getState());
+    }
+
+    static Request<?> newStringRequest() {
+        return new StringRequest("http://example.com/", null, null, null);
+    }
+
+    /** Answers every request with the same status and body, after the timeouts. */
+    static class FakeStack implements HttpStack {
+        private final int mStatusCode;
+        private final String mBody;
+        int calls;
+        int timeouts;
+        String retryAfter;
+
+        FakeStack(int statusCode, String body) {
+            mStatusCode = statusCode;
+            mBody = body;
+        }
+
+        @Override
+        public okhttp3.Response performRequest(Request<?> request,
+                Map<String, String> additionalHeaders) throws IOException {
+            if (calls++ < timeouts) {
+                throw new SocketTimeoutException();
+            }
+            okhttp3.Response.Builder response = new okhttp3.Response.Builder()
+                    .request(new okhttp3.Request.Builder().url(request.getUrl()).build())
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(mStatusCode)
+                    .body(ResponseBody.create(MediaType.parse("text/plain"), mBody));
+            if (retryAfter != null) {
+                response.header("Retry-After", retryAfter);
+            }
+            return response.build();
+        }
+    }
+
+    /** Fails while reading the body, canceling itself first unless told not to. */
+    static class CancelingStreamRequest extends StreamRequest<String> {
+        boolean mCancel = true;
+
+        CancelingStreamRequest(String url) {
+            super(Method.GET, url, null);
+        }
+
+        @Override
+        protected String parseStream(NetworkResponse response, BufferedSource body)
+                throws IOException {
+            body.readByte();
+            if (mCancel) {
+                cancel();
+            }
+            throw new IOException("stopped reading");
+        }
+
+        @Override
+        protected void deliverResponse(String response) {
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.wz.wzvolley.toolbox;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Dns;
+import okio.BufferedSink;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+public class CachingDnsTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void lookup_cachesWithinTtl() throws Exception {
+        FakeDns delegate = new FakeDns("10.0.0.1");
+        CachingDns dns = new CachingDns(delegate, 60 * 1000);
+
+        List<InetAddress> first = dns.lookup("Example.com");
+        List<InetAddress> second = dns.lookup("example.com");
+
+        assertEquals(first, second);
+        assertEquals(1, delegate.lookups.get());
+        assertEquals(2, dns.getLookupCount());
+        assertEquals(1, dns.getHitCount());
+    }
+
+    @Test
+    public void lookup_returnsStaleAddressesWhenResolvingFails() throws Exception {
+        FakeDns delegate = new FakeDns("10.0.0.1");
+        CachingDns dns = new CachingDns(delegate, 0).setMaxStaleMs(60 * 1000);
+        dns.lookup("example.com");
+
+        delegate.fail = true;
+        assertEquals("10.0.0.1", dns.lookup("example.com").get(0).getHostAddress());
+        assertEquals(1, dns.getStaleCount());
+
+        dns.setMaxStaleMs(0);
+        try {
+            dns.lookup("example.com");
+            fail("expected the lookup to fail");
+        } catch (UnknownHostException expected) {
+        }
+    }
+
+    @Test
+    public void snapshot_roundTrip() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "dns");
+        CachingDns saved = new CachingDns(new FakeDns("10.0.0.1", "::1"), 60 * 1000);
+        saved.lookup("example.com");
+        saved.saveSnapshot(file);
+
+        FakeDns delegate = new FakeDns("10.0.0.2");
+        delegate.fail = true;
+        CachingDns loaded = new CachingDns(delegate, 60 * 1000);
+        loaded.loadSnapshot(file);
+
+        List<InetAddress> addresses = loaded.lookup("example.com");
+        assertEquals(2, addresses.size());
+        assertEquals("10.0.0.1", addresses.get(0).getHostAddress());
+        assertEquals("example.com", addresses.get(0).getHostName());
+        assertEquals(1, loaded.getHitCount());
+    }
+
+    @Test
+    public void loadSnapshot_skipsBadAddressesOnly() throws Exception {
+        long now = System.currentTimeMillis();
+        File file = new File(temporaryFolder.getRoot(), "dns");
+        BufferedSink sink = Okio.buffer(Okio.sink(file));
+        sink.writeUtf8("good.example.com " + now + " 10.0.0.1 not-an-address 1:2:3:zz::\n");
+        sink.writeUtf8("bad.example.com " + now + " 999.1.2.3\n");
+        sink.writeUtf8("garbage\n");
+        sink.writeUtf8("other.example.com " + now + " 10.0.0.3\n");
+        sink.close();
+
+        FakeDns delegate = new FakeDns();
+        delegate.fail = true;
+        CachingDns dns = new CachingDns(delegate, 60 * 1000);
+        dns.loadSnapshot(file);
+
+        List<InetAddress> good = dns.lookup("good.example.com");
+        assertEquals(1, good.size());
+        assertEquals("10.0.0.1", good.get(0).getHostAddress());
+        assertEquals("10.0.0.3", dns.lookup("other.example.com").get(0).getHostAddress());
+        try {
+            dns.lookup("bad.example.com");
+            fail("expected no entry for a host without valid addresses");
+        } catch (UnknownHostException expected) {
+        }
+    }
+
+    /** Resolves every host to the same literal addresses, or fails when told to. */
+    private static class FakeDns implements Dns {
+        private final String[] mAddresses;
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile boolean fail;
+
+        FakeDns(String... addresses) {
+            mAddresses = addresses;
+        }
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            lookups.incrementAndGet();
+            if (fail) {
+                throw new UnknownHostException(hostname);
+            }
+            InetAddress[] result = new InetAddress[mAddresses.length];
+            for (int i = 0; i < mAddresses.length; i++) {
+                result[i] = InetAddress.getByAddress(hostname,
+                        InetAddress.getByName(mAddresses[i]).getAddress());
+            }
+            return Arrays.asList(result);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.wz.wzvolley.toolbox;
+
+import com.wz.wzvolley.toolbox.CircuitBreaker.State;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    private static CircuitBreaker.Config config(long openDurationMs) {
+        return new CircuitBreaker.Config()
+                .setWindowSize(4)
+                .setMinimumCalls(4)
+                .setFailureRateThreshold(0.5f)
+                .setSlowCallThresholdMs(1000)
+                .setOpenDurationMs(openDurationMs)
+                .setHalfOpenTrialCalls(2);
+    }
+
+    @Test
+    public void staysClosedBelowMinimumCalls() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("example.com", config(60000));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordResult(false, 10);
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(1f, breaker.getFailureRate(), 0f);
+    }
+
+    @Test
+    public void opensAtFailureRate() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("example.com", config(60000));
+        record(breaker, true, true, false, false);
+
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getOpenCount());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void failureRateIsOverTheWindowOnly() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("example.com", config(60000));
+        record(breaker, false, true, true, true);
+        assertEquals(State.CLOSED, breaker.getState());
+        // The failure slides out of the window.
+        record(breaker, true);
+        assertEquals(0f, breaker.getFailureRate(), 0f);
+    }
+
+    @Test
+    public void slowSuccessCountsAsFailure() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("example.com", config(60000));
+        for (int i = 0; i < 4; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordResult(true, i < 2 ? 5000 : 10);
+        }
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenClosesAfterTrialsSucceed() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("example.com", config(0));
+        record(breaker, false, false, false, false);
+        assertEquals(State.OPEN, breaker.getState());
+
+        assertTrue(breaker.allowRequest());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        // Only two trials at a time.
+        assertFalse(breaker.allowRequest());
+
+        breaker.recordResult(true, 10);
+        assertEquals(State.HALF_OPEN, breaker.getState());
+        breaker.recordResult(true, 10);
+        assertEquals(State.CLOSED, breaker.getState());
+        assertEquals(0f, breaker.getFailureRate(), 0f);
+    }
+
+    @Test
+    public void halfOpenReopensOnFailure() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("example.com", config(0));
+        record(breaker, false, false, false, false);
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordResult(false, 10);
+
+        assertEquals(State.OPEN, breaker.getState());
+        assertEquals(2, breaker.getOpenCount());
+    }
+
+    @Test
+    public void recordIgnored_handsBackTrial() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("example.com", config(0));
+        record(breaker, false, false, false, false);
+
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+        breaker.recordIgnored();
+        assertTrue(breaker.allowRequest());
+        assertEquals(State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void recordIgnored_leavesWindowAlone() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker("example.com", config(60000));
+        record(breaker, false, false, false);
+        assertTrue(breaker.allowRequest());
+        breaker.recordIgnored();
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void config_isCopied() throws Exception {
+        CircuitBreaker.Config config = config(60000);
+        CircuitBreaker breaker = new CircuitBreaker("example.com", config);
+        config.setMinimumCalls(1);
+
+        record(breaker, false);
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    private static void record(CircuitBreaker breaker, boolean... successes) {
+        for (boolean success : successes) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordResult(success, 10);
+        }
+    }
+}
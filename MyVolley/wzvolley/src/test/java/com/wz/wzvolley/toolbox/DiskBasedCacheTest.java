@@ -0,0 +1,126 @@
+package com.wz.wzvolley.toolbox;
+
+import com.wz.wzvolley.Cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class DiskBasedCacheTest {
+
+    /** Magic number of the format before stale-if-error times were stored. */
+    private static final int OLD_CACHE_MAGIC = 0x20150306;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void put_entryReadsBackFromDisk() throws Exception {
+        DiskBasedCache cache = new DiskBasedCache(temporaryFolder.getRoot());
+        cache.initialize();
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = "body".getBytes("UTF-8");
+        entry.etag = "\"v1\"";
+        entry.serverDate = 1000;
+        entry.lastModified = 2000;
+        entry.ttl = 3000;
+        entry.softTtl = 4000;
+        entry.staleIfErrorTtl = 5000;
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Content-Type", "text/plain");
+        headers.put("Cache-Control", "max-age=1, stale-if-error=5");
+        entry.responseHeaders = headers;
+        cache.put("key", entry);
+
+        DiskBasedCache reopened = new DiskBasedCache(temporaryFolder.getRoot());
+        reopened.initialize();
+        Cache.Entry read = reopened.get("key");
+
+        assertEquals("body", new String(read.data, "UTF-8"));
+        assertEquals("\"v1\"", read.etag);
+        assertEquals(1000, read.serverDate);
+        assertEquals(2000, read.lastModified);
+        assertEquals(3000, read.ttl);
+        assertEquals(4000, read.softTtl);
+        assertEquals(5000, read.staleIfErrorTtl);
+        assertEquals(headers, read.responseHeaders);
+    }
+
+    @Test
+    public void initialize_dropsEntriesOfTheOldFormat() throws Exception {
+        File file = new File(temporaryFolder.getRoot(), "old");
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+        DiskBasedCache.writeInt(os, OLD_CACHE_MAGIC);
+        DiskBasedCache.writeString(os, "key");
+        DiskBasedCache.writeString(os, "");
+        DiskBasedCache.writeLong(os, 0);
+        DiskBasedCache.writeLong(os, 0);
+        DiskBasedCache.writeLong(os, Long.MAX_VALUE);
+        DiskBasedCache.writeLong(os, Long.MAX_VALUE);
+        DiskBasedCache.writeStringStringMap(Collections.<String, String>emptyMap(), os);
+        os.close();
+
+        DiskBasedCache cache = new DiskBasedCache(temporaryFolder.getRoot());
+        cache.initialize();
+
+        assertNull(cache.get("key"));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void evictionPolicy_lruKeepsRecentlyRead() throws Exception {
+        DiskBasedCache cache = fill(DiskBasedCache.EvictionPolicy.LRU);
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+    }
+
+    @Test
+    public void evictionPolicy_fifoIgnoresReads() throws Exception {
+        DiskBasedCache cache = fill(DiskBasedCache.EvictionPolicy.FIFO);
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+    }
+
+    @Test
+    public void put_rewriteMovesEntryToTheBack() throws Exception {
+        DiskBasedCache cache = new DiskBasedCache(temporaryFolder.getRoot(), 10 * 1000,
+                DiskBasedCache.EvictionPolicy.FIFO);
+        cache.initialize();
+        cache.put("a", newEntry(4000));
+        cache.put("b", newEntry(4000));
+        cache.put("a", newEntry(4000));
+        cache.put("c", newEntry(4000));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+    }
+
+    /**
+     * Puts a and b, reads a, then puts c, which needs b's or a's room.
+     */
+    private DiskBasedCache fill(DiskBasedCache.EvictionPolicy policy) throws Exception {
+        DiskBasedCache cache = new DiskBasedCache(temporaryFolder.getRoot(), 10 * 1000, policy);
+        cache.initialize();
+        cache.put("a", newEntry(4000));
+        cache.put("b", newEntry(4000));
+        assertNotNull(cache.get("a"));
+        cache.put("c", newEntry(4000));
+        assertNotNull(cache.get("c"));
+        return cache;
+    }
+
+    private static Cache.Entry newEntry(int size) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = new byte[size];
+        return entry;
+    }
+}
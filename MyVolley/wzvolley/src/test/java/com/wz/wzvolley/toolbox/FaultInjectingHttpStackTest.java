@@ -0,0 +1,186 @@
+package com.wz.wzvolley.toolbox;
+
+import com.wz.wzvolley.DefaultRetryPolicy;
+import com.wz.wzvolley.Request;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+public class FaultInjectingHttpStackTest {
+
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+
+    private static final String PREFIX = "http://example.com/";
+
+    @Test
+    public void noFaults_passesCallsThrough() throws Exception {
+        CountingStack origin = new CountingStack(10, true);
+        FaultInjectingHttpStack stack = new FaultInjectingHttpStack(origin, 1);
+
+        Response response = stack.performRequest(newRequest(PREFIX + "a"), NO_HEADERS);
+
+        assertEquals(10, response.body().bytes().length);
+        assertEquals(1, origin.calls);
+        assertEquals(0, stack.getRequestCount());
+    }
+
+    @Test
+    public void serverError_doesNotCallDelegate() throws Exception {
+        CountingStack origin = new CountingStack(10, true);
+        FaultInjectingHttpStack stack = new FaultInjectingHttpStack(origin, 1)
+                .setFaults(PREFIX, new FaultInjectingHttpStack.Faults()
+                        .setServerErrorRate(1, 502));
+
+        Response response = stack.performRequest(newRequest(PREFIX + "a"), NO_HEADERS);
+
+        assertEquals(502, response.code());
+        assertEquals(0, origin.calls);
+        assertEquals(1, stack.getServerErrorCount());
+    }
+
+    @Test
+    public void reset_failsWithSocketException() throws Exception {
+        FaultInjectingHttpStack stack = new FaultInjectingHttpStack(new CountingStack(10, true), 1)
+                .setFaults(PREFIX, new FaultInjectingHttpStack.Faults().setResetRate(1));
+        try {
+            stack.performRequest(newRequest(PREFIX + "a"), NO_HEADERS);
+            fail("expected a reset");
+        } catch (SocketException expected) {
+        }
+        assertEquals(1, stack.getResetCount());
+    }
+
+    @Test
+    public void latencyOverTimeout_timesOutAtTimeout() throws Exception {
+        FaultInjectingHttpStack stack = new FaultInjectingHttpStack(new CountingStack(10, true), 1)
+                .setFaults(PREFIX, new FaultInjectingHttpStack.Faults()
+                        .setLatency(FaultInjectingHttpStack.fixedLatency(60000)));
+        Request<?> request = newRequest(PREFIX + "a");
+        request.setRetryPolicy(new DefaultRetryPolicy(20, 0, 1f));
+        try {
+            stack.performRequest(request, NO_HEADERS);
+            fail("expected a timeout");
+        } catch (SocketTimeoutException expected) {
+        }
+        assertEquals(1, stack.getTimeoutCount());
+        assertEquals(20, stack.getInjectedLatencyMs());
+    }
+
+    @Test
+    public void longestPrefixWins() throws Exception {
+        FaultInjectingHttpStack stack = new FaultInjectingHttpStack(new CountingStack(10, true), 1)
+                .setFaults(PREFIX, new FaultInjectingHttpStack.Faults().setResetRate(1))
+                .setFaults(PREFIX + "healthy/", new FaultInjectingHttpStack.Faults());
+
+        assertEquals(200, stack.performRequest(newRequest(PREFIX + "healthy/a"), NO_HEADERS)
+                .code());
+    }
+
+    @Test
+    public void partialBody_knownLength_cutBeforeEnd() throws Exception {
+        for (int seed = 0; seed < 20; seed++) {
+            FaultInjectingHttpStack stack = new FaultInjectingHttpStack(
+                    new CountingStack(1000, true), seed)
+                    .setFaults(PREFIX, new FaultInjectingHttpStack.Faults()
+                            .setPartialBodyRate(1));
+            long read = readUntilFailure(stack.performRequest(newRequest(PREFIX), NO_HEADERS));
+            assertTrue(read < 1000);
+        }
+    }
+
+    @Test
+    public void partialBody_unknownLength_cutWithinMax() throws Exception {
+        Set<Long> cuts = new HashSet<Long>();
+        for (int seed = 0; seed < 20; seed++) {
+            FaultInjectingHttpStack stack = new FaultInjectingHttpStack(
+                    new CountingStack(100000, false), seed)
+                    .setFaults(PREFIX, new FaultInjectingHttpStack.Faults()
+                            .setPartialBodyRate(1)
+                            .setPartialBodyMaxBytes(500));
+            long read = readUntilFailure(stack.performRequest(newRequest(PREFIX), NO_HEADERS));
+            assertTrue(read < 500);
+            cuts.add(read);
+        }
+        // Not always cut at the start of the body.
+        assertTrue(cuts.size() > 1);
+    }
+
+    @Test
+    public void sameSeed_sameFaults() throws Exception {
+        assertEquals(serverErrorPattern(7), serverErrorPattern(7));
+    }
+
+    private static String serverErrorPattern(long seed) throws Exception {
+        FaultInjectingHttpStack stack = new FaultInjectingHttpStack(
+                new CountingStack(1, true), seed)
+                .setFaults(PREFIX, new FaultInjectingHttpStack.Faults()
+                        .setServerErrorRate(0.5f));
+        StringBuilder pattern = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            pattern.append(stack.performRequest(newRequest(PREFIX), NO_HEADERS).code() == 200
+                    ? '.' : 'x');
+        }
+        return pattern.toString();
+    }
+
+    /** Reads the body until it fails, returning the bytes read before. */
+    private static long readUntilFailure(Response response) {
+        Buffer sink = new Buffer();
+        long read = 0;
+        try {
+            while (true) {
+                long count = response.body().source().read(sink, 8192);
+                assertTrue("body was not cut off", count != -1);
+                read += count;
+            }
+        } catch (IOException expected) {
+            return read;
+        }
+    }
+
+    private static Request<?> newRequest(String url) {
+        return new StringRequest(url, null, null, null);
+    }
+
+    /** Answers every call with a 200 and a body of the given size. */
+    private static class CountingStack implements HttpStack {
+        private final int mBodySize;
+        private final boolean mKnownLength;
+        int calls;
+
+        CountingStack(int bodySize, boolean knownLength) {
+            mBodySize = bodySize;
+            mKnownLength = knownLength;
+        }
+
+        @Override
+        public Response performRequest(Request<?> request,
+                Map<String, String> additionalHeaders) throws IOException {
+            calls++;
+            Buffer body = new Buffer().write(new byte[mBodySize]);
+            return new Response.Builder()
+                    .request(new okhttp3.Request.Builder().url(request.getUrl()).build())
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(200)
+                    .message("OK")
+                    .body(ResponseBody.create(MediaType.parse("application/octet-stream"),
+                            mKnownLength ? mBodySize : -1, body))
+                    .build();
+        }
+    }
+}
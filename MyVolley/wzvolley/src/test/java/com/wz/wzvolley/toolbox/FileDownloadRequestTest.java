@@ -0,0 +1,132 @@
+package com.wz.wzvolley.toolbox;
+
+import com.wz.wzvolley.AuthFailureError;
+import com.wz.wzvolley.Request;
+import com.wz.wzvolley.Response;
+import com.wz.wzvolley.VolleyError;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+public class FileDownloadRequestTest {
+
+    private static final String BODY = "0123456789abcdefghij";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void download_writesTargetFile() throws Exception {
+        File target = new File(temporaryFolder.getRoot(), "file");
+        DownloadStack stack = new DownloadStack();
+        stack.responses.add(full(BODY.length()));
+        BasicNetwork network = new BasicNetwork(stack);
+
+        FileDownloadRequest request = newRequest(target);
+        network.performRequest(request);
+
+        assertEquals(BODY, Okio.buffer(Okio.source(target)).readUtf8());
+        assertFalse(new File(target.getPath() + ".part").exists());
+    }
+
+    @Test
+    public void download_resumesWhereTheFailedAttemptStopped() throws Exception {
+        File target = new File(temporaryFolder.getRoot(), "file");
+        DownloadStack stack = new DownloadStack();
+        stack.responses.add(full(8));
+        stack.responses.add(partial(8));
+        BasicNetwork network = new BasicNetwork(stack);
+
+        try {
+            network.performRequest(newRequest(target));
+            fail("expected the first attempt to fail");
+        } catch (VolleyError expected) {
+        }
+        assertEquals(8, new File(target.getPath() + ".part").length());
+
+        network.performRequest(newRequest(target));
+
+        Map<String, String> resumed = stack.requestHeaders.get(1);
+        assertEquals("bytes=8-", resumed.get("Range"));
+        assertEquals("\"v1\"", resumed.get("If-Range"));
+        assertEquals(BODY, Okio.buffer(Okio.source(target)).readUtf8());
+    }
+
+    private static FileDownloadRequest newRequest(File target) {
+        return new FileDownloadRequest("http://example.com/file", target,
+                new Response.Listener<File>() {
+                    @Override
+                    public void onResponse(File response) {
+                    }
+                }, null, null);
+    }
+
+    /** A 200 with the whole body, failing after the given number of bytes if short. */
+    private static okhttp3.Response.Builder full(final int bytesBeforeFailure) {
+        ResponseBody body = ResponseBody.create(MediaType.parse("application/octet-stream"),
+                BODY.length(), Okio.buffer(new ForwardingSource(
+                        new Buffer().writeUtf8(BODY.substring(0, bytesBeforeFailure))) {
+                    @Override
+                    public long read(Buffer sink, long byteCount) throws IOException {
+                        long read = super.read(sink, byteCount);
+                        if (read == -1 && bytesBeforeFailure < BODY.length()) {
+                            throw new IOException("connection reset");
+                        }
+                        return read;
+                    }
+                }));
+        return new okhttp3.Response.Builder()
+                .code(200)
+                .header("ETag", "\"v1\"")
+                .header("Content-Length", String.valueOf(BODY.length()))
+                .body(body);
+    }
+
+    /** A 206 with the body from the given offset. */
+    private static okhttp3.Response.Builder partial(int offset) {
+        String rest = BODY.substring(offset);
+        return new okhttp3.Response.Builder()
+                .code(206)
+                .header("ETag", "\"v1\"")
+                .header("Content-Range",
+                        "bytes " + offset + "-" + (BODY.length() - 1) + "/" + BODY.length())
+                .header("Content-Length", String.valueOf(rest.length()))
+                .body(ResponseBody.create(MediaType.parse("application/octet-stream"), rest));
+    }
+
+    /** Gives out the scripted responses in order, recording the request headers. */
+    private static class DownloadStack implements HttpStack {
+        final List<okhttp3.Response.Builder> responses = new ArrayList<okhttp3.Response.Builder>();
+        final List<Map<String, String>> requestHeaders = new ArrayList<Map<String, String>>();
+
+        @Override
+        public okhttp3.Response performRequest(Request<?> request,
+                Map<String, String> additionalHeaders) throws IOException {
+            try {
+                requestHeaders.add(request.getHeaders());
+            } catch (AuthFailureError e) {
+                throw new IOException(e);
+            }
+            return responses.remove(0)
+                    .request(new okhttp3.Request.Builder().url(request.getUrl()).build())
+                    .protocol(Protocol.HTTP_1_1)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.wz.wzvolley.toolbox;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HedgingPolicyTest {
+
+    @Test
+    public void onRequest_noHedgeUntilEnoughSamples() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy().setMinSamples(3);
+        policy.recordLatency("example.com", 100, false);
+        policy.recordLatency("example.com", 100, false);
+        assertEquals(-1, policy.onRequest("example.com"));
+
+        policy.recordLatency("Example.com", 100, false);
+        assertEquals(100, policy.onRequest("example.com"));
+        assertEquals(-1, policy.onRequest("other.example.com"));
+        assertEquals(3, policy.getRequestCount());
+    }
+
+    @Test
+    public void onRequest_waitsForPercentile() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy(0.9f, 0.1f).setMinSamples(10);
+        for (int i = 1; i <= 10; i++) {
+            policy.recordLatency("example.com", i * 100, false);
+        }
+        assertEquals(1000, policy.onRequest("example.com"));
+    }
+
+    @Test
+    public void onRequest_respectsMinDelay() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy().setMinSamples(1).setMinDelayMs(50);
+        policy.recordLatency("example.com", 1, false);
+        assertEquals(50, policy.onRequest("example.com"));
+    }
+
+    @Test
+    public void recordLatency_keepsRecentSamplesOnly() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy(1f, 0.1f).setMinSamples(1);
+        policy.recordLatency("example.com", 5000, false);
+        for (int i = 0; i < 64; i++) {
+            policy.recordLatency("example.com", 100, false);
+        }
+        assertEquals(100, policy.onRequest("example.com"));
+    }
+
+    @Test
+    public void recordLatency_keepsRecentHostsOnly() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy().setMinSamples(1);
+        policy.recordLatency("first.example.com", 100, false);
+        policy.recordLatency("recent.example.com", 100, false);
+        for (int i = 0; i < HedgingPolicy.MAX_HOSTS; i++) {
+            policy.recordLatency("host" + i + ".example.com", 100, false);
+            // Keep one host in use so it is not the eldest.
+            policy.recordLatency("recent.example.com", 100, false);
+        }
+        assertEquals(100, policy.onRequest("recent.example.com"));
+        assertEquals(-1, policy.onRequest("first.example.com"));
+    }
+
+    @Test
+    public void tryAcquireHedge_spendsBudget() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy(0.95f, 0.5f);
+        // The budget starts full, at ten hedges.
+        for (int i = 0; i < 10; i++) {
+            assertTrue(policy.tryAcquireHedge());
+        }
+        assertFalse(policy.tryAcquireHedge());
+
+        // Each request earns half a hedge.
+        policy.onRequest("example.com");
+        assertFalse(policy.tryAcquireHedge());
+        policy.onRequest("example.com");
+        assertTrue(policy.tryAcquireHedge());
+        assertEquals(11, policy.getHedgeCount());
+    }
+
+    @Test
+    public void recordLatency_countsHedgeWins() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy();
+        policy.recordLatency("example.com", 100, true);
+        policy.recordLatency("example.com", 100, false);
+        assertEquals(1, policy.getHedgeWinCount());
+    }
+}
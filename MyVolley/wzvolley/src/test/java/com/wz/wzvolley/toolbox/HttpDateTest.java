@@ -0,0 +1,83 @@
+package com.wz.wzvolley.toolbox;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class HttpDateTest {
+
+    private static final long NOV_6_1994 = 784111777000L;
+
+    @Test
+    public void parse_allThreeFormats() throws Exception {
+        assertEquals(NOV_6_1994, HttpDate.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+        assertEquals(NOV_6_1994, HttpDate.parse("Sunday, 06-Nov-94 08:49:37 GMT"));
+        assertEquals(NOV_6_1994, HttpDate.parse("Sun Nov  6 08:49:37 1994"));
+    }
+
+    @Test
+    public void parse_isLenientAboutCaseAndSpaces() throws Exception {
+        assertEquals(NOV_6_1994, HttpDate.parse("  sun, 6 NOV 1994 08:49:37 GMT"));
+        assertEquals(NOV_6_1994, HttpDate.parse("06 Nov 1994 08:49:37 GMT"));
+    }
+
+    @Test
+    public void parse_invalidDatesAreZero() throws Exception {
+        assertEquals(0, HttpDate.parse(null));
+        assertEquals(0, HttpDate.parse(""));
+        assertEquals(0, HttpDate.parse("0"));
+        assertEquals(0, HttpDate.parse("-1"));
+        assertEquals(0, HttpDate.parse("Sun, 06 Foo 1994 08:49:37 GMT"));
+        assertEquals(0, HttpDate.parse("Sun, 32 Nov 1994 08:49:37 GMT"));
+        assertEquals(0, HttpDate.parse("Sun, 06 Nov 1994 24:00:00 GMT"));
+        assertEquals(0, HttpDate.parse("Sun, 06 Nov 1994 08:49 GMT"));
+    }
+
+    @Test
+    public void parse_leapSecondIsLastSecondOfMinute() throws Exception {
+        assertEquals(HttpDate.parse("Sat, 31 Dec 2016 23:59:59 GMT"),
+                HttpDate.parse("Sat, 31 Dec 2016 23:59:60 GMT"));
+    }
+
+    @Test
+    public void parse_twoDigitYearIsAtMostFiftyYearsAhead() throws Exception {
+        long now = System.currentTimeMillis();
+        long parsed = HttpDate.parse("Thursday, 01-Jan-70 00:00:00 GMT");
+        assertTrue(parsed <= now + 51L * 365 * 24 * 60 * 60 * 1000);
+        assertTrue(parsed > now - 50L * 365 * 24 * 60 * 60 * 1000);
+    }
+
+    @Test
+    public void format_imfFixdate() throws Exception {
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDate.format(NOV_6_1994));
+        assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HttpDate.format(NOV_6_1994 + 999));
+        assertEquals("Thu, 01 Jan 1970 00:00:00 GMT", HttpDate.format(0));
+        assertEquals("Wed, 31 Dec 1969 23:59:59 GMT", HttpDate.format(-1));
+        assertEquals("Tue, 29 Feb 2000 12:00:00 GMT",
+                HttpDate.format(HttpDate.parse("Tue, 29 Feb 2000 12:00:00 GMT")));
+    }
+
+    @Test
+    public void matchesSimpleDateFormat() throws Exception {
+        SimpleDateFormat reference =
+                new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        reference.setTimeZone(TimeZone.getTimeZone("GMT"));
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            // Whole seconds between 1900 and 2100.
+            long epochMs = (random.nextLong() % 4102444800L) * 1000;
+            if (epochMs < -2208988800000L) {
+                epochMs = -epochMs;
+            }
+            String text = reference.format(new Date(epochMs));
+            assertEquals(text, HttpDate.format(epochMs));
+            assertEquals(text, epochMs, HttpDate.parse(text));
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.wz.wzvolley.toolbox;
+
+import com.wz.wzvolley.Cache;
+import com.wz.wzvolley.NetworkResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HttpHeaderParserTest {
+
+    private static final long ONE_MINUTE_MILLIS = 60 * 1000L;
+    private static final long ONE_HOUR_MILLIS = 60 * ONE_MINUTE_MILLIS;
+    private static final long ONE_DAY_MILLIS = 24 * ONE_HOUR_MILLIS;
+    private static final long ONE_YEAR_MILLIS = 365 * ONE_DAY_MILLIS;
+
+    /** Slack for the clock moving on and dates being rounded to whole seconds. */
+    private static final long TOLERANCE_MILLIS = 5000;
+
+    private Map<String, String> headers;
+    private long now;
+
+    @Before
+    public void setUp() throws Exception {
+        headers = new HashMap<String, String>();
+        now = System.currentTimeMillis();
+    }
+
+    @Test
+    public void parseCacheHeaders_noHeaders() throws Exception {
+        Cache.Entry entry = parse();
+
+        assertNotNull(entry);
+        assertNull(entry.etag);
+        assertEquals(0, entry.serverDate);
+        assertEquals(0, entry.softTtl);
+        assertEquals(0, entry.ttl);
+        assertEquals(0, entry.staleIfErrorTtl);
+    }
+
+    @Test
+    public void parseCacheHeaders_maxAgeMinusAge() throws Exception {
+        headers.put("Date", HttpDate.format(now));
+        headers.put("Cache-Control", "max-age=3600");
+        headers.put("Age", "600");
+
+        Cache.Entry entry = parse();
+
+        assertClose(now + 50 * ONE_MINUTE_MILLIS, entry.softTtl);
+        assertEquals(entry.softTtl, entry.ttl);
+    }
+
+    @Test
+    public void parseCacheHeaders_apparentAgeFromDate() throws Exception {
+        headers.put("Date", HttpDate.format(now - 10 * ONE_MINUTE_MILLIS));
+        headers.put("Cache-Control", "max-age=3600");
+
+        Cache.Entry entry = parse();
+
+        assertClose(now + 50 * ONE_MINUTE_MILLIS, entry.softTtl);
+    }
+
+    @Test
+    public void parseCacheHeaders_networkTimeCountsTowardsAge() throws Exception {
+        headers.put("Cache-Control", "max-age=60");
+
+        Cache.Entry entry = HttpHeaderParser.parseCacheHeaders(
+                new NetworkResponse(200, new byte[0], headers, false, 30 * 1000L));
+
+        assertClose(now + 30 * 1000L, entry.softTtl);
+    }
+
+    @Test
+    public void parseCacheHeaders_expiresRelativeToDate() throws Exception {
+        // Lifetime is Expires minus Date, less the hour the response is already old.
+        long serverNow = now - ONE_HOUR_MILLIS;
+        headers.put("Date", HttpDate.format(serverNow));
+        headers.put("Expires", HttpDate.format(serverNow + 2 * ONE_HOUR_MILLIS));
+
+        Cache.Entry entry = parse();
+
+        assertClose(now + ONE_HOUR_MILLIS, entry.softTtl);
+    }
+
+    @Test
+    public void parseCacheHeaders_maxAgeBeatsExpires() throws Exception {
+        headers.put("Date", HttpDate.format(now));
+        headers.put("Expires", HttpDate.format(now + ONE_DAY_MILLIS));
+        headers.put("Cache-Control", "max-age=60");
+
+        Cache.Entry entry = parse();
+
+        assertClose(now + ONE_MINUTE_MILLIS, entry.softTtl);
+    }
+
+    @Test
+    public void parseCacheHeaders_invalidExpiresIsExpired() throws Exception {
+        headers.put("Date", HttpDate.format(now));
+        headers.put("Expires", "0");
+
+        Cache.Entry entry = parse();
+
+        assertClose(now, entry.softTtl);
+    }
+
+    @Test
+    public void parseCacheHeaders_heuristicFromLastModified() throws Exception {
+        headers.put("Date", HttpDate.format(now));
+        headers.put("Last-Modified", HttpDate.format(now - 5 * ONE_HOUR_MILLIS));
+
+        Cache.Entry entry = parse();
+
+        assertClose(now + 30 * ONE_MINUTE_MILLIS, entry.softTtl);
+    }
+
+    @Test
+    public void parseCacheHeaders_heuristicIsCappedAtOneDay() throws Exception {
+        headers.put("Date", HttpDate.format(now));
+        headers.put("Last-Modified", HttpDate.format(now - 100 * ONE_DAY_MILLIS));
+
+        Cache.Entry entry = parse();
+
+        assertClose(now + ONE_DAY_MILLIS, entry.softTtl);
+    }
+
+    @Test
+    public void parseCacheHeaders_staleWhileRevalidate() throws Exception {
+        headers.put("Cache-Control", "max-age=60, stale-while-revalidate=120");
+
+        Cache.Entry entry = parse();
+
+        assertClose(now + ONE_MINUTE_MILLIS, entry.softTtl);
+        assertEquals(entry.softTtl + 2 * ONE_MINUTE_MILLIS, entry.ttl);
+    }
+
+    @Test
+    public void parseCacheHeaders_staleIfErrorStartsAtSoftExpiry() throws Exception {
+        headers.put("Cache-Control", "max-age=60, stale-if-error=600");
+
+        Cache.Entry entry = parse();
+
+        assertEquals(entry.softTtl + 10 * ONE_MINUTE_MILLIS, entry.staleIfErrorTtl);
+    }
+
+    @Test
+    public void parseCacheHeaders_mustRevalidate() throws Exception {
+        headers.put("Cache-Control",
+                "max-age=60, stale-while-revalidate=120, stale-if-error=600, must-revalidate");
+
+        Cache.Entry entry = parse();
+
+        assertEquals(entry.softTtl, entry.ttl);
+        assertEquals(0, entry.staleIfErrorTtl);
+    }
+
+    @Test
+    public void parseCacheHeaders_immutableHasFreshnessFloor() throws Exception {
+        headers.put("Cache-Control", "max-age=60, immutable");
+
+        Cache.Entry entry = parse();
+
+        assertClose(now + ONE_YEAR_MILLIS, entry.softTtl);
+        assertFalse(entry.refreshNeeded());
+    }
+
+    @Test
+    public void parseCacheHeaders_immutableKeepsLongerLifetime() throws Exception {
+        headers.put("Cache-Control", "max-age=" + 2 * ONE_YEAR_MILLIS / 1000 + ", immutable");
+
+        Cache.Entry entry = parse();
+
+        assertClose(now + 2 * ONE_YEAR_MILLIS, entry.softTtl);
+    }
+
+    @Test
+    public void parseCacheHeaders_immutableWithoutLifetimeIsNotFresh() throws Exception {
+        headers.put("Cache-Control", "max-age=0, immutable");
+
+        Cache.Entry entry = parse();
+
+        assertClose(now, entry.softTtl);
+    }
+
+    @Test
+    public void parseCacheHeaders_noCacheNeedsValidator() throws Exception {
+        headers.put("Cache-Control", "no-cache");
+        assertNull(parse());
+
+        headers.put("ETag", "\"v1\"");
+        Cache.Entry entry = parse();
+        assertNotNull(entry);
+        assertEquals("\"v1\"", entry.etag);
+        assertClose(now, entry.softTtl);
+    }
+
+    @Test
+    public void parseCacheHeaders_noCacheBeatsImmutable() throws Exception {
+        headers.put("Cache-Control", "no-cache, max-age=60, immutable");
+        headers.put("ETag", "\"v1\"");
+
+        Cache.Entry entry = parse();
+
+        assertClose(now, entry.softTtl);
+    }
+
+    @Test
+    public void parseCacheHeaders_noStore() throws Exception {
+        headers.put("Cache-Control", "max-age=60, no-store");
+        assertNull(parse());
+    }
+
+    @Test
+    public void parseCacheHeaders_varyStar() throws Exception {
+        headers.put("Cache-Control", "max-age=60");
+        headers.put("Vary", "*");
+        assertNull(parse());
+    }
+
+    @Test
+    public void parseCacheHeaders_hugeMaxAgeIsCapped() throws Exception {
+        headers.put("Cache-Control", "max-age=99999999999999999999");
+
+        Cache.Entry entry = parse();
+
+        assertClose(now + Integer.MAX_VALUE * 1000L, entry.softTtl);
+    }
+
+    @Test
+    public void parseCharset() throws Exception {
+        headers.put("Content-Type", "text/plain; charset=utf-8");
+        assertEquals("utf-8", HttpHeaderParser.parseCharset(headers));
+
+        headers.put("Content-Type", "text/plain");
+        assertEquals("ISO-8859-1", HttpHeaderParser.parseCharset(headers));
+        assertEquals("utf-8", HttpHeaderParser.parseCharset(headers, "utf-8"));
+    }
+
+    private Cache.Entry parse() {
+        return HttpHeaderParser.parseCacheHeaders(new NetworkResponse(new byte[0], headers));
+    }
+
+    private static void assertClose(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual,
+                Math.abs(expected - actual) < TOLERANCE_MILLIS);
+    }
+}
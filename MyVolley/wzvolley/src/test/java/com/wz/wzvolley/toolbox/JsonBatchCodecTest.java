@@ -0,0 +1,134 @@
+package com.wz.wzvolley.toolbox;
+
+import com.wz.wzvolley.Cache;
+import com.wz.wzvolley.NetworkResponse;
+import com.wz.wzvolley.Request;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JsonBatchCodecTest {
+
+    private final JsonBatchCodec mCodec = new JsonBatchCodec("https://api.example.com/v1/");
+
+    @Test
+    public void canBatch_getsUnderPrefixOnly() throws Exception {
+        assertTrue(mCodec.canBatch(newRequest("https://api.example.com/v1/items")));
+        assertFalse(mCodec.canBatch(newRequest("https://api.example.com/v2/items")));
+        assertFalse(mCodec.canBatch(new StringRequest(Request.Method.POST,
+                "https://api.example.com/v1/items", null, null, null)));
+    }
+
+    @Test
+    public void encode_listsRequestsWithValidators() throws Exception {
+        Request<?> plain = newRequest("https://api.example.com/v1/a");
+        Request<?> cached = newRequest("https://api.example.com/v1/b");
+        cached.setCacheEntry(newEntry("\"v1\"", "cached"));
+
+        JSONArray items = new JSONObject(new String(
+                mCodec.encode(Arrays.<Request<?>>asList(plain, cached)), "utf-8"))
+                .getJSONArray("requests");
+
+        assertEquals(2, items.length());
+        assertEquals("GET", items.getJSONObject(0).getString("method"));
+        assertEquals("https://api.example.com/v1/a", items.getJSONObject(0).getString("url"));
+        assertFalse(items.getJSONObject(0).getJSONObject("headers").has("If-None-Match"));
+        assertEquals("\"v1\"",
+                items.getJSONObject(1).getJSONObject("headers").getString("If-None-Match"));
+    }
+
+    @Test
+    public void decode_splitsResponsesInOrder() throws Exception {
+        List<Request<?>> requests = requests("a", "b", "c");
+        String body = "{\"responses\": ["
+                + "{\"status\": 200, \"headers\": {\"Cache-Control\": \"max-age=60\"},"
+                + " \"body\": \"first\"},"
+                + "{\"status\": 404, \"body\": \"missing\"},"
+                + "{}]}";
+
+        List<NetworkResponse> responses = mCodec.decode(batchResponse(body), requests);
+
+        assertEquals(3, responses.size());
+        assertEquals(200, responses.get(0).statusCode);
+        assertEquals("first", new String(responses.get(0).data, "utf-8"));
+        assertEquals("max-age=60", responses.get(0).headers.get("cache-control"));
+        assertEquals(404, responses.get(1).statusCode);
+        // No status: sent alone.
+        assertNull(responses.get(2));
+    }
+
+    @Test
+    public void decode_shortResponseListSendsTheRestAlone() throws Exception {
+        List<NetworkResponse> responses = mCodec.decode(
+                batchResponse("{\"responses\": [{\"status\": 200, \"body\": \"x\"}]}"),
+                requests("a", "b"));
+
+        assertEquals(2, responses.size());
+        assertNotNull(responses.get(0));
+        assertNull(responses.get(1));
+    }
+
+    @Test
+    public void decode_mergesNotModifiedWithCacheEntry() throws Exception {
+        List<Request<?>> requests = requests("a");
+        Cache.Entry entry = newEntry("\"v1\"", "cached body");
+        Map<String, String> cachedHeaders = new HashMap<String, String>();
+        cachedHeaders.put("Content-Type", "text/plain");
+        cachedHeaders.put("Cache-Control", "max-age=10");
+        entry.responseHeaders = cachedHeaders;
+        requests.get(0).setCacheEntry(entry);
+
+        List<NetworkResponse> responses = mCodec.decode(batchResponse("{\"responses\": ["
+                + "{\"status\": 304, \"headers\": {\"cache-control\": \"max-age=60\"}}]}"),
+                requests);
+
+        NetworkResponse response = responses.get(0);
+        assertTrue(response.notModified);
+        assertEquals(304, response.statusCode);
+        assertEquals("cached body", new String(response.data, "utf-8"));
+        assertEquals("text/plain", response.headers.get("Content-Type"));
+        assertEquals("max-age=60", response.headers.get("Cache-Control"));
+        assertSame(entry.responseHeaders, response.headers);
+    }
+
+    @Test
+    public void decode_notModifiedWithoutCacheEntryIsSentAlone() throws Exception {
+        List<NetworkResponse> responses = mCodec.decode(
+                batchResponse("{\"responses\": [{\"status\": 304}]}"), requests("a"));
+        assertNull(responses.get(0));
+    }
+
+    private List<Request<?>> requests(String... paths) {
+        List<Request<?>> requests = new ArrayList<Request<?>>();
+        for (String path : paths) {
+            requests.add(newRequest("https://api.example.com/v1/" + path));
+        }
+        return requests;
+    }
+
+    private static NetworkResponse batchResponse(String body) throws Exception {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Content-Type", "application/json; charset=utf-8");
+        return new NetworkResponse(body.getBytes("utf-8"), headers);
+    }
+
+    private static Cache.Entry newEntry(String etag, String body) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.etag = etag;
+        entry.data = body.getBytes();
+        return entry;
+    }
+
+    private static Request<?> newRequest(String url) {
+        return new StringRequest(url, null, null, null);
+    }
+}
@@ -0,0 +1,49 @@
+package com.wz.wzvolley.toolbox;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+
+import static org.junit.Assert.*;
+
+public class OkHttpStackTest {
+
+    @Test
+    public void getTimeoutBucketMs_roundsUpToQuarterSteps() throws Exception {
+        assertEquals(1024, OkHttpStack.getTimeoutBucketMs(1000));
+        assertEquals(1024, OkHttpStack.getTimeoutBucketMs(1024));
+        assertEquals(1280, OkHttpStack.getTimeoutBucketMs(1025));
+        assertEquals(2560, OkHttpStack.getTimeoutBucketMs(2500));
+        assertEquals(20480, OkHttpStack.getTimeoutBucketMs(20000));
+        assertEquals(3, OkHttpStack.getTimeoutBucketMs(3));
+    }
+
+    @Test
+    public void getTimeoutBucketMs_neverShortensNorLengthensMuch() throws Exception {
+        for (int timeoutMs = 1; timeoutMs < 100000; timeoutMs++) {
+            int bucketMs = OkHttpStack.getTimeoutBucketMs(timeoutMs);
+            assertTrue(bucketMs >= timeoutMs);
+            assertTrue(bucketMs <= timeoutMs * 1.25);
+        }
+    }
+
+    @Test
+    public void getClient_sharesClientsWithinABucket() throws Exception {
+        OkHttpStack stack = new OkHttpStack();
+        OkHttpClient client = stack.getClient(1900);
+        assertSame(client, stack.getClient(1850));
+        assertEquals(2048, client.readTimeoutMillis());
+        assertEquals(2048, client.connectTimeoutMillis());
+        assertNotSame(client, stack.getClient(2100));
+        assertSame(stack.getClient(), stack.getClient(0));
+    }
+
+    @Test
+    public void getClient_derivedClientsShareTheConnectionPool() throws Exception {
+        OkHttpStack stack = new OkHttpStack(new OkHttpClient.Builder()
+                .readTimeout(10, TimeUnit.SECONDS).build());
+        assertSame(stack.getClient().connectionPool(), stack.getClient(1000).connectionPool());
+    }
+}
@@ -0,0 +1,150 @@
+package com.wz.wzvolley.toolbox;
+
+import com.wz.wzvolley.Cache;
+import com.wz.wzvolley.toolbox.DiskBasedCache.EvictionPolicy;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PartitionedCacheTest {
+
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private PartitionedCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mCache = newCache();
+        mCache.initialize();
+    }
+
+    private PartitionedCache newCache() {
+        return new PartitionedCache(temporaryFolder.getRoot(), 1024 * 1024)
+                .addPartition("images", 10 * 1000, EvictionPolicy.LRU, 0)
+                .addPartition("api", 1024 * 1024, EvictionPolicy.FIFO, HOUR_MS)
+                .routeContentType("image/", "images");
+    }
+
+    @Test
+    public void put_routesByExplicitPartition() throws Exception {
+        Cache.Entry entry = newEntry(10, "image/png");
+        entry.partition = "api";
+        mCache.put("key", entry);
+
+        assertNotNull(mCache.getPartition("api").get("key"));
+        assertNull(mCache.getPartition("images").get("key"));
+        assertEquals("api", mCache.get("key").partition);
+    }
+
+    @Test
+    public void put_routesByContentType() throws Exception {
+        mCache.put("png", newEntry(10, " Image/PNG"));
+        mCache.put("json", newEntry(10, "application/json"));
+
+        assertNotNull(mCache.getPartition("images").get("png"));
+        assertNotNull(mCache.getPartition(PartitionedCache.DEFAULT_PARTITION).get("json"));
+    }
+
+    @Test
+    public void put_unknownPartitionFallsBackToRoutes() throws Exception {
+        Cache.Entry entry = newEntry(10, "image/png");
+        entry.partition = "missing";
+        mCache.put("key", entry);
+        assertNotNull(mCache.getPartition("images").get("key"));
+    }
+
+    @Test
+    public void put_movesKeyBetweenPartitions() throws Exception {
+        mCache.put("key", newEntry(10, "image/png"));
+        Cache.Entry entry = newEntry(10, "image/png");
+        entry.partition = "api";
+        mCache.put("key", entry);
+
+        assertNull(mCache.getPartition("images").get("key"));
+        assertNotNull(mCache.getPartition("api").get("key"));
+    }
+
+    @Test
+    public void put_appliesDefaultTtlOnlyWithoutFreshness() throws Exception {
+        long before = System.currentTimeMillis();
+        Cache.Entry unfresh = newEntry(10, "application/json");
+        unfresh.partition = "api";
+        mCache.put("unfresh", unfresh);
+
+        Cache.Entry stored = mCache.get("unfresh");
+        assertTrue(stored.ttl >= before + HOUR_MS);
+        assertEquals(stored.ttl, stored.softTtl);
+        assertFalse(stored.refreshNeeded());
+
+        Cache.Entry fresh = newEntry(10, "application/json");
+        fresh.partition = "api";
+        fresh.ttl = before + 1000;
+        fresh.softTtl = before + 500;
+        mCache.put("fresh", fresh);
+        assertEquals(before + 1000, mCache.get("fresh").ttl);
+        assertEquals(before + 500, mCache.get("fresh").softTtl);
+
+        // The default partition has no default TTL.
+        mCache.put("plain", newEntry(10, "application/json"));
+        assertTrue(mCache.get("plain").isExpired());
+    }
+
+    @Test
+    public void put_evictsWithinItsPartitionOnly() throws Exception {
+        mCache.put("api", newEntry(3000, "application/json"));
+        for (int i = 0; i < 10; i++) {
+            mCache.put("image" + i, newEntry(3000, "image/png"));
+        }
+
+        assertNotNull(mCache.get("api"));
+        assertNull(mCache.get("image0"));
+        assertNotNull(mCache.get("image9"));
+    }
+
+    @Test
+    public void invalidateAndRemove_findThePartition() throws Exception {
+        mCache.put("png", newEntry(10, "image/png"));
+        mCache.invalidate("png", true);
+        assertTrue(mCache.get("png").isExpired());
+
+        mCache.remove("png");
+        assertNull(mCache.get("png"));
+    }
+
+    @Test
+    public void initialize_readsPartitionsBack() throws Exception {
+        mCache.put("png", newEntry(10, "image/png"));
+
+        PartitionedCache reopened = newCache();
+        reopened.initialize();
+
+        Cache.Entry entry = reopened.get("png");
+        assertNotNull(entry);
+        assertEquals("images", entry.partition);
+        assertEquals(10, entry.data.length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void routeContentType_rejectsUnknownPartition() throws Exception {
+        mCache.routeContentType("video/", "videos");
+    }
+
+    private static Cache.Entry newEntry(int size, String contentType) {
+        Cache.Entry entry = new Cache.Entry();
+        entry.data = new byte[size];
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Content-Type", contentType);
+        entry.responseHeaders = headers;
+        return entry;
+    }
+}
@@ -0,0 +1,177 @@
+package com.wz.wzvolley.toolbox;
+
+import com.wz.wzvolley.Request;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.*;
+
+public class RecordReplayTest {
+
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = new File(temporaryFolder.getRoot(), "recording");
+    }
+
+    @Test
+    public void roundTrip_responses() throws Exception {
+        ScriptedStack origin = new ScriptedStack();
+        origin.responses.add(response(200, "OK", "first"));
+        origin.responses.add(response(404, "Not Found", "second"));
+        RecordingHttpStack recorder = new RecordingHttpStack(origin, mFile);
+        Request<?> request = newRequest("http://example.com/a");
+
+        assertEquals("first", recorder.performRequest(request, NO_HEADERS).body().string());
+        assertEquals("second", recorder.performRequest(request, NO_HEADERS).body().string());
+        recorder.close();
+
+        ReplayHttpStack replay = new ReplayHttpStack(mFile);
+        assertEquals(2, replay.getRecordCount());
+
+        Response first = replay.performRequest(request, NO_HEADERS);
+        assertEquals(200, first.code());
+        assertEquals("OK", first.message());
+        assertEquals(2, first.headers("Set-Cookie").size());
+        assertEquals("text/plain; charset=utf-8", first.header("Content-Type"));
+        assertEquals("first", first.body().string());
+
+        Response second = replay.performRequest(request, NO_HEADERS);
+        assertEquals(404, second.code());
+        assertEquals("second", second.body().string());
+
+        // Starts over after the last record.
+        assertEquals("first", replay.performRequest(request, NO_HEADERS).body().string());
+        assertEquals(3, replay.getServedCount());
+    }
+
+    @Test
+    public void roundTrip_failuresKeepTheirType() throws Exception {
+        ScriptedStack origin = new ScriptedStack();
+        origin.failures.add(new SocketTimeoutException("read timed out"));
+        origin.failures.add(new ConnectException("refused"));
+        origin.failures.add(new IOException("broken"));
+        RecordingHttpStack recorder = new RecordingHttpStack(origin, mFile);
+        Request<?> request = newRequest("http://example.com/a");
+        for (int i = 0; i < 3; i++) {
+            try {
+                recorder.performRequest(request, NO_HEADERS);
+                fail("expected a failure");
+            } catch (IOException expected) {
+            }
+        }
+        recorder.close();
+
+        ReplayHttpStack replay = new ReplayHttpStack(mFile);
+        IOException timeout = replayFailure(replay, request);
+        assertEquals(SocketTimeoutException.class, timeout.getClass());
+        assertEquals("read timed out", timeout.getMessage());
+        assertEquals(ConnectException.class, replayFailure(replay, request).getClass());
+        IOException plain = replayFailure(replay, request);
+        assertEquals(IOException.class, plain.getClass());
+        assertEquals("broken", plain.getMessage());
+    }
+
+    @Test
+    public void replay_requestsAreMatchedOnMethodUrlAndBody() throws Exception {
+        ScriptedStack origin = new ScriptedStack();
+        origin.responses.add(response(200, "OK", "a"));
+        RecordingHttpStack recorder = new RecordingHttpStack(origin, mFile);
+        recorder.performRequest(newRequest("http://example.com/a"), NO_HEADERS);
+        recorder.close();
+
+        ReplayHttpStack replay = new ReplayHttpStack(mFile);
+        try {
+            replay.performRequest(newRequest("http://example.com/b"), NO_HEADERS);
+            fail("expected a miss");
+        } catch (IOException expected) {
+        }
+        assertEquals(1, replay.getMissCount());
+    }
+
+    @Test
+    public void replay_skipsRecordCutShort() throws Exception {
+        ScriptedStack origin = new ScriptedStack();
+        origin.responses.add(response(200, "OK", "a"));
+        origin.responses.add(response(200, "OK", "b"));
+        RecordingHttpStack recorder = new RecordingHttpStack(origin, mFile);
+        recorder.performRequest(newRequest("http://example.com/a"), NO_HEADERS);
+        recorder.flush();
+        long firstRecordLength = mFile.length();
+        recorder.performRequest(newRequest("http://example.com/b"), NO_HEADERS);
+        recorder.close();
+
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        raf.setLength(firstRecordLength + 10);
+        raf.close();
+
+        assertEquals(1, new ReplayHttpStack(mFile).getRecordCount());
+    }
+
+    private static IOException replayFailure(ReplayHttpStack replay, Request<?> request)
+            throws Exception {
+        try {
+            replay.performRequest(request, NO_HEADERS);
+        } catch (IOException e) {
+            return e;
+        }
+        fail("expected a failure");
+        return null;
+    }
+
+    private static Response response(int code, String message, String body) {
+        return new Response.Builder()
+                .request(new okhttp3.Request.Builder().url("http://example.com/").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .message(message)
+                .addHeader("Content-Type", "text/plain; charset=utf-8")
+                .addHeader("Set-Cookie", "a=1")
+                .addHeader("Set-Cookie", "b=2")
+                .body(ResponseBody.create(MediaType.parse("text/plain; charset=utf-8"), body))
+                .build();
+    }
+
+    private static Request<?> newRequest(String url) {
+        return new StringRequest(url, null, null, null);
+    }
+
+    /** Gives out the scripted failures, then the scripted responses, in order. */
+    private static class ScriptedStack implements HttpStack {
+        final List<Response> responses = new ArrayList<Response>();
+        final List<IOException> failures = new ArrayList<IOException>();
+
+        @Override
+        public Response performRequest(Request<?> request,
+                Map<String, String> additionalHeaders) throws IOException {
+            if (!failures.isEmpty()) {
+                throw failures.remove(0);
+            }
+            return responses.remove(0);
+        }
+    }
+}
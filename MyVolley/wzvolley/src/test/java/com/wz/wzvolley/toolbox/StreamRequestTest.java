@@ -0,0 +1,148 @@
+package com.wz.wzvolley.toolbox;
+
+import com.wz.wzvolley.NetworkResponse;
+import com.wz.wzvolley.ParseError;
+import com.wz.wzvolley.Response;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import okio.Buffer;
+import okio.BufferedSource;
+
+import static org.junit.Assert.*;
+
+public class StreamRequestTest {
+
+    private static final String BODY = "first line\nsecond line\nthird line\n";
+
+    @Test
+    public void parseNetworkStream_cachesWholeBodyWhenParserStopsEarly() throws Exception {
+        FirstLineRequest request = new FirstLineRequest();
+
+        NetworkResponse response = request.parseNetworkStream(head(), body(BODY));
+
+        assertEquals(BODY, new String(response.data, "UTF-8"));
+        Response<String> parsed = request.parseNetworkResponse(response);
+        assertEquals("first line", parsed.result);
+        assertEquals(BODY, new String(parsed.cacheEntry.data, "UTF-8"));
+    }
+
+    @Test
+    public void parseNetworkStream_bodyOverLimitIsParsedButNotCached() throws Exception {
+        FirstLineRequest request = new FirstLineRequest();
+        request.setMaxCachedBodyBytes(BODY.length() - 1);
+
+        NetworkResponse response = request.parseNetworkStream(head(), body(BODY));
+
+        assertNull(response.data);
+        Response<String> parsed = request.parseNetworkResponse(response);
+        assertEquals("first line", parsed.result);
+        assertNull(parsed.cacheEntry);
+    }
+
+    @Test
+    public void parseNetworkStream_bodyAtLimitIsCached() throws Exception {
+        FirstLineRequest request = new FirstLineRequest();
+        request.setMaxCachedBodyBytes(BODY.length());
+
+        NetworkResponse response = request.parseNetworkStream(head(), body(BODY));
+
+        assertEquals(BODY, new String(response.data, "UTF-8"));
+    }
+
+    @Test
+    public void parseNetworkStream_limitReachedWhileParsing() throws Exception {
+        FirstLineRequest request = new FirstLineRequest();
+        request.mReadAll = true;
+        request.setMaxCachedBodyBytes(4);
+
+        NetworkResponse response = request.parseNetworkStream(head(), body(BODY));
+
+        assertNull(response.data);
+        assertEquals(BODY, request.parseNetworkResponse(response).result);
+    }
+
+    @Test
+    public void parseNetworkStream_noCopyWhenNotCached() throws Exception {
+        FirstLineRequest request = new FirstLineRequest();
+        request.setShouldCache(false);
+        BufferedSource source = body(BODY);
+
+        NetworkResponse response = request.parseNetworkStream(head(), source);
+
+        assertNull(response.data);
+        // The rest of the body is left unread on the connection.
+        assertEquals("second line", source.readUtf8LineStrict());
+    }
+
+    @Test
+    public void parseNetworkStream_passesReadFailures() throws Exception {
+        FirstLineRequest request = new FirstLineRequest();
+        try {
+            request.parseNetworkStream(head(), body("no line break"));
+            fail("expected an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void parseNetworkResponse_parsesCacheHitsFromMemory() throws Exception {
+        FirstLineRequest request = new FirstLineRequest();
+        Response<String> parsed = request.parseNetworkResponse(
+                new NetworkResponse(BODY.getBytes("UTF-8")));
+        assertEquals("first line", parsed.result);
+    }
+
+    @Test
+    public void parseNetworkResponse_failsWithoutDataOrStream() throws Exception {
+        FirstLineRequest request = new FirstLineRequest();
+        Response<String> parsed = request.parseNetworkResponse(head());
+        assertFalse(parsed.isSuccess());
+        assertTrue(parsed.error instanceof ParseError);
+    }
+
+    @Test
+    public void basicNetwork_streamsSuccessfulResponses() throws Exception {
+        BasicNetwork network = new BasicNetwork(new BasicNetworkTest.FakeStack(200, BODY));
+        FirstLineRequest request = new FirstLineRequest();
+
+        NetworkResponse response = network.performRequest(request);
+
+        assertEquals(BODY, new String(response.data, "UTF-8"));
+        assertEquals("first line", request.parseNetworkResponse(response).result);
+    }
+
+    private static NetworkResponse head() {
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Cache-Control", "max-age=60");
+        return new NetworkResponse(200, null, Collections.unmodifiableMap(headers), false);
+    }
+
+    private static BufferedSource body(String text) {
+        return new Buffer().writeUtf8(text);
+    }
+
+    /** Parses the first line of the body only, unless told to read it all. */
+    private static class FirstLineRequest extends StreamRequest<String> {
+        boolean mReadAll;
+
+        FirstLineRequest() {
+            super(Method.GET, "http://example.com/lines", null);
+        }
+
+        @Override
+        protected String parseStream(NetworkResponse response, BufferedSource body)
+                throws IOException {
+            return mReadAll ? body.readUtf8() : body.readUtf8LineStrict();
+        }
+
+        @Override
+        protected void deliverResponse(String response) {
+        }
+    }
+}
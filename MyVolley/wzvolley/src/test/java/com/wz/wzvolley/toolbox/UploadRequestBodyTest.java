@@ -0,0 +1,81 @@
+package com.wz.wzvolley.toolbox;
+
+import android.os.SystemClock;
+
+import com.wz.wzvolley.Request;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class UploadRequestBodyTest {
+
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+    @Test
+    public void wrap_returnsBodyWithoutProgressOrCap() throws Exception {
+        RequestBody body = RequestBody.create(OCTET_STREAM, new byte[10]);
+        assertSame(body, UploadRequestBody.wrap(body, newRequest()));
+    }
+
+    @Test
+    public void writeTo_isPacedByTheCap() throws Exception {
+        assumeClockRuns();
+        Request<?> request = newRequest().setMaxUploadBytesPerSecond(80 * 1000);
+        RequestBody body = UploadRequestBody.wrap(
+                RequestBody.create(OCTET_STREAM, new byte[16 * 1000]), request);
+        Buffer sink = new Buffer();
+
+        long start = System.nanoTime();
+        body.writeTo(sink);
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(16 * 1000, sink.size());
+        assertTrue("took " + elapsedMs + " ms", elapsedMs >= 150);
+    }
+
+    @Test
+    public void writeTo_stopsWhenCanceledWhilePaused() throws Exception {
+        assumeClockRuns();
+        final Request<?> request = newRequest().setMaxUploadBytesPerSecond(1000);
+        RequestBody body = UploadRequestBody.wrap(
+                RequestBody.create(OCTET_STREAM, new byte[64 * 1000]), request);
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignored) { }
+                request.cancel();
+            }
+        }.start();
+
+        long start = System.nanoTime();
+        try {
+            body.writeTo(new Buffer());
+            fail("expected the upload to stop");
+        } catch (IOException expected) {
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        assertTrue("took " + elapsedMs + " ms", elapsedMs < 2000);
+    }
+
+    /** Pacing needs SystemClock, which stubbed Android classes keep at 0. */
+    private static void assumeClockRuns() throws InterruptedException {
+        long start = SystemClock.elapsedRealtime();
+        Thread.sleep(5);
+        assumeTrue(SystemClock.elapsedRealtime() > start);
+    }
+
+    private static Request<?> newRequest() {
+        return new StringRequest(Request.Method.POST, "http://example.com/upload", null, null,
+                null);
+    }
+}